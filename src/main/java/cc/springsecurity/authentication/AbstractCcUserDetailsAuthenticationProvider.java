@@ -15,6 +15,8 @@ import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
+import cc.springsecurity.authentication.hash.PasswordHashingBusyException;
+import cc.springsecurity.authentication.hash.PasswordHashingExecutor;
 import cc.springsecurity.authorization.RolesFinder;
 import cc.springsecurity.config.CcWebAuthenticationDetails;
 import cc.springsecurity.config.CcPrincipal;
@@ -37,6 +39,8 @@ public abstract class AbstractCcUserDetailsAuthenticationProvider extends Abstra
 
     protected RolesFinder rolesFinder;
 
+    protected PasswordHashingExecutor passwordHashingExecutor;
+
     @Override
     protected CcPrincipal retrieveUser(String username, UsernamePasswordAuthenticationToken authentication)
             throws AuthenticationException {
@@ -49,7 +53,9 @@ public abstract class AbstractCcUserDetailsAuthenticationProvider extends Abstra
 
         CcWebAuthenticationDetails wed = (CcWebAuthenticationDetails) authentication.getDetails();
 
-        CcPrincipal result = validateUser(username, credentials.toString(), wed);
+        String password = credentials.toString();
+        CcPrincipal result = null == passwordHashingExecutor ? validateUser(username, password, wed)
+                : passwordHashingExecutor.execute(() -> validateUser(username, password, wed));
 
         if (trace) {
             log.trace("retrieveUser done, returning " + result);
@@ -73,7 +79,10 @@ public abstract class AbstractCcUserDetailsAuthenticationProvider extends Abstra
      *            the password the user entered
      * @param details
      *            an instance of {@link CcWebAuthenticationDetails} to find information about the host and context to which this user is
-     *            authenticating
+     *            authenticating. With a {@link #setPasswordHashingExecutor(PasswordHashingExecutor) password hashing executor} this runs
+     *            on a pool thread, possibly after the login timed out and the container recycled the request, so use
+     *            {@link CcWebAuthenticationDetails#getServletContext()} and the {@link HostName} rather than
+     *            {@link CcWebAuthenticationDetails#getRequest()} .
      * @return an instance of {@link CcPrincipal} if the we could authenticate the user, otherwise null.
      */
     protected abstract CcPrincipal validateUser(String username, String password, CcWebAuthenticationDetails details);
@@ -119,6 +128,19 @@ public abstract class AbstractCcUserDetailsAuthenticationProvider extends Abstra
     protected void additionalAuthenticationChecks(UserDetails userDetails, UsernamePasswordAuthenticationToken authentication) {
     }
 
+    /**
+     * Validate users on the executor rather than the calling thread, so password hashing cannot take every servlet thread. When it is
+     * saturated a login fails with {@link PasswordHashingBusyException} .
+     * 
+     * @param passwordHashingExecutor
+     *            null validates on the calling thread
+     * @return this object
+     */
+    public AbstractCcUserDetailsAuthenticationProvider setPasswordHashingExecutor(PasswordHashingExecutor passwordHashingExecutor) {
+        this.passwordHashingExecutor = passwordHashingExecutor;
+        return this;
+    }
+
     /**
      * Set the roles finder.
      * 
@@ -1,7 +1,9 @@
 package cc.springsecurity.authentication.hash;
 
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
-import java.util.Arrays;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * Thread safe hash and verify passwords. This class is package level access only and should be access via {@link PasswordUtil}
@@ -21,6 +23,17 @@ class Hash {
      */
     private static final int DEFAULT_ITERATION_COUNT = 1000;
 
+    /**
+     * A digest per thread, MessageDigest.getInstance looks up the provider each time.
+     */
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance(MESSAGE_DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
     /**
      * Encode the given password generating a random salt.
      * 
@@ -75,13 +88,25 @@ class Hash {
 
         Coder c = new Coder();
 
-        byte[] salt = c.decode(info.getSalt());
+        return verifyPassword(c.decode(info.getPassword()), c.decode(info.getSalt()), password);
 
-        byte[] storedPassword = c.decode(info.getPassword());
+    }
 
-        byte[] potentialPassword = c.decode(buildPasswordHash(password, salt).getPassword());
+    /**
+     * Verify on the raw bytes, without encoding the hash of the argument password.
+     * 
+     * @param storedPassword
+     *            the decoded known password
+     * @param salt
+     *            the decoded salt
+     * @param password
+     *            the password we are confirming
+     * @return true if the passwords match, false otherwise.
+     */
+    public boolean verifyPassword(byte[] storedPassword, byte[] salt, String password) {
 
-        return Arrays.equals(storedPassword, potentialPassword);
+        // constant time, does not tell how many leading bytes matched
+        return MessageDigest.isEqual(storedPassword, getHash(DEFAULT_ITERATION_COUNT, password, salt));
 
     }
 
@@ -97,23 +122,22 @@ class Hash {
      * @return byte[] The digested password
      */
     private byte[] getHash(int iterationNb, String password, byte[] salt) {
+        MessageDigest digest = DIGEST.get();
         try {
-
-            MessageDigest digest = MessageDigest.getInstance(MESSAGE_DIGEST_ALGORITHM);
             digest.reset();
             digest.update(salt);
-            byte[] input = digest.digest(password.getBytes("UTF-8"));
+            byte[] input = digest.digest(password.getBytes(StandardCharsets.UTF_8));
+            // digest in place, the rounds allocate nothing
+            int length = input.length;
             for (int i = 0; i < iterationNb; i++) {
-                digest.reset();
-                input = digest.digest(input);
+                digest.update(input, 0, length);
+                digest.digest(input, 0, length);
             }
             return input;
-        } catch (Exception e) {
-            if (e instanceof RuntimeException) {
-                throw (RuntimeException) e;
-            } else {
-                throw new RuntimeException(e);
-            }
+        } catch (DigestException e) {
+            throw new RuntimeException(e);
+        } finally {
+            digest.reset();
         }
     }
 
@@ -2,12 +2,18 @@ package cc.springsecurity.authentication.hash;
 
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntToLongFunction;
 
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Component;
 
 /**
- * Hash and compare passwords. This uses the {@link BCryptPasswordEncoder}.
+ * Hash and compare passwords. This uses the {@link BCryptPasswordEncoder}. Thread safe, build one and share it: the encoder and its
+ * {@link SecureRandom} are built once, not per login.
  * 
  * @author Chris Carcel
  * 
@@ -15,22 +21,83 @@ import org.springframework.stereotype.Component;
 @Component
 public final class PasswordHashing {
 
-    private BCryptPasswordEncoder passwordEncoder;
+    private static final Logger LOG = LoggerFactory.getLogger(PasswordHashing.class);
 
     /**
-     * Constructor.
+     * The default bcrypt cost, the log2 of the rounds.
      */
-    public PasswordHashing() {
+    public static final int DEFAULT_COST = 14;
+
+    /**
+     * Lowest cost bcrypt allows.
+     */
+    public static final int MIN_COST = 4;
+
+    /**
+     * Highest cost bcrypt allows.
+     */
+    public static final int MAX_COST = 31;
+
+    /**
+     * Where the salts come from.
+     */
+    public enum SeedStrategy {
+        /**
+         * {@link SecureRandom#getInstanceStrong()}, on Linux /dev/random which can block for seconds when the entropy pool is low.
+         */
+        STRONG,
+        /**
+         * NativePRNGNonBlocking, /dev/urandom on Linux, which never blocks. Falls back to the platform default where not available.
+         */
+        NON_BLOCKING,
+        /**
+         * The platform default {@link SecureRandom} .
+         */
+        DEFAULT;
 
-        SecureRandom sr;
-        try {
-            sr = SecureRandom.getInstanceStrong();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+        SecureRandom newSecureRandom() {
+            try {
+                switch (this) {
+                case STRONG:
+                    return SecureRandom.getInstanceStrong();
+                case NON_BLOCKING:
+                    return SecureRandom.getInstance("NativePRNGNonBlocking");
+                default:
+                    return new SecureRandom();
+                }
+            } catch (NoSuchAlgorithmException e) {
+                if (this == STRONG) {
+                    throw new RuntimeException(e);
+                }
+                return new SecureRandom();
+            }
         }
+    }
 
-        BCryptPasswordEncoder enc = new BCryptPasswordEncoder(14, sr);
-        this.passwordEncoder = enc;
+    private final BCryptPasswordEncoder passwordEncoder;
+
+    private final int cost;
+
+    /**
+     * Constructor, {@link #DEFAULT_COST} with non blocking salts.
+     */
+    public PasswordHashing() {
+        this(DEFAULT_COST, SeedStrategy.NON_BLOCKING);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param cost
+     *            the bcrypt cost, {@link #MIN_COST} to {@link #MAX_COST}, see {@link #calibrate(long)}
+     * @param seedStrategy
+     *            where the salts come from
+     */
+    public PasswordHashing(int cost, SeedStrategy seedStrategy) {
+        Validate.inclusiveBetween(MIN_COST, MAX_COST, cost, "cost must be between 4 and 31");
+        Validate.notNull(seedStrategy, "seedStrategy cannot be null");
+        this.cost = cost;
+        this.passwordEncoder = new BCryptPasswordEncoder(cost, seedStrategy.newSecureRandom());
     }
 
     /**
@@ -45,7 +112,7 @@ public final class PasswordHashing {
     }
 
     /**
-     * Verify that the passwords match.
+     * Verify that the passwords match. The cost of the stored password applies, whatever the cost of this object.
      * 
      * @param knownPassword
      *            the hashed stored password
@@ -58,4 +125,74 @@ public final class PasswordHashing {
         return passwordEncoder.matches(password, knownPassword);
 
     }
+
+    /**
+     * @return the bcrypt cost of new hashes
+     */
+    public int getCost() {
+        return cost;
+    }
+
+    /**
+     * Measure bcrypt on this host and pick the highest cost whose hash takes no more than the target, run at startup. Each cost doubles
+     * the time, it measures upwards from {@link #MIN_COST} so it takes about twice the target.
+     * 
+     * @param targetMillis
+     *            the time a login may spend hashing
+     * @return the cost, at least {@link #MIN_COST}
+     */
+    public static int calibrate(long targetMillis) {
+        SecureRandom random = SeedStrategy.NON_BLOCKING.newSecureRandom();
+
+        // warm up, the first hash includes class loading and compilation
+        new BCryptPasswordEncoder(MIN_COST, random).encode("calibrate");
+
+        return calibrate(targetMillis, cost -> {
+            long start = System.nanoTime();
+            new BCryptPasswordEncoder(cost, random).encode("calibrate");
+            return System.nanoTime() - start;
+        });
+    }
+
+    /**
+     * Pick the cost from measurements.
+     * 
+     * @param targetMillis
+     *            the time a login may spend hashing
+     * @param costNanos
+     *            the nanoseconds one hash takes at a cost
+     * @return the cost, at least {@link #MIN_COST}
+     */
+    static int calibrate(long targetMillis, IntToLongFunction costNanos) {
+        Validate.isTrue(targetMillis > 0L, "targetMillis must be positive");
+        long targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+
+        int result = MIN_COST;
+        for (int cost = MIN_COST; cost <= MAX_COST; cost++) {
+            long elapsed = costNanos.applyAsLong(cost);
+            if (elapsed > targetNanos) {
+                break;
+            }
+            result = cost;
+            if (elapsed * 2 > targetNanos) {
+                // the next cost takes twice as long
+                break;
+            }
+        }
+        LOG.info("bcrypt cost " + result + " meets the target of " + targetMillis + " ms");
+        return result;
+    }
+
+    /**
+     * Build with the cost {@link #calibrate(long)} picks.
+     * 
+     * @param targetMillis
+     *            the time a login may spend hashing
+     * @param seedStrategy
+     *            where the salts come from
+     * @return the new object
+     */
+    public static PasswordHashing calibrated(long targetMillis, SeedStrategy seedStrategy) {
+        return new PasswordHashing(calibrate(targetMillis), seedStrategy);
+    }
 }
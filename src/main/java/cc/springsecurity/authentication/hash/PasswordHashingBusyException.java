@@ -0,0 +1,22 @@
+package cc.springsecurity.authentication.hash;
+
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * Thrown when a login cannot be verified because the {@link PasswordHashingExecutor} is saturated. The user should try again.
+ * 
+ * @author Chris Carcel
+ *
+ */
+@SuppressWarnings("serial")
+public class PasswordHashingBusyException extends AuthenticationException {
+
+    public PasswordHashingBusyException(String msg) {
+        super(msg);
+    }
+
+    public PasswordHashingBusyException(String msg, Throwable t) {
+        super(msg, t);
+    }
+
+}
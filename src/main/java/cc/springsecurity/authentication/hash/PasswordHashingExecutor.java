@@ -0,0 +1,271 @@
+package cc.springsecurity.authentication.hash;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cc.springsecurity.authentication.HostServletContext;
+import cc.springsecurity.config.utils.HostName;
+
+/**
+ * Runs password verification on a small, bounded pool so a login storm burns at most {@link #getConcurrency() concurrency} cpus on bcrypt
+ * and leaves the servlet threads to normal requests. A login takes one of <code>concurrency + queueDepth</code> permits, held until its
+ * task has finished or been dropped before starting; when none is left it is refused at once with a
+ * {@link PasswordHashingBusyException} rather than waiting, the user tries again. The {@link HostName} of the calling thread is carried
+ * to the pool thread.
+ *
+ * <p>
+ * Counts submitted, rejected and timed out logins, and the time tasks spend queued against the time they spend computing.
+ * </p>
+ *
+ * @author Chris Carcel
+ *
+ */
+public class PasswordHashingExecutor implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PasswordHashingExecutor.class);
+
+    /**
+     * Default maximum milliseconds a caller waits, queued plus computing.
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000L;
+
+    private final ThreadPoolExecutor executor;
+
+    private final int concurrency;
+
+    private final int queueDepth;
+
+    /**
+     * Admission, the queue itself is unbounded.
+     */
+    private final Semaphore permits;
+
+    private volatile long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final LongAdder computeNanos = new LongAdder();
+
+    /**
+     * Setup with one thread per cpu and a queue of four tasks per thread.
+     */
+    public PasswordHashingExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Setup with a queue of four tasks per thread.
+     *
+     * @param concurrency
+     *            number of threads
+     */
+    public PasswordHashingExecutor(int concurrency) {
+        this(concurrency, 4 * concurrency);
+    }
+
+    /**
+     * Setup.
+     *
+     * @param concurrency
+     *            number of threads
+     * @param queueDepth
+     *            number of tasks waiting for a thread before logins are refused
+     */
+    public PasswordHashingExecutor(int concurrency, int queueDepth) {
+        Validate.isTrue(concurrency > 0, "concurrency must be positive");
+        Validate.isTrue(queueDepth >= 0, "queueDepth cannot be negative");
+        this.concurrency = concurrency;
+        this.queueDepth = queueDepth;
+        this.permits = new Semaphore(concurrency + queueDepth);
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "PasswordHashing-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Set the maximum time a caller waits, {@link #DEFAULT_TIMEOUT_MILLIS} by default.
+     *
+     * @param timeoutMillis
+     * @return this object
+     */
+    public PasswordHashingExecutor setTimeoutMillis(long timeoutMillis) {
+        Validate.isTrue(timeoutMillis > 0L, "timeoutMillis must be positive");
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Run the task on the pool and wait for it.
+     *
+     * @param task
+     *            typically verifies a password
+     * @return the result of the task
+     * @throws PasswordHashingBusyException
+     *             if the pool is saturated or the task took too long
+     */
+    public <T> T execute(Callable<T> task) {
+        submitted.increment();
+        if (!permits.tryAcquire()) {
+            rejected.increment();
+            LOG.warn("Password hashing saturated, refusing a login");
+            throw new PasswordHashingBusyException("Too many logins in progress, try again");
+        }
+
+        // whoever claims the task first gives the permit back: the pool thread once it has run it, the caller if it never started
+        AtomicBoolean claimed = new AtomicBoolean();
+        HostServletContext host = HostName.getHostIfSet();
+        long queued = System.nanoTime();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    return null;
+                }
+                long started = System.nanoTime();
+                queueNanos.add(started - queued);
+                HostServletContext previous = HostName.getHostIfSet();
+                HostName.setHost(host);
+                try {
+                    return task.call();
+                } finally {
+                    HostName.setHost(previous);
+                    computeNanos.add(System.nanoTime() - started);
+                    completed.increment();
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            rejected.increment();
+            throw new PasswordHashingBusyException("Password hashing is shut down", e);
+        }
+
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            drop(future, claimed);
+            timedOut.increment();
+            throw new PasswordHashingBusyException("Login timed out, try again", e);
+        } catch (InterruptedException e) {
+            drop(future, claimed);
+            Thread.currentThread().interrupt();
+            throw new PasswordHashingBusyException("Login interrupted, try again", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Give up on a task, releasing its permit here if it never started.
+     */
+    private void drop(Future<?> future, AtomicBoolean claimed) {
+        future.cancel(true);
+        if (claimed.compareAndSet(false, true)) {
+            permits.release();
+        }
+    }
+
+    /**
+     * @return number of threads
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return number of tasks which can wait for a thread
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return number of tasks waiting for a thread now
+     */
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return number of tasks computing now
+     */
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    /**
+     * @return total nanoseconds completed tasks waited for a thread
+     */
+    public long getTotalQueueNanos() {
+        return queueNanos.sum();
+    }
+
+    /**
+     * @return total nanoseconds completed tasks computed
+     */
+    public long getTotalComputeNanos() {
+        return computeNanos.sum();
+    }
+
+    /**
+     * Stop the threads, tasks waiting are dropped.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        long done = Math.max(1L, getCompletedCount());
+        return "PasswordHashingExecutor [concurrency=" + concurrency + ", queued=" + getQueued() + ", active=" + getActive()
+                + ", submitted=" + getSubmittedCount() + ", rejected=" + getRejectedCount() + ", timedOut=" + getTimedOutCount()
+                + ", avgQueueMillis=" + TimeUnit.NANOSECONDS.toMillis(getTotalQueueNanos() / done) + ", avgComputeMillis="
+                + TimeUnit.NANOSECONDS.toMillis(getTotalComputeNanos() / done) + "]";
+    }
+
+}
@@ -0,0 +1,120 @@
+package cc.springsecurity.authentication.hash;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Verify a stored password in either format: the legacy salted, iterated SHA-1 hash of {@link PasswordUtil}, stored as a base 64 hash
+ * and salt, or a bcrypt hash of {@link PasswordHashing}, stored without a salt. A legacy password which matches is reported as
+ * {@link Verification#VALID_LEGACY} so the caller can store {@link #upgrade(String)} in its place while it has the clear text password.
+ *
+ * @author Chris Carcel
+ *
+ */
+@Component
+public final class PasswordVerifier {
+
+    private static final Hash HASH = new Hash();
+
+    private static final String BCRYPT_PREFIX = "$2";
+
+    /**
+     * The outcome of a verification.
+     */
+    public enum Verification {
+        /**
+         * The password does not match.
+         */
+        INVALID,
+        /**
+         * The password matches a bcrypt hash.
+         */
+        VALID,
+        /**
+         * The password matches a legacy hash, which should be upgraded.
+         */
+        VALID_LEGACY;
+
+        /**
+         * @return true if the password matches
+         */
+        public boolean isValid() {
+            return this != INVALID;
+        }
+    }
+
+    @Autowired
+    private PasswordHashing passwordHashing;
+
+    /**
+     * Setup, the {@link PasswordHashing} is injected.
+     */
+    public PasswordVerifier() {
+    }
+
+    /**
+     * Setup.
+     *
+     * @param passwordHashing
+     *            verifies and builds bcrypt hashes
+     */
+    public PasswordVerifier(PasswordHashing passwordHashing) {
+        this.passwordHashing = passwordHashing;
+    }
+
+    /**
+     * Verify the password.
+     *
+     * @param storedPassword
+     *            the bcrypt hash, or the base 64 encoded legacy hash
+     * @param salt
+     *            the base 64 encoded salt of a legacy hash, null or blank for bcrypt
+     * @param password
+     *            the text password we are checking
+     * @return the outcome
+     */
+    public Verification verify(String storedPassword, String salt, String password) {
+        if (null == storedPassword || null == password) {
+            return Verification.INVALID;
+        }
+        if (isBcrypt(storedPassword, salt)) {
+            return passwordHashing().verifyPassword(storedPassword, password) ? Verification.VALID : Verification.INVALID;
+        }
+        if (StringUtils.isBlank(salt)) {
+            return Verification.INVALID;
+        }
+        Coder c = new Coder();
+        return HASH.verifyPassword(c.decode(storedPassword), c.decode(salt), password) ? Verification.VALID_LEGACY
+                : Verification.INVALID;
+    }
+
+    /**
+     * The bcrypt hash to store in place of a legacy one, with no salt.
+     *
+     * @param password
+     *            the text password which was just verified
+     * @return the bcrypt hash
+     */
+    public String upgrade(String password) {
+        return passwordHashing().buildPasswordHash(password);
+    }
+
+    /**
+     * @param storedPassword
+     * @param salt
+     * @return true if the stored password is a bcrypt hash
+     */
+    public static boolean isBcrypt(String storedPassword, String salt) {
+        return StringUtils.isBlank(salt) && null != storedPassword && storedPassword.startsWith(BCRYPT_PREFIX);
+    }
+
+    private PasswordHashing passwordHashing() {
+        PasswordHashing result = passwordHashing;
+        if (null == result) {
+            throw new IllegalStateException("passwordHashing is not set");
+        }
+        return result;
+    }
+
+}
@@ -1,37 +1,66 @@
 package cc.springsecurity.authentication.jdbc;
 
-import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import javax.naming.NamingException;
-import javax.security.auth.login.LoginException;
+import javax.servlet.ServletContext;
 import javax.sql.DataSource;
 
+import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.AbstractDriverBasedDataSource;
+import org.springframework.jdbc.datasource.SmartDataSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.context.support.WebApplicationContextUtils;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import cc.springsecurity.authentication.AbstractCcUserDetailsAuthenticationProvider;
-import cc.springsecurity.authentication.hash.PasswordUtil;
+import cc.springsecurity.authentication.hash.PasswordVerifier;
+import cc.springsecurity.authentication.hash.PasswordVerifier.Verification;
 import cc.springsecurity.authorization.RolesFinder;
 import cc.springsecurity.config.CcPrincipal;
 import cc.springsecurity.config.CcPrincipalImpl;
 import cc.springsecurity.config.CcWebAuthenticationDetails;
 import cc.springsecurity.config.utils.HostDbServiceProperties;
 
+/**
+ * Validates users against the passwords, users and groups tables. The data source is the bean {@link #setDataSourceName(String) named}
+ * ds-admin of the web application context of the servlet context, looked up once per servlet context, or the one given to
+ * {@link #setDataSource(DataSource)} . Its {@link NamedParameterJdbcTemplate} is built once with it and reused by every login.
+ * 
+ * <p>
+ * Optionally, per data source, the profile and groups of a user are {@link #setProfileCache(long, long, TimeUnit) cached} by user id so a
+ * login only reads the passwords table, and login names with no active password are {@link #setUnknownUsernameCache(long, long, TimeUnit)
+ * remembered} for a short time so repeated attempts with unknown names do not query at all. The password is always verified against the
+ * database. See {@link #evictUser(Integer)} , {@link #evictUsername(String)} and {@link #evictAll()} .
+ * </p>
+ * 
+ * @author Chris Carcel
+ *
+ */
 @Component
 public class JdbcAuthenticationProvider extends AbstractCcUserDetailsAuthenticationProvider {
 
     @Autowired
-    private PasswordUtil passwordUtil;
+    private PasswordVerifier passwordVerifier;
 
     private HostDbServiceProperties hostDbServiceProperties;
 
@@ -42,13 +71,70 @@ public class JdbcAuthenticationProvider extends AbstractCcUserDetailsAuthenticat
      */
     private String dataSourceName = "ds-admin";
 
+    /**
+     * Credentials and profile in one round trip.
+     */
+    private static final String USER_QUERY = "select p.id, p.user_id, p.password_hash, p.salt, u.first_name, u.middle_name, u.last_name, u.email "
+            + "from passwords p inner join users u on (u.user_id = p.user_id) where lower(p.login_name) = lower(:un) and p.active = 1";
+
+    /**
+     * Credentials only, when the profile is cached.
+     */
+    private static final String CREDENTIALS_QUERY = "select p.id, p.user_id, p.password_hash, p.salt from passwords p "
+            + "where lower(p.login_name) = lower(:un) and p.active = 1";
+
+    /**
+     * Profile and groups in one round trip, one row per group.
+     */
+    private static final String PROFILE_QUERY = "select u.first_name, u.middle_name, u.last_name, u.email, g.group_name from users u "
+            + "left join groups_members gm on (gm.user_id = u.user_id) left join groups g on (gm.group_id = g.id) where u.user_id = :uuid";
+
+    private static final String GROUPS_QUERY = "select G.GROUP_NAME from GROUPS_MEMBERS gm inner join groups g on (GM.GROUP_ID = g.id) where GM.USER_ID = :uuid";
+
+    private static final String UPGRADE_PASSWORD = "update passwords set password_hash = :hash, salt = null where id = :id";
+
+    /**
+     * The store of each servlet context, weak so a redeployed context is not held.
+     */
+    private final Cache<ServletContext, Store> stores = CacheBuilder.newBuilder().weakKeys().build();
+
+    /**
+     * Set by {@link #setDataSource(DataSource)} , used instead of the looked up one.
+     */
+    private volatile Store fixedStore;
+
+    private long profileCacheSize;
+
+    private long profileCacheTtlMillis;
+
+    private long unknownUsernameCacheSize;
+
+    private long unknownUsernameCacheTtlMillis;
+
+    /**
+     * Refuse a data source which opens a new physical connection per call, off by default which only logs a warning.
+     */
+    private boolean requirePooledDataSource;
+
+    /**
+     * Runs the groups query while the password is verified, null to run it after.
+     */
+    private volatile Executor groupsExecutor;
+
+    /**
+     * Replace a matching legacy hash with a bcrypt one on login, off by default.
+     */
+    private boolean upgradeLegacyPasswords;
+
     @Override
     protected CcPrincipal validateUser(String username, String password, CcWebAuthenticationDetails details) {
         return validateUserOnJboss(username, password, details);
     }
 
     /**
-     * Attempts to login a user to jboss.
+     * Attempts to login a user to jboss. One query reads the credentials and profile, a second the groups; with a
+     * {@link #setGroupsExecutor(Executor) groups executor} the groups are read while the password is verified. With the profile cache
+     * only the credentials are read, and the profile and groups in one more query when they are not cached.
      * 
      * @param username
      * @param password
@@ -56,97 +142,115 @@ public class JdbcAuthenticationProvider extends AbstractCcUserDetailsAuthenticat
      */
     private CcPrincipal validateUserOnJboss(String username, String password, CcWebAuthenticationDetails wed) {
 
-        CcPrincipalImpl result = null;
-
-        boolean success = false;
-
-        Integer userId = null;
-
-        Connection connection = null;
         try {
             // validate
-            DataSource ds = lookupDataSource(wed);
-            JdbcTemplate t = new JdbcTemplate(ds);
+            Store store = store(wed);
+            NamedParameterJdbcTemplate t = store.template;
+            String loginName = null == username ? "" : username.toLowerCase(Locale.ROOT);
+            if (store.isUnknown(loginName)) {
+                log.debug("Login name recently not found, not querying");
+                return null;
+            }
+            boolean cacheProfiles = null != store.principals;
 
-            String query = "select id, user_id, password_hash, salt from passwords where lower(login_name) = lower(:un) and active = 1";
-            List<Map<String, Object>> results = t.queryForList(query, username);
+            List<Map<String, Object>> results = t.queryForList(cacheProfiles ? CREDENTIALS_QUERY : USER_QUERY,
+                    Collections.singletonMap("un", username));
             if (results.isEmpty()) {
                 // no match
                 log.info("No Matching Jboss user found");
-                success = false;
+                store.unknown(loginName);
+                return null;
             } else if (results.size() > 1) {
                 // more than 1 match, invalid
                 log.warn(results.size() + " users found matching this user name, this is invalid");
-                success = false;
-            } else {
-                Map<String, Object> map = results.iterator().next();
-                // found match, validate password
-                String passwordHash = (String) map.get("PASSWORD_HASH");
-                String salt = (String) map.get("SALT");
-                if (validateJbossPassword(password, passwordHash, salt)) {
-                    success = true;
-                    userId = ((Number) map.get("USER_ID")).intValue();
-                } else {
-                    success = false;
-                }
+                return null;
             }
 
-            // we have now validated the password
+            Map<String, Object> map = results.iterator().next();
+            Integer userId = ((Number) map.get("USER_ID")).intValue();
+
+            CcPrincipalImpl cached = cacheProfiles ? store.principals.getIfPresent(userId) : null;
+            Supplier<CcPrincipalImpl> load = cacheProfiles ? () -> loadPrincipal(t, userId)
+                    : () -> buildPrincipal(userId, map, loadGroups(t, userId));
+            Executor executor = groupsExecutor;
+            CompletableFuture<CcPrincipalImpl> loading = null != cached || null == executor ? null
+                    : CompletableFuture.supplyAsync(load, executor);
+
+            // found match, validate password
+            String passwordHash = (String) map.get("PASSWORD_HASH");
+            String salt = (String) map.get("SALT");
+            Verification verification = validateJbossPassword(password, passwordHash, salt);
+            if (!verification.isValid()) {
+                // the profile query may still be running, its result is dropped
+                return null;
+            }
+            if (verification == Verification.VALID_LEGACY && upgradeLegacyPasswords) {
+                upgradePassword(t, (Number) map.get("ID"), password);
+            }
 
-            if (success) {
-                result = new CcPrincipalImpl();
+            // we have now validated the password
 
-                if (success) {
-                    this.updatePrincipleData(username, result, userId, t, wed);
-                }
+            if (null != cached) {
+                return new CcPrincipalImpl(cached);
             }
+            CcPrincipalImpl principal = null == loading ? load.get() : loading.join();
+            if (null == principal) {
+                log.warn("No users row for user id " + userId);
+                return null;
+            }
+            if (cacheProfiles) {
+                store.principals.put(userId, principal);
+                return new CcPrincipalImpl(principal);
+            }
+            return principal;
 
         } catch (Exception ex) {
             log.error("Error Validating User on Jboss", ex);
-            success = false;
-        } finally {
-            JdbcUtils.closeConnection(connection);
+            return null;
         }
+    }
+
+    /**
+     * The group names of the user.
+     */
+    private List<String> loadGroups(NamedParameterJdbcTemplate t, Integer userId) {
+        return t.queryForList(GROUPS_QUERY, Collections.singletonMap("uuid", userId), String.class);
+    }
 
-        return success ? result : null;
+    /**
+     * The principal from {@link #PROFILE_QUERY} , null if the user has no users row.
+     */
+    private CcPrincipalImpl loadPrincipal(NamedParameterJdbcTemplate t, Integer userId) {
+        List<Map<String, Object>> rows = t.queryForList(PROFILE_QUERY, Collections.singletonMap("uuid", userId));
+        if (rows.isEmpty()) {
+            return null;
+        }
+        List<String> groupsList = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            String group = (String) row.get("GROUP_NAME");
+            if (null != group) {
+                groupsList.add(group);
+            }
+        }
+        return buildPrincipal(userId, rows.get(0), groupsList);
     }
 
     /**
-     * Used for both login types. Stores the information from the session <b>or</b> from tables into the CcPrincipal.
+     * Build the {@link CcPrincipal} from the profile columns of the user row and the groups.
      * 
-     * @param userNameForLogin
-     *            the user name they used to login
-     * @param ccrincipal
-     *            The CcPrincipal to store the data in
-     * @param session
-     *            The Notes Session containing the data. Can be null if this is a jboss login. If this not null, the <code>userId</code> and
-     *            <code>t</code> are ignored.
      * @param userId
-     *            the user id of the user. Specified when a jboss login occurs. If the <code>session</code> is not null, this is ignored. If
-     *            session is null, it is assumed that this and <code>t</code> are not null
-     * @param t
-     *            template, used only on a jboss login, see <code>userId</code>comment
-     * @param wed
-     * @throws LoginException
+     *            the user_id
+     * @param userInfo
+     *            the row of {@link #USER_QUERY} or {@link #PROFILE_QUERY}
+     * @param groupsList
+     *            the group names
+     * @return the principal
      */
-    private void updatePrincipleData(String userNameForLogin, final CcPrincipalImpl ccrincipal, Integer userId, JdbcTemplate t,
-            CcWebAuthenticationDetails wed) {
-
-        // set the user name they logged in with
-        ccrincipal.setUsername(userNameForLogin);
-
-        final Set<String> notesGroupList;
+    private CcPrincipalImpl buildPrincipal(Integer userId, Map<String, Object> userInfo, List<String> groupsList) {
 
-        // set the names
-        String nameQuery = "select user_name from users u where u.user_id = :uuid";
-        String userName = t.queryForObject(nameQuery, String.class, userId);
+        CcPrincipalImpl ccPrincipal = new CcPrincipalImpl();
 
-        ccrincipal.setUserId(userId);
-
-        // jboss login, set the same fields as above except the notesToken
-        String groupsQuery = "select G.GROUP_NAME from GROUPS_MEMBERS gm inner join groups g on (GM.GROUP_ID = g.id) where GM.USER_ID = :uuid";
-        List<String> groupsList = t.queryForList(groupsQuery, String.class, userId);
-        notesGroupList = new TreeSet<String>(groupsList);
+        final Set<String> notesGroupList = new TreeSet<String>(groupsList);
         notesGroupList.add("*"); // add the * that notes does by default because we rely on this "group"
 
         if (log.isDebugEnabled()) {
@@ -163,51 +267,64 @@ public class JdbcAuthenticationProvider extends AbstractCcUserDetailsAuthenticat
         }
 
         // fill in the groups
-        ccrincipal.setGroups(notesGroupList.toArray(new String[notesGroupList.size()]));
+        ccPrincipal.setGroups(notesGroupList.toArray(new String[notesGroupList.size()]));
 
-        this.updateDataFromJboss(ccrincipal, userId, t);
+        ccPrincipal.setUserId(userId);
+        ccPrincipal.setLastName((String) userInfo.get("LAST_NAME"));
+        ccPrincipal.setMiddleInitial((String) userInfo.get("MIDDLE_NAME"));
+        ccPrincipal.setFirstName((String) userInfo.get("FIRST_NAME"));
+        ccPrincipal.setEmail((String) userInfo.get("EMAIL"));
 
         // Set the user Principal's name to be the employee ID.
-        ccrincipal.setUsername(ccrincipal.getUserId().toString());
+        ccPrincipal.setUsername(userId.toString());
 
+        return ccPrincipal;
     }
 
     /**
-     * Extracts information from jboss tables and stores it in the {@link CcPrincipal} . This is only called on jboss login, for a Notes
-     * login {@link #updateDataFromAddressbook(CcPrincipal, Session)} is used. Both this method and the noets version should set the same
-     * fields.
+     * The template and caches of the data source, built once per servlet context.
      * 
-     * @param ccPrincipal
-     *            the {@link CcPrincipal} to update
-     * @param userId
-     *            the user_id
-     * @param t
-     *            {@link JdbcTemplate}
+     * @return
      */
-    private void updateDataFromJboss(final CcPrincipalImpl ccPrincipal, Integer userId, JdbcTemplate t) {
-
-        StringBuilder sql = new StringBuilder();
-        sql.append("select u.user_name, u.first_name, u.middle_name, u.last_name, u.email ");
-        sql.append("from table u ");
-        sql.append("where u.user_id = :uuid ");
-
-        String userInfoQuery = sql.toString();
-
-        List<Map<String, Object>> results = t.queryForList(userInfoQuery, userId);
-        if (results.isEmpty()) {
-            throw new IllegalArgumentException("No users record found for " + userId);
-        } else if (results.size() > 1) {
-            throw new IllegalArgumentException(results.size() + " users record found for " + userId);
+    private Store store(CcWebAuthenticationDetails wed) {
+        Store result = fixedStore;
+        if (null != result) {
+            return result;
+        }
+        // not the request, this may run on a password hashing thread after the container recycled it
+        ServletContext sc = wed.getServletContext();
+        try {
+            return stores.get(sc, () -> newStore(new NamedParameterJdbcTemplate(checkPooled(lookupDataSource(sc)))));
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
         }
+    }
 
-        Map<String, Object> userInfo = results.iterator().next();
+    private Store newStore(NamedParameterJdbcTemplate template) {
+        return new Store(template, profileCacheSize, profileCacheTtlMillis, unknownUsernameCacheSize, unknownUsernameCacheTtlMillis);
+    }
 
-        ccPrincipal.setUserId(userId);
-        ccPrincipal.setLastName((String) userInfo.get("LAST_NAME"));
-        ccPrincipal.setMiddleInitial((String) userInfo.get("MIDDLE_NAME"));
-        ccPrincipal.setFirstName((String) userInfo.get("FIRST_NAME"));
-        ccPrincipal.setEmail((String) userInfo.get("EMAIL"));
+    /**
+     * Rebuild the stores with the current cache settings, dropping what they hold.
+     */
+    private void resetStores() {
+        Store fixed = fixedStore;
+        if (null != fixed) {
+            fixedStore = newStore(fixed.template);
+        }
+        stores.invalidateAll();
+    }
 
+    /**
+     * The stores built so far.
+     */
+    private List<Store> allStores() {
+        List<Store> result = new ArrayList<>(stores.asMap().values());
+        Store fixed = fixedStore;
+        if (null != fixed) {
+            result.add(fixed);
+        }
+        return result;
     }
 
     /**
@@ -216,24 +333,58 @@ public class JdbcAuthenticationProvider extends AbstractCcUserDetailsAuthenticat
      * @return
      * @throws NamingException
      */
-    private DataSource lookupDataSource(CcWebAuthenticationDetails wed) {
-        WebApplicationContext ctx = WebApplicationContextUtils.getRequiredWebApplicationContext(wed.getRequest().getServletContext());
+    private DataSource lookupDataSource(ServletContext sc) {
+        WebApplicationContext ctx = WebApplicationContextUtils.getRequiredWebApplicationContext(sc);
         return ctx.getBean(dataSourceName, DataSource.class);
     }
 
+    /**
+     * A driver based data source opens a physical connection for each query, several per login. A {@link SmartDataSource} such as
+     * SingleConnectionDataSource keeps its connection.
+     */
+    private DataSource checkPooled(DataSource ds) {
+        if (ds instanceof AbstractDriverBasedDataSource && !(ds instanceof SmartDataSource)) {
+            String message = "Data source " + dataSourceName + " is a " + ds.getClass().getSimpleName()
+                    + " which opens a new connection per query, use a connection pool";
+            if (requirePooledDataSource) {
+                throw new IllegalStateException(message);
+            }
+            log.warn(message);
+        }
+        return ds;
+    }
+
     /**
      * Is the password valid?
      * 
      * @param password
      *            the user entered password
      * @param passwordHash
-     *            base64 encoded pw from the table
+     *            bcrypt hash, or base64 encoded pw from the table
      * @param salt
-     *            base 64 encoded salt from the table
+     *            base 64 encoded salt from the table, null for a bcrypt hash
      * @return
      */
-    private boolean validateJbossPassword(String password, String passwordHash, String salt) {
-        return passwordUtil.verifyPassword(passwordHash, salt, password);
+    private Verification validateJbossPassword(String password, String passwordHash, String salt) {
+        return passwordVerifier.verify(passwordHash, salt, password);
+    }
+
+    /**
+     * Store a bcrypt hash in place of the legacy one. A failure is logged, the user is still logged in.
+     * 
+     * @param t
+     * @param id
+     *            the id of the passwords row
+     * @param password
+     *            the verified user entered password
+     */
+    private void upgradePassword(NamedParameterJdbcTemplate t, Number id, String password) {
+        try {
+            t.update(UPGRADE_PASSWORD, new MapSqlParameterSource("hash", passwordVerifier.upgrade(password)).addValue("id", id));
+            log.info("Upgraded the password hash of passwords row " + id);
+        } catch (RuntimeException e) {
+            log.warn("Could not upgrade the password hash of passwords row " + id, e);
+        }
     }
 
     /**
@@ -243,6 +394,154 @@ public class JdbcAuthenticationProvider extends AbstractCcUserDetailsAuthenticat
      */
     public void setDataSourceName(String dataSourceName) {
         this.dataSourceName = dataSourceName;
+        this.stores.invalidateAll();
+    }
+
+    /**
+     * Use this data source rather than looking one up in each servlet context.
+     * 
+     * @param dataSource
+     * @return this object
+     */
+    public JdbcAuthenticationProvider setDataSource(DataSource dataSource) {
+        Validate.notNull(dataSource, "dataSource cannot be null");
+        this.fixedStore = newStore(new NamedParameterJdbcTemplate(checkPooled(dataSource)));
+        return this;
+    }
+
+    /**
+     * Cache the profile and groups of users by user id, so a login whose user is cached reads only the passwords table. A change to a
+     * user's profile or groups shows after the ttl, or at once with {@link #evictUser(Integer)} . Off by default.
+     * 
+     * @param maximumSize
+     *            number of users, 0 for no cache
+     * @param ttl
+     *            how long an entry is used after it was read
+     * @param unit
+     *            the unit of the ttl
+     * @return this object
+     */
+    public JdbcAuthenticationProvider setProfileCache(long maximumSize, long ttl, TimeUnit unit) {
+        Validate.isTrue(maximumSize >= 0L, "maximumSize cannot be negative");
+        Validate.isTrue(maximumSize == 0L || ttl > 0L, "ttl must be positive");
+        this.profileCacheSize = maximumSize;
+        this.profileCacheTtlMillis = maximumSize == 0L ? 0L : unit.toMillis(ttl);
+        resetStores();
+        return this;
+    }
+
+    /**
+     * Remember login names, case insensitive, with no active password so logins with them fail without a query until the ttl passes.
+     * Keep the ttl short: a new user cannot login until it passes, or until {@link #evictUsername(String)} . Off by default.
+     * 
+     * @param maximumSize
+     *            number of login names, 0 for no cache
+     * @param ttl
+     *            how long a login name is remembered
+     * @param unit
+     *            the unit of the ttl
+     * @return this object
+     */
+    public JdbcAuthenticationProvider setUnknownUsernameCache(long maximumSize, long ttl, TimeUnit unit) {
+        Validate.isTrue(maximumSize >= 0L, "maximumSize cannot be negative");
+        Validate.isTrue(maximumSize == 0L || ttl > 0L, "ttl must be positive");
+        this.unknownUsernameCacheSize = maximumSize;
+        this.unknownUsernameCacheTtlMillis = maximumSize == 0L ? 0L : unit.toMillis(ttl);
+        resetStores();
+        return this;
+    }
+
+    /**
+     * Drop the cached profile and groups of the user, after changing them.
+     * 
+     * @param userId
+     *            the user_id
+     */
+    public void evictUser(Integer userId) {
+        Validate.notNull(userId, "userId cannot be null");
+        for (Store store : allStores()) {
+            if (null != store.principals) {
+                store.principals.invalidate(userId);
+            }
+        }
+    }
+
+    /**
+     * Forget that the login name was not found, after adding or activating it.
+     * 
+     * @param username
+     *            the login name, case insensitive
+     */
+    public void evictUsername(String username) {
+        Validate.notNull(username, "username cannot be null");
+        String loginName = username.toLowerCase(Locale.ROOT);
+        for (Store store : allStores()) {
+            if (null != store.unknownUsernames) {
+                store.unknownUsernames.invalidate(loginName);
+            }
+        }
+    }
+
+    /**
+     * Drop all cached profiles and unknown login names.
+     */
+    public void evictAll() {
+        for (Store store : allStores()) {
+            if (null != store.principals) {
+                store.principals.invalidateAll();
+            }
+            if (null != store.unknownUsernames) {
+                store.unknownUsernames.invalidateAll();
+            }
+        }
+    }
+
+    /**
+     * Read the groups on this executor while the password is verified, so a login waits for the longer of the two rather than both. By
+     * default the groups are read after the password is verified, and not at all for a wrong password. The executor runs blocking
+     * queries, do not use the common fork join pool.
+     * 
+     * @param groupsExecutor
+     *            null to read the groups after verifying
+     * @return this object
+     */
+    public JdbcAuthenticationProvider setGroupsExecutor(Executor groupsExecutor) {
+        this.groupsExecutor = groupsExecutor;
+        return this;
+    }
+
+    /**
+     * Set the password verifier, injected when this is a bean.
+     * 
+     * @param passwordVerifier
+     * @return this object
+     */
+    public JdbcAuthenticationProvider setPasswordVerifier(PasswordVerifier passwordVerifier) {
+        this.passwordVerifier = passwordVerifier;
+        return this;
+    }
+
+    /**
+     * Refuse a data source which is not pooled, a {@link AbstractDriverBasedDataSource} such as DriverManagerDataSource, instead of
+     * logging a warning.
+     * 
+     * @param requirePooledDataSource
+     * @return this object
+     */
+    public JdbcAuthenticationProvider setRequirePooledDataSource(boolean requirePooledDataSource) {
+        this.requirePooledDataSource = requirePooledDataSource;
+        return this;
+    }
+
+    /**
+     * Replace a legacy password hash which matches with a bcrypt hash on login. The passwords table must accept a null salt.
+     * 
+     * @param upgradeLegacyPasswords
+     * @return this object
+     */
+    public JdbcAuthenticationProvider setUpgradeLegacyPasswords(boolean upgradeLegacyPasswords) {
+        this.upgradeLegacyPasswords = upgradeLegacyPasswords;
+        return this;
     }
 
     public JdbcAuthenticationProvider setRolesFinder(RolesFinder rolesFinder) {
@@ -254,4 +553,43 @@ public class JdbcAuthenticationProvider extends AbstractCcUserDetailsAuthenticat
         this.hostDbServiceProperties = hostDbServiceProperties;
     }
 
+    /**
+     * The template of a data source and what is cached from it; user ids and login names are only meaningful within one database.
+     */
+    private static final class Store {
+
+        private final NamedParameterJdbcTemplate template;
+
+        /**
+         * Templates copied for each login, null when not caching.
+         */
+        private final Cache<Integer, CcPrincipalImpl> principals;
+
+        /**
+         * Lower case login names not found, null when not caching.
+         */
+        private final Cache<String, Boolean> unknownUsernames;
+
+        private Store(NamedParameterJdbcTemplate template, long profileCacheSize, long profileCacheTtlMillis, long unknownUsernameCacheSize,
+                long unknownUsernameCacheTtlMillis) {
+            this.template = template;
+            this.principals = profileCacheSize == 0L ? null
+                    : CacheBuilder.newBuilder().maximumSize(profileCacheSize)
+                            .expireAfterWrite(profileCacheTtlMillis, TimeUnit.MILLISECONDS).build();
+            this.unknownUsernames = unknownUsernameCacheSize == 0L ? null
+                    : CacheBuilder.newBuilder().maximumSize(unknownUsernameCacheSize)
+                            .expireAfterWrite(unknownUsernameCacheTtlMillis, TimeUnit.MILLISECONDS).build();
+        }
+
+        private boolean isUnknown(String loginName) {
+            return null != unknownUsernames && null != unknownUsernames.getIfPresent(loginName);
+        }
+
+        private void unknown(String loginName) {
+            if (null != unknownUsernames) {
+                unknownUsernames.put(loginName, Boolean.TRUE);
+            }
+        }
+    }
+
 }
@@ -1,8 +1,8 @@
 package cc.springsecurity.authentication.providers;
 
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -37,46 +37,82 @@ public class HardCodedAuthenticationProvider extends AbstractCcUserDetailsAuthen
 
     private UsernamePasswordGroupsList list;
 
+    private PasswordHashing passwordHashing;
+
     private static class UserNamePasswordGroups {
 
         private final Integer userId;
-        private final String firstName;
-        private final String lastName;
         private final String email;
         private final String password;
-        private final Set<String> groups;
+
+        /**
+         * The principal of this user, copied on each login.
+         */
+        private final CcPrincipalImpl template;
 
         public UserNamePasswordGroups(Integer userId, String firstName, String lastName, String email, String password,
                 Set<String> groups) {
             super();
             this.userId = userId;
-            this.firstName = firstName;
-            this.lastName = lastName;
             this.email = email;
             this.password = password;
-            this.groups = groups;
+            CcPrincipalImpl ccp = new CcPrincipalImpl();
+            ccp.setEmail(email);
+            ccp.setFirstName(firstName);
+            ccp.setLastName(lastName);
+            ccp.setUserId(userId);
+            ccp.setUsername(firstName.concat(" ").concat(lastName));
+            ccp.setGroups(groups.toArray(new String[groups.size()]));
+            // built once here, shared by the copies
+            ccp.getAuthorities();
+            this.template = ccp;
         }
 
     }
 
+    /**
+     * The users indexed by email and by user id.
+     */
     public static class UsernamePasswordGroupsList {
 
-        private List<UserNamePasswordGroups> list;
+        private final Map<String, UserNamePasswordGroups> byEmail;
+
+        private final Map<Integer, UserNamePasswordGroups> byUserId;
 
         private UsernamePasswordGroupsList() {
-            this.list = new ArrayList<>();
+            this.byEmail = new HashMap<>();
+            this.byUserId = new HashMap<>();
+        }
+
+        /**
+         * An unmodifiable copy.
+         */
+        private UsernamePasswordGroupsList(UsernamePasswordGroupsList other) {
+            this.byEmail = Collections.unmodifiableMap(new HashMap<>(other.byEmail));
+            this.byUserId = Collections.unmodifiableMap(new HashMap<>(other.byUserId));
         }
 
         private void addUser(UserNamePasswordGroups upg) {
             // make sure the user id and email are unique
-            Validate.isTrue(0L == list.stream().filter(l -> l.userId.equals(upg.userId)).count(), "User ID %d is already defined.",
-                    upg.userId);
-            Validate.isTrue(0L == list.stream().filter(l -> l.email.equals(upg.email)).count(), "Email %s is already defined.", upg.email);
-            list.add(upg);
+            Validate.isTrue(!byUserId.containsKey(upg.userId), "User ID %d is already defined.", upg.userId);
+            Validate.isTrue(!byEmail.containsKey(upg.email), "Email %s is already defined.", upg.email);
+            byUserId.put(upg.userId, upg);
+            byEmail.put(upg.email, upg);
         }
 
-        private List<UserNamePasswordGroups> getList() {
-            return this.list;
+        private UserNamePasswordGroups byEmail(String email) {
+            return byEmail.get(email);
+        }
+
+        private UserNamePasswordGroups byUserId(Integer userId) {
+            return byUserId.get(userId);
+        }
+
+        /**
+         * @return the number of users
+         */
+        public int size() {
+            return byEmail.size();
         }
 
     }
@@ -126,8 +162,11 @@ public class HardCodedAuthenticationProvider extends AbstractCcUserDetailsAuthen
             return this;
         }
 
+        /**
+         * @return the users, later calls to {@link #createUser(Integer, String, String, String, String, Set)} do not change them
+         */
         public UsernamePasswordGroupsList build() {
-            return list;
+            return new UsernamePasswordGroupsList(list);
         }
     }
 
@@ -143,24 +182,52 @@ public class HardCodedAuthenticationProvider extends AbstractCcUserDetailsAuthen
      * @see PasswordHashing#buildPasswordHash(String)
      */
     public HardCodedAuthenticationProvider(UsernamePasswordGroupsList list) {
+        this(list, new PasswordHashing());
+    }
+
+    /**
+     * Setup with a shared {@link PasswordHashing} .
+     * 
+     * @param list
+     * @param passwordHashing
+     *            verifies the passwords
+     * @see #HardCodedAuthenticationProvider(UsernamePasswordGroupsList)
+     */
+    public HardCodedAuthenticationProvider(UsernamePasswordGroupsList list, PasswordHashing passwordHashing) {
+        Validate.notNull(passwordHashing, "passwordHashing cannot be null");
         this.list = list;
+        this.passwordHashing = passwordHashing;
+    }
+
+    /**
+     * Set the {@link PasswordHashing} , typically the shared one.
+     * 
+     * @param passwordHashing
+     * @return this object
+     */
+    public HardCodedAuthenticationProvider setPasswordHashing(PasswordHashing passwordHashing) {
+        Validate.notNull(passwordHashing, "passwordHashing cannot be null");
+        this.passwordHashing = passwordHashing;
+        return this;
     }
 
     @Override
     protected CcPrincipal validateUser(String username, String password, CcWebAuthenticationDetails details) {
-        PasswordHashing ph = new PasswordHashing();
-        for (UserNamePasswordGroups upg : this.list.getList()) {
-            if (upg.email.equals(username) && ph.verifyPassword(upg.password, password)) {
-                CcPrincipalImpl ccp = new CcPrincipalImpl();
-                ccp.setEmail(upg.email);
-                ccp.setFirstName(upg.firstName);
-                ccp.setLastName(upg.lastName);
-                ccp.setUserId(upg.userId);
-                ccp.setUsername(upg.firstName.concat(" ").concat(upg.lastName));
-                ccp.setGroups(upg.groups.toArray(new String[upg.groups.size()]));
-                return ccp;
-            }
+        UserNamePasswordGroups upg = null == username ? null : this.list.byEmail(username);
+        if (null != upg && passwordHashing.verifyPassword(upg.password, password)) {
+            return new CcPrincipalImpl(upg.template);
         }
         return null;
     }
+
+    /**
+     * The principal of a user, without checking a password.
+     * 
+     * @param userId
+     * @return a new principal, null if there is no such user
+     */
+    public CcPrincipal findUser(Integer userId) {
+        UserNamePasswordGroups upg = null == userId ? null : this.list.byUserId(userId);
+        return null == upg ? null : new CcPrincipalImpl(upg.template);
+    }
 }
@@ -0,0 +1,44 @@
+package cc.springsecurity.authentication.sso;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * Non-blocking variant of {@link SsoStorage}, for storages whose lookups wait on I/O. Used by {@link SsoAsyncLookupFilter} so the
+ * container thread is released while the lookup runs.
+ *
+ * @see ExecutorAsyncSsoStorage
+ * @see BlockingSsoStorage
+ * @author Chris Carcel
+ *
+ */
+public interface AsyncSsoStorage {
+
+    /**
+     * Find the user in sso storage.
+     *
+     * @param unid
+     * @return completes with the {@link cc.springsecurity.config.CcPrincipal} or null if not found
+     */
+    public abstract CompletableFuture<UserDetails> findUserAsync(String unid);
+
+    /**
+     * Store the user in sso storage.
+     *
+     * @param unid
+     * @param auth
+     * @return completes once stored
+     */
+    public abstract CompletableFuture<Void> storeUserAsync(String unid, Authentication auth);
+
+    /**
+     * Remove the user from sso storage.
+     *
+     * @param unid
+     * @return completes once removed
+     */
+    public abstract CompletableFuture<Void> removeUserAsync(String unid);
+
+}
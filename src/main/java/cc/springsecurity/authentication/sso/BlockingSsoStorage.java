@@ -0,0 +1,87 @@
+package cc.springsecurity.authentication.sso;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * Adapts an {@link AsyncSsoStorage} to {@link SsoStorage} by waiting for each future, at most the timeout.
+ *
+ * @author Chris Carcel
+ *
+ */
+public class BlockingSsoStorage implements SsoStorage {
+
+    /**
+     * Default time, in milliseconds, to wait for an answer.
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000L;
+
+    private final AsyncSsoStorage delegate;
+
+    private final long timeoutMillis;
+
+    /**
+     * Wait at most {@link #DEFAULT_TIMEOUT_MILLIS}.
+     *
+     * @param delegate
+     */
+    public BlockingSsoStorage(AsyncSsoStorage delegate) {
+        this(delegate, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Setup.
+     *
+     * @param delegate
+     *            the asynchronous storage
+     * @param timeoutMillis
+     *            how long to wait for an answer
+     */
+    public BlockingSsoStorage(AsyncSsoStorage delegate, long timeoutMillis) {
+        Validate.notNull(delegate, "delegate cannot be null");
+        this.delegate = delegate;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public UserDetails findUser(String unid) {
+        return await(delegate.findUserAsync(unid));
+    }
+
+    @Override
+    public void storeUser(String unid, Authentication auth) {
+        await(delegate.storeUserAsync(unid, auth));
+    }
+
+    @Override
+    public void removeUser(String unid) {
+        await(delegate.removeUserAsync(unid));
+    }
+
+    public AsyncSsoStorage getDelegate() {
+        return delegate;
+    }
+
+    private <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new RuntimeException("No answer from sso storage within " + timeoutMillis + "ms", e);
+        }
+    }
+
+}
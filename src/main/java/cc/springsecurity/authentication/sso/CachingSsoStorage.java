@@ -0,0 +1,195 @@
+package cc.springsecurity.authentication.sso;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Decorates any {@link SsoStorage} with a bounded, in-process cache. Found users are kept for a time to live, unknown unids for a shorter
+ * negative time to live. {@link #storeUser(String, Authentication)} and {@link #removeUser(String)} invalidate the entry at once in this
+ * JVM; a removal made by another server is only seen here once the entry expires, so keep the time to live short when sharing storage.
+ *
+ * <p>
+ * The same goes for {@link SsoExpiryPolicy}: a login expired or swept in the delegate can be served from here for up to the time to live,
+ * and cached hits do not reach the delegate, so its last access time lags by up to the time to live. Keep the time to live well below
+ * the idle timeout.
+ * </p>
+ *
+ * @author Chris Carcel
+ *
+ */
+public class CachingSsoStorage implements ExpiringSsoStorage {
+
+    /**
+     * Default maximum number of cached users.
+     */
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000L;
+
+    /**
+     * Default time to live of a found user, in seconds.
+     */
+    public static final long DEFAULT_TTL_SECONDS = 30L;
+
+    /**
+     * Default time to live of an unknown unid, in seconds.
+     */
+    public static final long DEFAULT_NEGATIVE_TTL_SECONDS = 2L;
+
+    private final SsoStorage delegate;
+
+    private final Cache<String, UserDetails> found;
+
+    private final Cache<String, Boolean> notFound;
+
+    /**
+     * Bumped on every invalidation so a lookup racing with it does not cache a stale result.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder negativeHits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Cache with the default size and times to live.
+     *
+     * @param delegate
+     *            the storage to cache
+     */
+    public CachingSsoStorage(SsoStorage delegate) {
+        this(delegate, DEFAULT_MAXIMUM_SIZE, DEFAULT_TTL_SECONDS, DEFAULT_NEGATIVE_TTL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Setup.
+     *
+     * @param delegate
+     *            the storage to cache
+     * @param maximumSize
+     *            maximum number of cached users, also used for unknown unids
+     * @param ttl
+     *            how long a found user is cached
+     * @param negativeTtl
+     *            how long an unknown unid is cached, 0 to not cache them
+     * @param unit
+     *            unit of both times to live
+     */
+    public CachingSsoStorage(SsoStorage delegate, long maximumSize, long ttl, long negativeTtl, TimeUnit unit) {
+        Validate.notNull(delegate, "delegate cannot be null");
+        Validate.notNull(unit, "unit cannot be null");
+        this.delegate = delegate;
+        this.found = CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(ttl, unit).build();
+        this.notFound = CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(negativeTtl, unit).build();
+    }
+
+    @Override
+    public UserDetails findUser(String unid) {
+
+        UserDetails user = found.getIfPresent(unid);
+        if (null != user) {
+            hits.increment();
+            return user;
+        }
+
+        if (null != notFound.getIfPresent(unid)) {
+            negativeHits.increment();
+            return null;
+        }
+
+        misses.increment();
+
+        long before = invalidations.get();
+        user = delegate.findUser(unid);
+        if (before == invalidations.get()) {
+            if (null == user) {
+                notFound.put(unid, Boolean.TRUE);
+            } else {
+                found.put(unid, user);
+            }
+        }
+        return user;
+    }
+
+    @Override
+    public void storeUser(String unid, Authentication auth) {
+        delegate.storeUser(unid, auth);
+        invalidate(unid);
+    }
+
+    @Override
+    public void removeUser(String unid) {
+        invalidate(unid);
+        delegate.removeUser(unid);
+        invalidate(unid);
+    }
+
+    /**
+     * Sweeps the delegate, if it is an {@link ExpiringSsoStorage}.
+     */
+    @Override
+    public int sweep(long now, int maxBatch) {
+        return delegate instanceof ExpiringSsoStorage ? ((ExpiringSsoStorage) delegate).sweep(now, maxBatch) : 0;
+    }
+
+    /**
+     * Drop the cached entry for the unid.
+     *
+     * @param unid
+     */
+    public void invalidate(String unid) {
+        invalidations.incrementAndGet();
+        found.invalidate(unid);
+        notFound.invalidate(unid);
+    }
+
+    /**
+     * Drop every cached entry.
+     */
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        found.invalidateAll();
+        notFound.invalidateAll();
+    }
+
+    /**
+     * @return lookups answered with a cached user
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return lookups answered with a cached "not found"
+     */
+    public long getNegativeHitCount() {
+        return negativeHits.sum();
+    }
+
+    /**
+     * @return lookups which went to the underlying storage
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return approximate number of cached users
+     */
+    public long size() {
+        return found.size();
+    }
+
+    public SsoStorage getDelegate() {
+        return delegate;
+    }
+
+}
@@ -0,0 +1,57 @@
+package cc.springsecurity.authentication.sso;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * Adapts a blocking {@link SsoStorage} to {@link AsyncSsoStorage} by running its calls on an executor. The blocking still happens, but on
+ * the executor's threads instead of the container's; size the executor for the storage's latency.
+ *
+ * @author Chris Carcel
+ *
+ */
+public class ExecutorAsyncSsoStorage implements AsyncSsoStorage {
+
+    private final SsoStorage delegate;
+
+    private final Executor executor;
+
+    /**
+     * Setup.
+     *
+     * @param delegate
+     *            the blocking storage
+     * @param executor
+     *            runs the blocking calls
+     */
+    public ExecutorAsyncSsoStorage(SsoStorage delegate, Executor executor) {
+        Validate.notNull(delegate, "delegate cannot be null");
+        Validate.notNull(executor, "executor cannot be null");
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<UserDetails> findUserAsync(String unid) {
+        return CompletableFuture.supplyAsync(() -> delegate.findUser(unid), executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> storeUserAsync(String unid, Authentication auth) {
+        return CompletableFuture.runAsync(() -> delegate.storeUser(unid, auth), executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> removeUserAsync(String unid) {
+        return CompletableFuture.runAsync(() -> delegate.removeUser(unid), executor);
+    }
+
+    public SsoStorage getDelegate() {
+        return delegate;
+    }
+
+}
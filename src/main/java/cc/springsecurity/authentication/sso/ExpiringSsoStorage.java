@@ -0,0 +1,24 @@
+package cc.springsecurity.authentication.sso;
+
+/**
+ * An {@link SsoStorage} whose logins expire according to a {@link SsoExpiryPolicy}. {@link #findUser(String)} already treats an expired
+ * login as absent; {@link #sweep(long, int)} reclaims the space, see {@link SsoStorageSweeper}.
+ *
+ * @author Chris Carcel
+ *
+ */
+public interface ExpiringSsoStorage extends SsoStorage {
+
+    /**
+     * Remove at most maxBatch expired logins, continuing where the previous call stopped. Must not block lookups for longer than it takes
+     * to remove one batch.
+     *
+     * @param now
+     *            current time in milliseconds
+     * @param maxBatch
+     *            upper bound of logins removed by this call
+     * @return the number of logins removed, less than maxBatch once no expired login is left
+     */
+    public abstract int sweep(long now, int maxBatch);
+
+}
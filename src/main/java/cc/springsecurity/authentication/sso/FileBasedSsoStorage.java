@@ -1,15 +1,26 @@
 package cc.springsecurity.authentication.sso;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
 import java.util.Properties;
 
 import org.apache.commons.lang3.Validate;
@@ -18,23 +29,122 @@ import org.slf4j.LoggerFactory;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.UserDetails;
 
+import cc.springsecurity.authentication.sso.codec.BinaryPrincipalCodec;
+import cc.springsecurity.authentication.sso.codec.PrincipalCodec;
 import cc.springsecurity.config.CcPrincipal;
 
 /**
- * Used to store users in a file for SSO across web applications and servers. Meant for development / testing only. Requires some sort of
- * file locking for production use.
+ * Used to store users in a file for SSO across web applications and servers. Without {@link FileLocking} this is meant for development /
+ * testing only. With {@link FileLocking#WHOLE_FILE} or {@link FileLocking#REGION} every read-modify-write of the file runs under an
+ * exclusive {@link FileLock} on a lock file next to it, <code>logins.lock</code> for <code>logins</code>, so several JVMs can share the
+ * file without losing each other's logins. The new contents are written to a temporary file in the same directory, forced to disk and
+ * moved over the file atomically, so a crash or a full disk leaves either the old or the new file, never a partial one, and readers need
+ * no lock.
+ * 
+ * <p>
+ * A {@link FileLock} belongs to the whole JVM: a second channel of the same JVM locking the same file, whether from this class loader or
+ * the copy of this class in another war, gets an {@link OverlappingFileLockException}. So the writers of a JVM first synchronize on one
+ * {@link String#intern() interned} key per file, which all class loaders share, and only then take the {@link FileLock}.
+ * </p>
+ * 
+ * <p>
+ * {@link #findUser(String)} only parses the file again when its last modified time, size or file key changed since it was last read.
+ * </p>
+ * 
+ * <p>
+ * Each login is written as <code>time stored:principal</code>, so the {@link SsoExpiryPolicy} maximum age applies. The idle timeout does
+ * not: recording every lookup would mean rewriting the file on every request.
+ * </p>
  * 
  * @author Chris Carcel
  *
  */
-public class FileBasedSsoStorage implements SsoStorage {
+public class FileBasedSsoStorage implements ExpiringSsoStorage {
 
     private static final Logger LOG = LoggerFactory.getLogger(FileBasedSsoStorage.class);
 
     private static final String LOGINS_FILE_NAME = "logins";
 
+    /**
+     * Separates the time stored from the principal, not part of the Base64 alphabet.
+     */
+    private static final char CREATED_SEPARATOR = ':';
+
+    private static final String LOCK_FILE_SUFFIX = ".lock";
+
+    /**
+     * Prefixes the path of the file in the key writers of this JVM synchronize on.
+     */
+    private static final String JVM_LOCK_PREFIX = FileBasedSsoStorage.class.getName() + ":";
+
+    /**
+     * How the file is locked.
+     */
+    public enum FileLocking {
+
+        /**
+         * No locking, development / testing only.
+         */
+        NONE,
+
+        /**
+         * Lock the whole lock file.
+         */
+        WHOLE_FILE,
+
+        /**
+         * Lock a one byte region far past the end of the lock file, used as a mutex.
+         */
+        REGION;
+
+    }
+
+    /**
+     * The parsed file and the attributes it had when parsed.
+     */
+    private static final class Snapshot {
+
+        private final Properties properties;
+        private final FileTime lastModified;
+        private final long size;
+        /**
+         * The inode where supported, each atomic replace of the file changes it.
+         */
+        private final Object fileKey;
+
+        private Snapshot(Properties properties, BasicFileAttributes attributes) {
+            this.properties = properties;
+            this.lastModified = null == attributes ? null : attributes.lastModifiedTime();
+            this.size = null == attributes ? -1L : attributes.size();
+            this.fileKey = null == attributes ? null : attributes.fileKey();
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            if (null == attributes) {
+                return null == lastModified;
+            }
+            return attributes.lastModifiedTime().equals(lastModified) && attributes.size() == size
+                    && Objects.equals(attributes.fileKey(), fileKey);
+        }
+    }
+
     private final File loginsFile;
 
+    private final FileLocking fileLocking;
+
+    private final File lockFile;
+
+    /**
+     * Interned, the same object for every class loader of this JVM.
+     */
+    private final String jvmLock;
+
+    private volatile Snapshot snapshot;
+
+    private PrincipalCodec principalCodec = new BinaryPrincipalCodec();
+
+    private volatile SsoExpiryPolicy expiryPolicy = SsoExpiryPolicy.NEVER;
+
     /**
      * Store sso information in the <code>System.getProperty("java.io.tmpdir")</code> dir, {@link #LOGINS_FILE_NAME} file.
      */
@@ -48,8 +158,47 @@ public class FileBasedSsoStorage implements SsoStorage {
      * @param file
      */
     public FileBasedSsoStorage(File file) {
+        this(file, FileLocking.NONE);
+    }
+
+    /**
+     * Store SSO information in the given file, locking it as specified.
+     * 
+     * @param file
+     * @param fileLocking
+     *            {@link FileLocking#NONE} for development, otherwise the lock used for production
+     */
+    public FileBasedSsoStorage(File file, FileLocking fileLocking) {
         Validate.notNull(file, "file cannot be null");
+        Validate.notNull(fileLocking, "fileLocking cannot be null");
         this.loginsFile = file;
+        this.fileLocking = fileLocking;
+        this.lockFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + LOCK_FILE_SUFFIX);
+        this.jvmLock = (JVM_LOCK_PREFIX + file.getAbsoluteFile().toPath().normalize()).intern();
+    }
+
+    /**
+     * Set the codec used to write principals to the file, {@link BinaryPrincipalCodec} by default.
+     * 
+     * @param principalCodec
+     * @return this object
+     */
+    public FileBasedSsoStorage setPrincipalCodec(PrincipalCodec principalCodec) {
+        Validate.notNull(principalCodec, "principalCodec cannot be null");
+        this.principalCodec = principalCodec;
+        return this;
+    }
+
+    /**
+     * Set when logins expire, {@link SsoExpiryPolicy#NEVER} by default. Only the maximum age is used.
+     * 
+     * @param expiryPolicy
+     * @return this object
+     */
+    public FileBasedSsoStorage setExpiryPolicy(SsoExpiryPolicy expiryPolicy) {
+        Validate.notNull(expiryPolicy, "expiryPolicy cannot be null");
+        this.expiryPolicy = expiryPolicy;
+        return this;
     }
 
     /*
@@ -64,7 +213,7 @@ public class FileBasedSsoStorage implements SsoStorage {
 
             LOG.trace("Restoring from  " + loginsFile.getAbsolutePath());
 
-            Properties p = loadProperties();
+            Properties p = currentProperties();
 
             if (!p.containsKey(unid)) {
 
@@ -76,6 +225,10 @@ public class FileBasedSsoStorage implements SsoStorage {
 
                 Validate.notNull(principalAsString, "principalAsString cannot be null");
 
+                if (isExpired(principalAsString, System.currentTimeMillis())) {
+                    return null;
+                }
+
                 CcPrincipal ccPrincipal = deserialize(principalAsString);
 
                 return ccPrincipal;
@@ -106,12 +259,6 @@ public class FileBasedSsoStorage implements SsoStorage {
 
             LOG.trace("Storing to " + loginsFile.getAbsolutePath());
 
-            Properties p = loadProperties();
-
-            if (p.containsKey(unid)) {
-                throw new IllegalStateException("Contains the unid " + unid);
-            }
-
             Object principal = auth.getPrincipal();
 
             Validate.notNull(principal, "Principal cannot be null");
@@ -120,16 +267,130 @@ public class FileBasedSsoStorage implements SsoStorage {
                 throw new IllegalStateException("principal is " + principal.getClass().getName() + ":" + principal);
             }
 
-            CcPrincipal ccp = (CcPrincipal) principal;
-            p.put(unid, serialize(ccp));
+            String serialized = System.currentTimeMillis() + String.valueOf(CREATED_SEPARATOR) + serialize((CcPrincipal) principal);
 
-            storeProperties(p);
+            update(p -> {
+                if (p.containsKey(unid)) {
+                    throw new IllegalStateException("Contains the unid " + unid);
+                }
+                p.put(unid, serialized);
+            });
 
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         }
     }
 
+    /**
+     * A change to the properties read from the file.
+     */
+    @FunctionalInterface
+    private interface Update {
+
+        void apply(Properties p);
+
+    }
+
+    /**
+     * Read, change and write the file. With {@link FileLocking} the whole read-modify-write runs under an exclusive lock and the file is
+     * replaced atomically.
+     * 
+     * @param update
+     *            the change
+     * @throws IOException
+     */
+    private void update(Update update) throws IOException {
+
+        if (fileLocking == FileLocking.NONE) {
+            Properties p = loadProperties();
+            update.apply(p);
+            storeProperties(p);
+            return;
+        }
+
+        synchronized (jvmLock) {
+            try (FileChannel lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE)) {
+                FileLock lock = lock(lockChannel);
+                try {
+                    Properties p = loadProperties();
+                    update.apply(p);
+                    replace(p);
+                    this.snapshot = new Snapshot(p, attributes());
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the properties to a temporary file in the same directory, force it to disk and move it over the logins file.
+     */
+    private void replace(Properties p) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        p.store(bout, "");
+        Path target = loginsFile.getAbsoluteFile().toPath();
+        Path temp = Files.createTempFile(target.getParent(), loginsFile.getName() + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bout.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * The properties in the file, parsed again only if the file changed since last read.
+     * 
+     * @return do not modify
+     * @throws IOException
+     */
+    private Properties currentProperties() throws IOException {
+
+        Snapshot s = this.snapshot;
+        if (null != s && s.matches(attributes())) {
+            return s.properties;
+        }
+
+        // with locking the file is replaced atomically, so it is read whole without a lock; if it is replaced after the attributes were
+        // read the next call sees the change and reads it again
+        BasicFileAttributes before = attributes();
+        Properties p = loadProperties();
+        this.snapshot = new Snapshot(p, before);
+        return p;
+    }
+
+    /**
+     * Acquire the exclusive {@link FileLock} on the lock file, waiting for other processes. Only called by the thread holding
+     * {@link #jvmLock}, so no other lock of this JVM overlaps it.
+     */
+    private FileLock lock(FileChannel channel) throws IOException {
+        if (fileLocking == FileLocking.REGION) {
+            return channel.lock(Long.MAX_VALUE - 1, 1L, false);
+        } else {
+            return channel.lock(0L, Long.MAX_VALUE, false);
+        }
+    }
+
+    /**
+     * @return the file attributes or null if the file does not exist
+     */
+    private BasicFileAttributes attributes() throws IOException {
+        Path path = loginsFile.toPath();
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
     protected Properties loadProperties() throws IOException, FileNotFoundException {
         Properties p = new Properties();
         if (loginsFile.exists()) {
@@ -148,47 +409,73 @@ public class FileBasedSsoStorage implements SsoStorage {
     }
 
     private CcPrincipal deserialize(String s) {
+        return principalCodec.decode(Base64.getDecoder().decode(s.substring(s.indexOf(CREATED_SEPARATOR) + 1)));
+    }
 
-        byte[] bytes = Base64.getDecoder().decode(s);
-
-        try {
-            try (ByteArrayInputStream bout = new ByteArrayInputStream(bytes); ObjectInputStream oos = new ObjectInputStream(bout);) {
-                Object object = oos.readObject();
-
-                if (!(object instanceof CcPrincipal)) {
-                    throw new IllegalStateException("object " + object + " is not an instanceof CcPrincipal.");
-                }
-
-                return (CcPrincipal) object;
-            }
+    /**
+     * @param s
+     *            a value of the file
+     * @return when it was stored, 0 for values written before the time was stored
+     */
+    private static long created(String s) {
+        int i = s.indexOf(CREATED_SEPARATOR);
+        return i < 0 ? 0L : Long.parseLong(s.substring(0, i));
+    }
 
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    private boolean isExpired(String s, long now) {
+        SsoExpiryPolicy policy = this.expiryPolicy;
+        return policy.expires() && policy.isExpired(created(s), now, now);
     }
 
     private String serialize(CcPrincipal p) {
-        try {
-            try (ByteArrayOutputStream bout = new ByteArrayOutputStream(); ObjectOutputStream oos = new ObjectOutputStream(bout);) {
-                oos.writeObject(p);
-                oos.flush();
-                bout.flush();
-                oos.close();
-                bout.close();
-                return Base64.getEncoder().encodeToString(bout.toByteArray());
-            }
+        return Base64.getEncoder().encodeToString(principalCodec.encode(p));
+    }
 
-        } catch (Exception e) {
+    @Override
+    public void removeUser(String unid) {
+        try {
+            update(p -> p.remove(unid));
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Finds the expired logins in the last read of the file, then removes at most maxBatch of them in one rewrite of the file.
+     */
     @Override
-    public void removeUser(String unid) {
+    public int sweep(long now, int maxBatch) {
+        if (!expiryPolicy.expires()) {
+            return 0;
+        }
         try {
-            Properties properties = loadProperties();
-            properties.remove(unid);
-            storeProperties(properties);
+            Properties current = currentProperties();
+            List<String> expired = new ArrayList<>();
+            for (String unid : current.stringPropertyNames()) {
+                if (expired.size() >= maxBatch) {
+                    break;
+                }
+                if (isExpired(current.getProperty(unid), now)) {
+                    expired.add(unid);
+                }
+            }
+            if (expired.isEmpty()) {
+                return 0;
+            }
+
+            int[] removed = new int[1];
+            update(p -> {
+                for (String unid : expired) {
+                    String value = p.getProperty(unid);
+                    // the file may have changed since it was read, a new login under the same unid stays
+                    if (null != value && isExpired(value, now)) {
+                        p.remove(unid);
+                        removed[0]++;
+                    }
+                }
+            });
+            return removed[0];
+
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,474 @@
+package cc.springsecurity.authentication.sso;
+
+import java.io.Closeable;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import cc.springsecurity.authentication.sso.codec.BinaryPrincipalCodec;
+import cc.springsecurity.authentication.sso.codec.PrincipalCodec;
+import cc.springsecurity.config.CcPrincipal;
+
+/**
+ * Stores users in a database table, see <code>cc/springsecurity/authentication/sso/sso-storage-schema.sql</code> . Lookups are a
+ * prepared statement on the primary key. Stores and removals are queued and written behind by a background thread in JDBC batches;
+ * until then they are kept in memory, so {@link #findUser(String)} in this JVM always sees them. Other servers see them once the batch is
+ * written, at most about the flush interval later.
+ *
+ * <p>
+ * While the database is down the writer keeps the failed batch and retries it; the queue is bounded, once it is full stores and removals
+ * fail at once rather than piling up in memory. {@link #flush()} and {@link #close()} give up after a few attempts.
+ * </p>
+ *
+ * <p>
+ * With an {@link SsoExpiryPolicy} the last access time is written back, behind like the stores, at most once per
+ * {@link SsoExpiryPolicy#touchIntervalMillis()}; the idle timeout is accurate to that interval.
+ * </p>
+ *
+ * @author Chris Carcel
+ *
+ */
+public class JdbcSsoStorage implements ExpiringSsoStorage, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcSsoStorage.class);
+
+    /**
+     * Default maximum number of stores / removals written in one batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * Default maximum time, in milliseconds, a store or removal waits before it is written.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 50L;
+
+    /**
+     * Default maximum number of stores / removals waiting to be written.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    private static final long RETRY_DELAY_MILLIS = 1000L;
+
+    /**
+     * Attempts {@link #flush()} makes at a failing batch.
+     */
+    private static final int FLUSH_ATTEMPTS = 3;
+
+    private static final String SELECT_SQL = "select PRINCIPAL, CREATED, LAST_ACCESS from SSO_LOGINS where UNID = ?";
+
+    private static final String DELETE_SQL = "delete from SSO_LOGINS where UNID = ?";
+
+    private static final String INSERT_SQL = "insert into SSO_LOGINS (UNID, PRINCIPAL, CREATED, LAST_ACCESS) values (?, ?, ?, ?)";
+
+    private static final String TOUCH_SQL = "update SSO_LOGINS set LAST_ACCESS = ? where UNID = ? and LAST_ACCESS < ?";
+
+    private static final String EXPIRED_SQL = "select UNID from SSO_LOGINS where CREATED < ? or LAST_ACCESS < ?";
+
+    private static final String DELETE_EXPIRED_SQL = "delete from SSO_LOGINS where UNID = ? and (CREATED < ? or LAST_ACCESS < ?)";
+
+    /**
+     * A queued store (principal not null), removal (principal null) or last access update (touch).
+     */
+    private static final class Write {
+
+        private final String unid;
+        private final CcPrincipal principal;
+        private final byte[] encoded;
+
+        /**
+         * When stored, or for a touch when accessed.
+         */
+        private final long time;
+
+        private final boolean touch;
+
+        private Write(String unid, CcPrincipal principal, byte[] encoded, long time, boolean touch) {
+            this.unid = unid;
+            this.principal = principal;
+            this.encoded = encoded;
+            this.time = time;
+            this.touch = touch;
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int batchSize;
+
+    private final long flushIntervalMillis;
+
+    private final BlockingQueue<Write> queue;
+
+    /**
+     * A batch taken from the queue which could not be written, written before anything queued after it. Changed under the write lock.
+     */
+    private volatile List<Write> unwritten;
+
+    /**
+     * The latest queued write per unid, until it is in the database.
+     */
+    private final ConcurrentHashMap<String, Write> pending = new ConcurrentHashMap<>();
+
+    /**
+     * unids with a queued touch, so repeated lookups queue only one.
+     */
+    private final ConcurrentHashMap<String, Boolean> touching = new ConcurrentHashMap<>();
+
+    /**
+     * Held while a batch is taken from the queue and written, so batches are written in queue order.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Wakes the writer thread up, released on every write queued.
+     */
+    private final Semaphore signal = new Semaphore(0);
+
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    private PrincipalCodec principalCodec = new BinaryPrincipalCodec();
+
+    private volatile SsoExpiryPolicy expiryPolicy = SsoExpiryPolicy.NEVER;
+
+    /**
+     * Store users using the given data source with the default batch size and flush interval.
+     *
+     * @param dataSource
+     */
+    public JdbcSsoStorage(DataSource dataSource) {
+        this(dataSource, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Store users using the given data source.
+     *
+     * @param dataSource
+     *            cannot be null
+     * @param batchSize
+     *            maximum number of writes in one batch
+     * @param flushIntervalMillis
+     *            maximum time a write waits for others to batch with
+     */
+    public JdbcSsoStorage(DataSource dataSource, int batchSize, long flushIntervalMillis) {
+        this(dataSource, batchSize, flushIntervalMillis, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Store users using the given data source.
+     *
+     * @param dataSource
+     *            cannot be null
+     * @param batchSize
+     *            maximum number of writes in one batch
+     * @param flushIntervalMillis
+     *            maximum time a write waits for others to batch with
+     * @param queueCapacity
+     *            maximum number of writes waiting, further stores and removals fail
+     */
+    public JdbcSsoStorage(DataSource dataSource, int batchSize, long flushIntervalMillis, int queueCapacity) {
+        Validate.notNull(dataSource, "dataSource cannot be null");
+        Validate.isTrue(batchSize > 0, "batchSize must be positive");
+        Validate.isTrue(queueCapacity > 0, "queueCapacity must be positive");
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+
+        this.writer = new Thread(this::writeBehind, "JdbcSsoStorage-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Set the codec used to write principals to the table, {@link BinaryPrincipalCodec} by default.
+     *
+     * @param principalCodec
+     * @return this object
+     */
+    public JdbcSsoStorage setPrincipalCodec(PrincipalCodec principalCodec) {
+        Validate.notNull(principalCodec, "principalCodec cannot be null");
+        this.principalCodec = principalCodec;
+        return this;
+    }
+
+    /**
+     * Set when logins expire, {@link SsoExpiryPolicy#NEVER} by default.
+     *
+     * @param expiryPolicy
+     * @return this object
+     */
+    public JdbcSsoStorage setExpiryPolicy(SsoExpiryPolicy expiryPolicy) {
+        Validate.notNull(expiryPolicy, "expiryPolicy cannot be null");
+        this.expiryPolicy = expiryPolicy;
+        return this;
+    }
+
+    @Override
+    public UserDetails findUser(String unid) {
+
+        Write write = pending.get(unid);
+        if (null != write) {
+            return write.principal;
+        }
+
+        SsoExpiryPolicy policy = this.expiryPolicy;
+        long now = System.currentTimeMillis();
+        return jdbcTemplate.query(SELECT_SQL, rs -> {
+            if (!rs.next()) {
+                return null;
+            }
+            long lastAccess = rs.getLong(3);
+            if (policy.isExpired(rs.getLong(2), lastAccess, now)) {
+                return null;
+            }
+            if (now - lastAccess >= policy.touchIntervalMillis()) {
+                touch(unid, now);
+            }
+            return principalCodec.decode(rs.getBytes(1));
+        }, unid);
+    }
+
+    @Override
+    public void storeUser(String unid, Authentication auth) {
+        if (auth.isAuthenticated()) {
+            Validate.notNull(unid, "unid cannot be null");
+
+            Object principal = auth.getPrincipal();
+            Validate.notNull(principal, "Principal cannot be null");
+            if (!(principal instanceof CcPrincipal)) {
+                throw new IllegalStateException("principal is " + principal.getClass().getName() + ":" + principal);
+            }
+
+            CcPrincipal ccp = (CcPrincipal) principal;
+            enqueue(new Write(unid, ccp, principalCodec.encode(ccp), System.currentTimeMillis(), false));
+        }
+    }
+
+    @Override
+    public void removeUser(String unid) {
+        enqueue(new Write(unid, null, null, 0L, false));
+    }
+
+    @Override
+    public int sweep(long now, int maxBatch) {
+        SsoExpiryPolicy policy = this.expiryPolicy;
+        if (!policy.expires()) {
+            return 0;
+        }
+        long createdBefore = policy.createdBefore(now);
+        long lastAccessBefore = policy.lastAccessBefore(now);
+
+        JdbcTemplate select = new JdbcTemplate(jdbcTemplate.getDataSource());
+        select.setMaxRows(maxBatch);
+        List<String> expired = select.queryForList(EXPIRED_SQL, String.class, createdBefore, lastAccessBefore);
+        if (expired.isEmpty()) {
+            return 0;
+        }
+
+        List<Object[]> args = new ArrayList<>(expired.size());
+        for (String unid : expired) {
+            // checked again, the login may have been used or replaced since it was selected
+            args.add(new Object[] { unid, createdBefore, lastAccessBefore });
+        }
+        int removed = 0;
+        for (int count : jdbcTemplate.batchUpdate(DELETE_EXPIRED_SQL, args)) {
+            removed += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+        }
+        return removed;
+    }
+
+    /**
+     * Queue a last access update, unless one is queued already. Dropped when the queue is full.
+     */
+    private void touch(String unid, long now) {
+        if (!closed && null == touching.putIfAbsent(unid, Boolean.TRUE)) {
+            if (queue.offer(new Write(unid, null, null, now, true))) {
+                signal.release();
+            } else {
+                touching.remove(unid);
+            }
+        }
+    }
+
+    private void enqueue(Write write) {
+        Validate.validState(!closed, "JdbcSsoStorage is closed");
+        Write previous = pending.put(write.unid, write);
+        if (!queue.offer(write)) {
+            // the writer cannot have taken it, restore what was pending
+            if (null == previous) {
+                pending.remove(write.unid, write);
+            } else {
+                pending.replace(write.unid, write, previous);
+            }
+            throw new IllegalStateException("JdbcSsoStorage queue is full, " + queue.size() + " writes are waiting for the database");
+        }
+        signal.release();
+    }
+
+    /**
+     * Write everything queued so far, blocking until it is in the database.
+     *
+     * @throws IllegalStateException
+     *             if a batch still fails after a few attempts, it stays queued
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            int failures = 0;
+            while (null != unwritten || !queue.isEmpty()) {
+                if (writeBatch()) {
+                    failures = 0;
+                    continue;
+                }
+                if (++failures >= FLUSH_ATTEMPTS) {
+                    throw new IllegalStateException("Could not write the sso logins after " + failures + " attempts");
+                }
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted flushing the sso logins", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Flush the queue and stop the writer thread. If the database stays down what is queued is lost, and logged.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOG.error("Closing with " + pending.size() + " sso logins not written", e);
+        }
+    }
+
+    /**
+     * The writer thread: wait for a write, give others the flush interval to join it, then write them as one batch. Writes are only taken
+     * from the queue under the write lock, so {@link #flush()} never overtakes a batch. A failed batch is kept and retried after a delay;
+     * an interrupt while waiting leaves it for {@link #close()} to flush.
+     */
+    private void writeBehind() {
+        while (!closed) {
+            boolean written;
+            try {
+                // permits are only a wake up call, the queue is the truth
+                signal.drainPermits();
+                if (queue.isEmpty() && null == unwritten) {
+                    signal.acquire();
+                }
+                if (flushIntervalMillis > 0 && queue.size() < batchSize) {
+                    Thread.sleep(flushIntervalMillis);
+                }
+                synchronized (writeLock) {
+                    written = writeBatch();
+                }
+                if (!written) {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                // closing, close() flushes what is left
+                return;
+            }
+        }
+    }
+
+    /**
+     * Write one batch, the one which failed last time if any. Caller holds the write lock.
+     *
+     * @return false if the batch could not be written, it is kept in {@link #unwritten}
+     */
+    private boolean writeBatch() {
+
+        List<Write> drained = unwritten;
+        unwritten = null;
+        if (null == drained) {
+            drained = new ArrayList<>(batchSize);
+            queue.drainTo(drained, batchSize);
+        }
+        if (drained.isEmpty()) {
+            return true;
+        }
+
+        // only the last write of each unid matters
+        Map<String, Write> latest = new LinkedHashMap<>();
+        Map<String, Write> touches = new LinkedHashMap<>();
+        for (Write w : drained) {
+            (w.touch ? touches : latest).put(w.unid, w);
+        }
+
+        List<Object[]> deletes = new ArrayList<>(latest.size());
+        List<Object[]> inserts = new ArrayList<>(latest.size());
+        for (Write w : latest.values()) {
+            deletes.add(new Object[] { w.unid });
+            if (null != w.principal) {
+                inserts.add(new Object[] { w.unid, w.encoded, w.time, w.time });
+            }
+        }
+        List<Object[]> updates = new ArrayList<>(touches.size());
+        for (Write w : touches.values()) {
+            updates.add(new Object[] { w.time, w.unid, w.time });
+        }
+
+        try {
+            transactionTemplate.execute(status -> {
+                if (!deletes.isEmpty()) {
+                    jdbcTemplate.batchUpdate(DELETE_SQL, deletes);
+                }
+                if (!inserts.isEmpty()) {
+                    jdbcTemplate.batchUpdate(INSERT_SQL, inserts);
+                }
+                if (!updates.isEmpty()) {
+                    jdbcTemplate.batchUpdate(TOUCH_SQL, updates);
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            LOG.error("Error writing " + drained.size() + " sso logins, will retry", e);
+            unwritten = drained;
+            return false;
+        }
+
+        for (Write w : latest.values()) {
+            // a newer write of the same unid stays pending
+            pending.remove(w.unid, w);
+        }
+        touching.keySet().removeAll(touches.keySet());
+
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Wrote " + latest.size() + " sso logins and " + touches.size() + " last access times");
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,675 @@
+package cc.springsecurity.authentication.sso;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import cc.springsecurity.authentication.sso.codec.BinaryPrincipalCodec;
+import cc.springsecurity.authentication.sso.codec.PrincipalCodec;
+import cc.springsecurity.config.CcPrincipal;
+
+/**
+ * Stores users in a directory of memory-mapped, append-only segment files. An in-memory index maps each unid to the location of its
+ * latest record, so {@link #findUser(String)} never reads the file system and {@link #storeUser(String, Authentication)} /
+ * {@link #removeUser(String)} only append a record (a removal appends a tombstone). A background task compacts the sealed segments once
+ * enough of them is garbage.
+ *
+ * <p>
+ * The directory is owned by a single JVM, enforced with a {@link FileLock} on a lock file. Use {@link FileBasedSsoStorage} or a shared
+ * store to share logins between servers.
+ * </p>
+ *
+ * <p>
+ * Record layout: <code>int length | int crc32 | byte type | short unid length | unid (UTF-8) | payload</code>. The length is written last
+ * so a torn append is detected on restart and the rest of that segment is ignored. The payload of a timed put starts with the long time it
+ * was stored, used for the {@link SsoExpiryPolicy} maximum age; the last access time is only kept in memory.
+ * </p>
+ *
+ * @author Chris Carcel
+ *
+ */
+public class MappedLogSsoStorage implements ExpiringSsoStorage, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedLogSsoStorage.class);
+
+    private static final String DIRECTORY_NAME = "sso-log";
+
+    private static final String LOCK_FILE_NAME = "sso.lock";
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * Default size of one segment file, 16MB.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Default fraction of garbage in the sealed segments which triggers a compaction.
+     */
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5d;
+
+    /**
+     * Default number of seconds between compaction checks.
+     */
+    public static final long DEFAULT_COMPACTION_INTERVAL_SECONDS = 60L;
+
+    /**
+     * A put without a stored time, written before logins expired. Read as stored when the log was opened.
+     */
+    private static final byte TYPE_PUT = 1;
+
+    private static final byte TYPE_TOMBSTONE = 2;
+
+    private static final byte TYPE_TIMED_PUT = 3;
+
+    private static final int TIMESTAMP_SIZE = 8;
+
+    /**
+     * length + crc + type + unid length
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 2;
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final double compactionThreshold;
+
+    private final boolean forceWrites;
+
+    /**
+     * unid to its latest record
+     */
+    private final ConcurrentHashMap<String, Entry> index = new ConcurrentHashMap<>();
+
+    private final SweepCursor<String, Entry> cursor = new SweepCursor<>(index);
+
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+    /**
+     * Readers take the read lock, appends and segment removal take the write lock.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final RandomAccessFile lockFile;
+
+    private final FileLock fileLock;
+
+    private final ScheduledExecutorService compactor;
+
+    private Segment active;
+
+    private PrincipalCodec principalCodec = new BinaryPrincipalCodec();
+
+    private volatile SsoExpiryPolicy expiryPolicy = SsoExpiryPolicy.NEVER;
+
+    /**
+     * Index entry: where the latest record of a unid is and when it was stored and last found.
+     */
+    private static final class Entry {
+
+        /**
+         * See {@link MappedLogSsoStorage#address(int, int)}
+         */
+        private final long address;
+        private final long created;
+        private volatile long lastAccess;
+
+        private Entry(long address, long created, long lastAccess) {
+            this.address = address;
+            this.created = created;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * One mapped segment file.
+     */
+    private static final class Segment {
+
+        private final int id;
+        private final File file;
+        private final MappedByteBuffer buffer;
+
+        /**
+         * Next free offset, only changed under the write lock.
+         */
+        private int writePosition;
+
+        /**
+         * Bytes of records still referenced by the index, only changed under the write lock.
+         */
+        private long liveBytes;
+
+        private Segment(int id, File file, int size) throws IOException {
+            this.id = id;
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                if (raf.length() < size) {
+                    raf.setLength(size);
+                }
+                // the mapping stays valid after the file is closed
+                this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            }
+        }
+    }
+
+    /**
+     * Store sso information in the <code>System.getProperty("java.io.tmpdir")</code> dir, {@link #DIRECTORY_NAME} directory.
+     */
+    public MappedLogSsoStorage() {
+        this(new File(System.getProperty("java.io.tmpdir"), DIRECTORY_NAME));
+    }
+
+    /**
+     * Store SSO information in the given directory using the default segment size and compaction settings.
+     *
+     * @param directory
+     *            created if it does not exist
+     */
+    public MappedLogSsoStorage(File directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_THRESHOLD, DEFAULT_COMPACTION_INTERVAL_SECONDS, false);
+    }
+
+    /**
+     * Store SSO information in the given directory.
+     *
+     * @param directory
+     *            created if it does not exist
+     * @param segmentSize
+     *            size in bytes of each segment file, also the upper bound of one record
+     * @param compactionThreshold
+     *            fraction (0 to 1) of garbage in the sealed segments which triggers a compaction
+     * @param compactionIntervalSeconds
+     *            seconds between compaction checks, 0 or less to disable background compaction
+     * @param forceWrites
+     *            if true, every append is forced to disk before returning
+     */
+    public MappedLogSsoStorage(File directory, int segmentSize, double compactionThreshold, long compactionIntervalSeconds,
+            boolean forceWrites) {
+
+        Validate.notNull(directory, "directory cannot be null");
+        Validate.isTrue(segmentSize > HEADER_SIZE, "segmentSize is too small: %d", segmentSize);
+        Validate.isTrue(compactionThreshold > 0d && compactionThreshold <= 1d, "compactionThreshold must be in (0, 1]");
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+        this.forceWrites = forceWrites;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Cannot create directory " + directory.getAbsolutePath());
+        }
+
+        try {
+            this.lockFile = new RandomAccessFile(new File(directory, LOCK_FILE_NAME), "rw");
+            FileLock fl;
+            try {
+                fl = lockFile.getChannel().tryLock();
+            } catch (OverlappingFileLockException e) {
+                fl = null;
+            }
+            if (null == fl) {
+                lockFile.close();
+                throw new IllegalStateException("Directory " + directory.getAbsolutePath() + " is in use by another MappedLogSsoStorage");
+            }
+            this.fileLock = fl;
+
+            recover();
+
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (compactionIntervalSeconds > 0) {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "MappedLogSsoStorage-compactor");
+                t.setDaemon(true);
+                return t;
+            });
+            compactor.scheduleWithFixedDelay(this::compactIfNeeded, compactionIntervalSeconds, compactionIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            this.compactor = null;
+        }
+    }
+
+    /**
+     * Set the codec used to write principals to the log, {@link BinaryPrincipalCodec} by default. Must be able to read what is already in
+     * the directory.
+     *
+     * @param principalCodec
+     * @return this object
+     */
+    public MappedLogSsoStorage setPrincipalCodec(PrincipalCodec principalCodec) {
+        Validate.notNull(principalCodec, "principalCodec cannot be null");
+        this.principalCodec = principalCodec;
+        return this;
+    }
+
+    /**
+     * Set when logins expire, {@link SsoExpiryPolicy#NEVER} by default.
+     *
+     * @param expiryPolicy
+     * @return this object
+     */
+    public MappedLogSsoStorage setExpiryPolicy(SsoExpiryPolicy expiryPolicy) {
+        Validate.notNull(expiryPolicy, "expiryPolicy cannot be null");
+        this.expiryPolicy = expiryPolicy;
+        return this;
+    }
+
+    @Override
+    public UserDetails findUser(String unid) {
+
+        byte[] payload;
+        ReentrantReadWriteLock.ReadLock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            Entry entry = index.get(unid);
+            if (null == entry) {
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            if (expiryPolicy.isExpired(entry.created, entry.lastAccess, now)) {
+                // left for the sweep, removing needs the write lock
+                return null;
+            }
+            entry.lastAccess = now;
+            Segment segment = segments.get(segmentId(entry.address));
+            int offset = offset(entry.address);
+            ByteBuffer b = segment.buffer.duplicate();
+            int length = b.getInt(offset);
+            int unidLength = b.getShort(offset + 9);
+            int payloadOffset = offset + HEADER_SIZE + unidLength;
+            if (b.get(offset + 8) == TYPE_TIMED_PUT) {
+                payloadOffset += TIMESTAMP_SIZE;
+            }
+            payload = new byte[offset + 4 + length - payloadOffset];
+            b.position(payloadOffset);
+            b.get(payload);
+        } finally {
+            readLock.unlock();
+        }
+        return principalCodec.decode(payload);
+    }
+
+    @Override
+    public void storeUser(String unid, Authentication auth) {
+        if (auth.isAuthenticated()) {
+            Validate.notNull(unid, "unid cannot be null");
+
+            Object principal = auth.getPrincipal();
+            Validate.notNull(principal, "Principal cannot be null");
+            if (!(principal instanceof CcPrincipal)) {
+                throw new IllegalStateException("principal is " + principal.getClass().getName() + ":" + principal);
+            }
+
+            LOG.trace("Storing " + auth + " with unid " + unid);
+
+            byte[] encoded = principalCodec.encode((CcPrincipal) principal);
+            long now = System.currentTimeMillis();
+            byte[] payload = ByteBuffer.allocate(TIMESTAMP_SIZE + encoded.length).putLong(now).put(encoded).array();
+
+            ReentrantReadWriteLock.WriteLock writeLock = lock.writeLock();
+            writeLock.lock();
+            try {
+                long address = append(TYPE_TIMED_PUT, unid, payload);
+                replace(unid, new Entry(address, now, now));
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void removeUser(String unid) {
+        ReentrantReadWriteLock.WriteLock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            if (index.containsKey(unid)) {
+                append(TYPE_TOMBSTONE, unid, new byte[0]);
+                replace(unid, null);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public int sweep(long now, int maxBatch) {
+        SsoExpiryPolicy policy = this.expiryPolicy;
+        if (!policy.expires()) {
+            return 0;
+        }
+        int removed = 0;
+        synchronized (cursor) {
+            cursor.begin();
+            Map.Entry<String, Entry> e;
+            while (removed < maxBatch && null != (e = cursor.next())) {
+                Entry entry = e.getValue();
+                if (policy.isExpired(entry.created, entry.lastAccess, now)) {
+                    // one short write lock per removal so lookups are only held up briefly
+                    lock.writeLock().lock();
+                    try {
+                        if (index.get(e.getKey()) == entry) {
+                            append(TYPE_TOMBSTONE, e.getKey(), new byte[0]);
+                            replace(e.getKey(), null);
+                            removed++;
+                        }
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Number of users in the index.
+     *
+     * @return the number of live entries
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Rewrite the sealed segments if more than the compaction threshold of their bytes is garbage.
+     *
+     * @return true if a compaction ran
+     */
+    public boolean compactIfNeeded() {
+        try {
+            long written = 0L;
+            long live = 0L;
+            lock.readLock().lock();
+            try {
+                for (Segment s : segments.values()) {
+                    if (s != active) {
+                        written += s.writePosition;
+                        live += s.liveBytes;
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            if (written == 0L || ((double) (written - live) / written) < compactionThreshold) {
+                return false;
+            }
+
+            compact();
+            return true;
+
+        } catch (RuntimeException e) {
+            // never let the exception kill the scheduled task
+            LOG.error("Error compacting " + directory.getAbsolutePath(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Copy the live records of every sealed segment to the active segment, oldest segment first, then delete the sealed segment. Going
+     * oldest first means a tombstone can be dropped: no older segment holding the record it shadows is left behind it.
+     */
+    public void compact() {
+
+        List<Segment> sealed = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Segment s : segments.values()) {
+                if (s != active) {
+                    sealed.add(s);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        for (Segment s : sealed) {
+
+            int offset = 0;
+            while (offset + HEADER_SIZE <= s.writePosition) {
+                ByteBuffer b = s.buffer.duplicate();
+                int length = b.getInt(offset);
+                byte type = b.get(offset + 8);
+                if (type == TYPE_PUT || type == TYPE_TIMED_PUT) {
+                    int unidLength = b.getShort(offset + 9);
+                    byte[] unidBytes = new byte[unidLength];
+                    b.position(offset + HEADER_SIZE);
+                    b.get(unidBytes);
+                    String unid = new String(unidBytes, StandardCharsets.UTF_8);
+                    long address = address(s.id, offset);
+
+                    // relocate one record at a time so readers and writers are only held up briefly
+                    lock.writeLock().lock();
+                    try {
+                        Entry current = index.get(unid);
+                        if (null != current && current.address == address) {
+                            byte[] payload = new byte[offset + 4 + length - (offset + HEADER_SIZE + unidLength)];
+                            b.get(payload);
+                            replace(unid, new Entry(append(type, unid, payload), current.created, current.lastAccess));
+                        }
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                }
+                offset += 4 + length;
+            }
+
+            lock.writeLock().lock();
+            try {
+                segments.remove(s.id);
+                if (!s.file.delete()) {
+                    LOG.warn("Could not delete compacted segment " + s.file.getAbsolutePath());
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            LOG.debug("Compacted segment " + s.file.getName());
+        }
+    }
+
+    /**
+     * Stop compaction, flush and close the segments and release the directory lock.
+     */
+    @Override
+    public void close() {
+        if (null != compactor) {
+            compactor.shutdownNow();
+        }
+        lock.writeLock().lock();
+        try {
+            for (Segment s : segments.values()) {
+                s.buffer.force();
+            }
+            segments.clear();
+            index.clear();
+            fileLock.release();
+            lockFile.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Append a record to the active segment, rolling to a new segment if it does not fit. Caller holds the write lock.
+     *
+     * @return the address of the new record
+     */
+    private long append(byte type, String unid, byte[] payload) {
+
+        byte[] unidBytes = unid.getBytes(StandardCharsets.UTF_8);
+        Validate.isTrue(unidBytes.length <= Short.MAX_VALUE, "unid is too long");
+        int recordSize = HEADER_SIZE + unidBytes.length + payload.length;
+        Validate.isTrue(recordSize <= segmentSize, "record of %d bytes does not fit in a segment of %d bytes", recordSize, segmentSize);
+
+        if (active.writePosition + recordSize > active.buffer.capacity()) {
+            active.buffer.force();
+            active = newSegment(active.id + 1);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(unidBytes.length >>> 8);
+        crc.update(unidBytes.length);
+        crc.update(unidBytes);
+        crc.update(payload);
+
+        int offset = active.writePosition;
+        ByteBuffer b = active.buffer.duplicate();
+        b.position(offset + 4);
+        b.putInt((int) crc.getValue());
+        b.put(type);
+        b.putShort((short) unidBytes.length);
+        b.put(unidBytes);
+        b.put(payload);
+        // the length goes last, it marks the record as complete
+        b.putInt(offset, recordSize - 4);
+
+        if (forceWrites) {
+            active.buffer.force();
+        }
+
+        active.writePosition += recordSize;
+        if (type != TYPE_TOMBSTONE) {
+            active.liveBytes += recordSize;
+        }
+
+        return address(active.id, offset);
+    }
+
+    /**
+     * Point the unid at a new address, or remove it if null, and account for the bytes that became garbage. Caller holds the write lock.
+     */
+    private void replace(String unid, Entry entry) {
+        Entry previous = null == entry ? index.remove(unid) : index.put(unid, entry);
+        if (null != previous) {
+            Segment s = segments.get(segmentId(previous.address));
+            if (null != s) {
+                s.liveBytes -= 4 + s.buffer.getInt(offset(previous.address));
+            }
+        }
+    }
+
+    /**
+     * Rebuild the index from the segment files on startup.
+     */
+    private void recover() throws IOException {
+
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        Map<Integer, File> byId = new ConcurrentSkipListMap<>();
+        if (null != files) {
+            for (File f : files) {
+                String name = f.getName();
+                byId.put(Integer.valueOf(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), f);
+            }
+        }
+
+        long recoveredAt = System.currentTimeMillis();
+        for (Map.Entry<Integer, File> entry : byId.entrySet()) {
+            Segment s = new Segment(entry.getKey(), entry.getValue(), segmentSize);
+            segments.put(s.id, s);
+            s.writePosition = scan(s, recoveredAt);
+            active = s;
+        }
+
+        if (null == active) {
+            active = newSegment(0);
+        }
+
+        LOG.debug("Recovered " + index.size() + " users from " + segments.size() + " segments in " + directory.getAbsolutePath());
+    }
+
+    /**
+     * Apply every valid record of the segment to the index.
+     *
+     * @param recoveredAt
+     *            when recovery started
+     * @return the offset after the last valid record
+     */
+    private int scan(Segment s, long recoveredAt) {
+        ByteBuffer b = s.buffer.duplicate();
+        int offset = 0;
+        while (offset + HEADER_SIZE <= b.capacity()) {
+            int length = b.getInt(offset);
+            if (length < HEADER_SIZE - 4 || offset + 4 + length > b.capacity()) {
+                break;
+            }
+            byte[] body = new byte[length - 4];
+            b.position(offset + 8);
+            b.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != b.getInt(offset + 4)) {
+                LOG.warn("Ignoring torn record at " + offset + " in " + s.file.getAbsolutePath());
+                break;
+            }
+            byte type = body[0];
+            int unidLength = b.getShort(offset + 9);
+            String unid = new String(body, 3, unidLength, StandardCharsets.UTF_8);
+            if (type == TYPE_PUT || type == TYPE_TIMED_PUT) {
+                long created = type == TYPE_PUT ? recoveredAt : b.getLong(offset + HEADER_SIZE + unidLength);
+                s.liveBytes += 4 + length;
+                // the last access time is not logged, count from the login or the restart, whichever is later
+                replace(unid, new Entry(address(s.id, offset), created, Math.max(created, recoveredAt)));
+            } else {
+                replace(unid, null);
+            }
+            offset += 4 + length;
+        }
+        return offset;
+    }
+
+    private Segment newSegment(int id) {
+        try {
+            Segment s = new Segment(id, new File(directory, String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)), segmentSize);
+            segments.put(id, s);
+            return s;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long address(int segmentId, int offset) {
+        return ((long) segmentId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segmentId(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+}
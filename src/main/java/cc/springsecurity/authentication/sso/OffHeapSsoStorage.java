@@ -0,0 +1,305 @@
+package cc.springsecurity.authentication.sso;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.servlet.ServletContext;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import cc.springsecurity.authentication.sso.codec.BinaryPrincipalCodec;
+import cc.springsecurity.authentication.sso.codec.PrincipalCodec;
+import cc.springsecurity.config.CcPrincipal;
+
+/**
+ * Like {@link ServletContextBasedSsoStorage}, usable for securing a single war, but the principals are kept encoded in direct memory
+ * instead of as objects on the heap. The heap only holds a small index entry per unid, so a large number of logins with long group lists
+ * no longer fills the old generation; the price is a {@link PrincipalCodec} decode on every {@link #findUser(String)}.
+ *
+ * <p>
+ * The logins are spread over shards by unid, each with its own lock and {@link SlabAllocator}. The shards are kept in a servlet context
+ * attribute, so every instance created for the same context shares them. Direct memory used by the slabs is kept for reuse, see
+ * {@link #getOffHeapAllocatedBytes()}; size <code>-XX:MaxDirectMemorySize</code> accordingly.
+ * </p>
+ *
+ * @author Chris Carcel
+ *
+ */
+public class OffHeapSsoStorage implements ExpiringSsoStorage {
+
+    private static final String CONTEXT_ATTRIBUTE_NAME = OffHeapSsoStorage.class.getName();
+
+    /**
+     * Default number of shards.
+     */
+    public static final int DEFAULT_SHARDS = 16;
+
+    /**
+     * Default size of one slab, 1MB. Also the largest encoded principal.
+     */
+    public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+    /**
+     * Index entry: where the encoded principal is and when it was stored and last found.
+     */
+    private static final class Slot {
+
+        private final long handle;
+        private final int length;
+        private final long created;
+        private volatile long lastAccess;
+
+        private Slot(long handle, int length, long created) {
+            this.handle = handle;
+            this.length = length;
+            this.created = created;
+            this.lastAccess = created;
+        }
+    }
+
+    /**
+     * One shard, its index and its memory. Chunks are written and freed under the write lock and read under the read lock.
+     */
+    private static final class Shard {
+
+        private final ConcurrentHashMap<String, Slot> index = new ConcurrentHashMap<>();
+        private final SweepCursor<String, Slot> cursor = new SweepCursor<>(index);
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final SlabAllocator allocator;
+
+        private Shard(int slabSize) {
+            this.allocator = new SlabAllocator(slabSize);
+        }
+    }
+
+    private final Shard[] shards;
+
+    private PrincipalCodec principalCodec = new BinaryPrincipalCodec();
+
+    private volatile SsoExpiryPolicy expiryPolicy = SsoExpiryPolicy.NEVER;
+
+    /**
+     * Shard to start the next sweep with.
+     */
+    private int sweepShard;
+
+    /**
+     * Use the default number of shards and slab size.
+     *
+     * @param ctx
+     */
+    public OffHeapSsoStorage(ServletContext ctx) {
+        this(ctx, DEFAULT_SHARDS, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Setup. The shard count and slab size only apply to the first instance created for the context, later ones share its shards.
+     *
+     * @param ctx
+     *            cannot be null
+     * @param shardCount
+     *            a power of two
+     * @param slabSize
+     *            bytes per slab, a power of two
+     */
+    public OffHeapSsoStorage(ServletContext ctx, int shardCount, int slabSize) {
+        Validate.notNull(ctx, "ServletContext is null");
+        Validate.isTrue(shardCount > 0 && Integer.bitCount(shardCount) == 1, "shardCount must be a power of two");
+        synchronized (ctx) {
+            Object contextShards = ctx.getAttribute(CONTEXT_ATTRIBUTE_NAME);
+            if (null == contextShards) {
+                Shard[] s = new Shard[shardCount];
+                for (int i = 0; i < shardCount; i++) {
+                    s[i] = new Shard(slabSize);
+                }
+                ctx.setAttribute(CONTEXT_ATTRIBUTE_NAME, s);
+                this.shards = s;
+            } else {
+                this.shards = (Shard[]) contextShards;
+            }
+        }
+    }
+
+    /**
+     * Set the codec used to encode principals, {@link BinaryPrincipalCodec} by default. Every instance sharing the context must use the
+     * same codec.
+     *
+     * @param principalCodec
+     * @return this object
+     */
+    public OffHeapSsoStorage setPrincipalCodec(PrincipalCodec principalCodec) {
+        Validate.notNull(principalCodec, "principalCodec cannot be null");
+        this.principalCodec = principalCodec;
+        return this;
+    }
+
+    /**
+     * Set when logins expire, {@link SsoExpiryPolicy#NEVER} by default.
+     *
+     * @param expiryPolicy
+     * @return this object
+     */
+    public OffHeapSsoStorage setExpiryPolicy(SsoExpiryPolicy expiryPolicy) {
+        Validate.notNull(expiryPolicy, "expiryPolicy cannot be null");
+        this.expiryPolicy = expiryPolicy;
+        return this;
+    }
+
+    @Override
+    public UserDetails findUser(String unid) {
+
+        Shard shard = shard(unid);
+        byte[] encoded;
+        shard.lock.readLock().lock();
+        try {
+            Slot slot = shard.index.get(unid);
+            if (null == slot) {
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            if (expiryPolicy.isExpired(slot.created, slot.lastAccess, now)) {
+                // left for the sweep, freeing needs the write lock
+                return null;
+            }
+            slot.lastAccess = now;
+            encoded = shard.allocator.read(slot.handle, slot.length);
+        } finally {
+            shard.lock.readLock().unlock();
+        }
+        return principalCodec.decode(encoded);
+    }
+
+    @Override
+    public void storeUser(String unid, Authentication auth) {
+        if (auth.isAuthenticated()) {
+            Validate.notNull(unid, "unid cannot be null");
+
+            Object principal = auth.getPrincipal();
+            Validate.notNull(principal, "Principal cannot be null");
+            if (!(principal instanceof CcPrincipal)) {
+                throw new IllegalStateException("principal is " + principal.getClass().getName() + ":" + principal);
+            }
+
+            byte[] encoded = principalCodec.encode((CcPrincipal) principal);
+
+            Shard shard = shard(unid);
+            shard.lock.writeLock().lock();
+            try {
+                long handle = shard.allocator.allocate(encoded.length);
+                shard.allocator.write(handle, encoded);
+                Slot previous = shard.index.put(unid, new Slot(handle, encoded.length, System.currentTimeMillis()));
+                if (null != previous) {
+                    shard.allocator.free(previous.handle);
+                }
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public void removeUser(String unid) {
+        Shard shard = shard(unid);
+        shard.lock.writeLock().lock();
+        try {
+            Slot previous = shard.index.remove(unid);
+            if (null != previous) {
+                shard.allocator.free(previous.handle);
+            }
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sweeps the shards in turn, each removal only holds its shard's lock.
+     */
+    @Override
+    public int sweep(long now, int maxBatch) {
+        SsoExpiryPolicy policy = this.expiryPolicy;
+        if (!policy.expires()) {
+            return 0;
+        }
+        int removed = 0;
+        synchronized (this) {
+            for (int i = 0; i < shards.length && removed < maxBatch; i++) {
+                Shard shard = shards[sweepShard];
+                synchronized (shard.cursor) {
+                    shard.cursor.begin();
+                    Map.Entry<String, Slot> e;
+                    while (removed < maxBatch && null != (e = shard.cursor.next())) {
+                        Slot slot = e.getValue();
+                        if (policy.isExpired(slot.created, slot.lastAccess, now)) {
+                            shard.lock.writeLock().lock();
+                            try {
+                                if (shard.index.remove(e.getKey(), slot)) {
+                                    shard.allocator.free(slot.handle);
+                                    removed++;
+                                }
+                            } finally {
+                                shard.lock.writeLock().unlock();
+                            }
+                        }
+                    }
+                }
+                if (removed < maxBatch) {
+                    sweepShard = (sweepShard + 1) & (shards.length - 1);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return the number of stored logins
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.index.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return bytes of direct memory held by the slabs, used or free
+     */
+    public long getOffHeapAllocatedBytes() {
+        long bytes = 0L;
+        for (Shard shard : shards) {
+            shard.lock.readLock().lock();
+            try {
+                bytes += shard.allocator.allocatedBytes();
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return bytes of direct memory holding principals, including the rounding up to the chunk size
+     */
+    public long getOffHeapUsedBytes() {
+        long bytes = 0L;
+        for (Shard shard : shards) {
+            shard.lock.readLock().lock();
+            try {
+                bytes += shard.allocator.usedBytes();
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+        return bytes;
+    }
+
+    private Shard shard(String unid) {
+        int h = unid.hashCode();
+        // spread the high bits, like HashMap
+        return shards[(h ^ (h >>> 16)) & (shards.length - 1)];
+    }
+
+}
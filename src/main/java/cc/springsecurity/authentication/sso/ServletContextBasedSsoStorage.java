@@ -1,5 +1,6 @@
 package cc.springsecurity.authentication.sso;
 
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.ServletContext;
@@ -16,33 +17,76 @@ import cc.springsecurity.config.CcPrincipal;
  * @author Chris Carcel
  *
  */
-public class ServletContextBasedSsoStorage implements SsoStorage {
+public class ServletContextBasedSsoStorage implements ExpiringSsoStorage {
 
     private static final String CONTEXT_ATTRIBUTE_NAME = ServletContextBasedSsoStorage.class.getName();
 
-    private ConcurrentHashMap<String, Object> map;
+    /**
+     * A stored principal with its timestamps.
+     */
+    private static final class Entry {
+
+        private final Object principal;
+        private final long created;
+        private volatile long lastAccess;
+
+        private Entry(Object principal, long created) {
+            this.principal = principal;
+            this.created = created;
+            this.lastAccess = created;
+        }
+    }
+
+    private ConcurrentHashMap<String, Entry> map;
+
+    private final SweepCursor<String, Entry> cursor;
+
+    private volatile SsoExpiryPolicy expiryPolicy = SsoExpiryPolicy.NEVER;
 
     @SuppressWarnings("unchecked")
     public ServletContextBasedSsoStorage(ServletContext ctx) {
         Validate.notNull(ctx, "ServletContext is null");
         Object contextMap = ctx.getAttribute(CONTEXT_ATTRIBUTE_NAME);
         if (null == contextMap) {
-            map = new ConcurrentHashMap<String, Object>();
+            map = new ConcurrentHashMap<String, Entry>();
             ctx.setAttribute(CONTEXT_ATTRIBUTE_NAME, map);
         } else {
-            map = (ConcurrentHashMap<String, Object>) contextMap;
+            map = (ConcurrentHashMap<String, Entry>) contextMap;
         }
+        cursor = new SweepCursor<>(map);
+    }
+
+    /**
+     * Set when logins expire, {@link SsoExpiryPolicy#NEVER} by default.
+     *
+     * @param expiryPolicy
+     * @return this object
+     */
+    public ServletContextBasedSsoStorage setExpiryPolicy(SsoExpiryPolicy expiryPolicy) {
+        Validate.notNull(expiryPolicy, "expiryPolicy cannot be null");
+        this.expiryPolicy = expiryPolicy;
+        return this;
     }
 
     @Override
     public UserDetails findUser(String unid) {
-        return (CcPrincipal) map.get(unid);
+        Entry entry = map.get(unid);
+        if (null == entry) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (expiryPolicy.isExpired(entry.created, entry.lastAccess, now)) {
+            map.remove(unid, entry);
+            return null;
+        }
+        entry.lastAccess = now;
+        return (CcPrincipal) entry.principal;
     }
 
     @Override
     public void storeUser(String unid, Authentication auth) {
         if (auth.isAuthenticated()) {
-            map.put(unid, auth.getPrincipal());
+            map.put(unid, new Entry(auth.getPrincipal(), System.currentTimeMillis()));
         }
     }
 
@@ -51,4 +95,24 @@ public class ServletContextBasedSsoStorage implements SsoStorage {
         map.remove(unid);
     }
 
+    @Override
+    public int sweep(long now, int maxBatch) {
+        SsoExpiryPolicy policy = this.expiryPolicy;
+        if (!policy.expires()) {
+            return 0;
+        }
+        int removed = 0;
+        synchronized (cursor) {
+            cursor.begin();
+            Map.Entry<String, Entry> e;
+            while (removed < maxBatch && null != (e = cursor.next())) {
+                Entry entry = e.getValue();
+                if (policy.isExpired(entry.created, entry.lastAccess, now) && map.remove(e.getKey(), entry)) {
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
 }
@@ -0,0 +1,165 @@
+package cc.springsecurity.authentication.sso;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Hands out chunks of direct {@link ByteBuffer} slabs. Each slab is cut into chunks of one power of two size class; freed chunks go back to
+ * the free list of their class and are reused, slabs are kept for the life of the allocator. Not thread safe, callers lock.
+ *
+ * <p>
+ * A chunk is addressed by a handle, <code>slab index &lt;&lt; 32 | offset</code>.
+ * </p>
+ *
+ * @author Chris Carcel
+ *
+ */
+final class SlabAllocator {
+
+    /**
+     * Smallest chunk handed out.
+     */
+    static final int MINIMUM_CHUNK_SIZE = 64;
+
+    private final int slabSize;
+
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+
+    /**
+     * Size class of each slab, by slab index.
+     */
+    private byte[] slabClasses = new byte[8];
+
+    /**
+     * Free chunk handles per size class, used as stacks.
+     */
+    private final long[][] free;
+
+    private final int[] freeCount;
+
+    private long usedBytes;
+
+    /**
+     * @param slabSize
+     *            bytes per slab, a power of two, also the largest chunk
+     */
+    SlabAllocator(int slabSize) {
+        Validate.isTrue(slabSize >= MINIMUM_CHUNK_SIZE && Integer.bitCount(slabSize) == 1, "slabSize must be a power of two >= %d",
+                MINIMUM_CHUNK_SIZE);
+        this.slabSize = slabSize;
+        int classes = sizeClass(slabSize) + 1;
+        this.free = new long[classes][];
+        this.freeCount = new int[classes];
+        for (int i = 0; i < classes; i++) {
+            free[i] = new long[0];
+        }
+    }
+
+    /**
+     * Allocate a chunk of at least the given size.
+     *
+     * @param size
+     *            bytes needed, at most the slab size
+     * @return the chunk handle
+     */
+    long allocate(int size) {
+        Validate.isTrue(size <= slabSize, "%d bytes do not fit in a slab of %d bytes", size, slabSize);
+        int sizeClass = sizeClass(size);
+        if (freeCount[sizeClass] == 0) {
+            addSlab(sizeClass);
+        }
+        usedBytes += chunkSize(sizeClass);
+        return free[sizeClass][--freeCount[sizeClass]];
+    }
+
+    /**
+     * Return a chunk to its free list.
+     *
+     * @param handle
+     */
+    void free(long handle) {
+        int sizeClass = slabClasses[slabIndex(handle)];
+        long[] stack = free[sizeClass];
+        if (freeCount[sizeClass] == stack.length) {
+            stack = free[sizeClass] = Arrays.copyOf(stack, Math.max(16, stack.length * 2));
+        }
+        stack[freeCount[sizeClass]++] = handle;
+        usedBytes -= chunkSize(sizeClass);
+    }
+
+    /**
+     * Copy bytes into a chunk.
+     */
+    void write(long handle, byte[] bytes) {
+        ByteBuffer b = slabs.get(slabIndex(handle)).duplicate();
+        b.position(offset(handle));
+        b.put(bytes);
+    }
+
+    /**
+     * Copy bytes out of a chunk.
+     */
+    byte[] read(long handle, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer b = slabs.get(slabIndex(handle)).duplicate();
+        b.position(offset(handle));
+        b.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return bytes of direct memory held by the slabs
+     */
+    long allocatedBytes() {
+        return (long) slabs.size() * slabSize;
+    }
+
+    /**
+     * @return bytes of the chunks in use
+     */
+    long usedBytes() {
+        return usedBytes;
+    }
+
+    private void addSlab(int sizeClass) {
+        int index = slabs.size();
+        slabs.add(ByteBuffer.allocateDirect(slabSize));
+        if (index == slabClasses.length) {
+            slabClasses = Arrays.copyOf(slabClasses, index * 2);
+        }
+        slabClasses[index] = (byte) sizeClass;
+
+        int chunkSize = chunkSize(sizeClass);
+        int chunks = slabSize / chunkSize;
+        if (free[sizeClass].length < chunks) {
+            free[sizeClass] = Arrays.copyOf(free[sizeClass], Math.max(chunks, free[sizeClass].length * 2));
+        }
+        // pushed backwards so the chunks are handed out in address order
+        for (int i = chunks - 1; i >= 0; i--) {
+            free[sizeClass][freeCount[sizeClass]++] = ((long) index << 32) | (i * chunkSize);
+        }
+    }
+
+    private static int sizeClass(int size) {
+        int rounded = Math.max(MINIMUM_CHUNK_SIZE, size);
+        int bits = 32 - Integer.numberOfLeadingZeros(rounded - 1);
+        return bits - Integer.numberOfTrailingZeros(MINIMUM_CHUNK_SIZE);
+    }
+
+    private static int chunkSize(int sizeClass) {
+        return MINIMUM_CHUNK_SIZE << sizeClass;
+    }
+
+    private static int slabIndex(long handle) {
+        return (int) (handle >>> 32);
+    }
+
+    private static int offset(long handle) {
+        return (int) handle;
+    }
+
+}
@@ -0,0 +1,141 @@
+package cc.springsecurity.authentication.sso;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Looks the sso cookie up in an {@link AsyncSsoStorage} without holding a container thread. The first time a request with the cookie
+ * comes through, the filter starts Servlet 3.1 async processing, asks the storage and returns; when the answer arrives the user is
+ * memoized with {@link SsoRequestResolver#setUser(HttpServletRequest, org.springframework.security.core.userdetails.UserDetails)} and the
+ * request is dispatched again. On that second pass {@link SsoPreAuthenticationProcessingFilter} and {@link SsoAuthenticatedFilter} find
+ * the user already resolved and never call the blocking storage.
+ *
+ * <p>
+ * Requests without the cookie, requests already resolved and requests whose container does not support async processing go straight
+ * down the chain. If the lookup fails or times out the request is dispatched unresolved and the filters after this one fall back to the
+ * blocking lookup.
+ * </p>
+ *
+ * @author Chris Carcel
+ *
+ */
+public class SsoAsyncLookupFilter implements Filter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SsoAsyncLookupFilter.class);
+
+    /**
+     * Default time, in milliseconds, to wait for the storage before dispatching unresolved.
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000L;
+
+    private final AsyncSsoStorage ssoStorage;
+
+    private final SsoCookieInformation cookieInformation;
+
+    private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    /**
+     * Setup.
+     *
+     * @param ssoStorage
+     * @param cookieInformation
+     */
+    public SsoAsyncLookupFilter(AsyncSsoStorage ssoStorage, SsoCookieInformation cookieInformation) {
+        Validate.notNull(ssoStorage, "ssoStorage cannot be null");
+        Validate.notNull(cookieInformation, "cookieInformation cannot be null");
+        this.ssoStorage = ssoStorage;
+        this.cookieInformation = cookieInformation;
+    }
+
+    /**
+     * Set how long to wait for the storage, {@link #DEFAULT_TIMEOUT_MILLIS} by default.
+     *
+     * @param timeoutMillis
+     * @return this object
+     */
+    public SsoAsyncLookupFilter setTimeoutMillis(long timeoutMillis) {
+        Validate.isTrue(timeoutMillis > 0L, "timeoutMillis must be positive");
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException, ServletException {
+
+        if (!(req instanceof HttpServletRequest) || !req.isAsyncSupported() || DispatcherType.REQUEST != req.getDispatcherType()) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        HttpServletRequest request = (HttpServletRequest) req;
+        String unid = SsoRequestResolver.unid(request, cookieInformation);
+        if (null == unid || SsoRequestResolver.isUserResolved(request)) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        AsyncContext async = request.startAsync(req, res);
+        async.setTimeout(timeoutMillis);
+
+        // the answer and the timeout race, only the first dispatches
+        AtomicBoolean dispatched = new AtomicBoolean();
+        async.addListener(new AsyncListener() {
+
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (dispatched.compareAndSet(false, true)) {
+                    LOG.warn("No answer from sso storage within " + timeoutMillis + "ms");
+                    async.dispatch();
+                }
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException {
+            }
+        });
+
+        ssoStorage.findUserAsync(unid).whenComplete((user, e) -> {
+            if (dispatched.compareAndSet(false, true)) {
+                if (null == e) {
+                    SsoRequestResolver.setUser(request, user);
+                } else {
+                    LOG.warn("Error finding sso user, falling back to the blocking lookup", e);
+                }
+                async.dispatch();
+            }
+        });
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+}
@@ -8,7 +8,6 @@ import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
-import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
@@ -48,13 +47,8 @@ public class SsoAuthenticatedFilter implements Filter {
             HttpServletRequest request = (HttpServletRequest) req;
             HttpServletResponse response = (HttpServletResponse) res;
 
-            boolean stillAuthenticated = false;
-            String cookie = extractCookie(request);
-            if (null != cookie) {
-                if (null != ssoStorage.findUser(cookie)) {
-                    stillAuthenticated = true;
-                }
-            }
+            // shares the cookie scan and storage lookup with the pre-authentication filter
+            boolean stillAuthenticated = null != SsoRequestResolver.findUser(request, cookieInformation, ssoStorage);
 
             if (!stillAuthenticated) {
                 // clear auth context
@@ -75,18 +69,6 @@ public class SsoAuthenticatedFilter implements Filter {
         }
     }
 
-    private String extractCookie(HttpServletRequest request) {
-        Cookie[] cookies = request.getCookies();
-        if (null != cookies) {
-            for (Cookie cookie : cookies) {
-                if (cookieInformation.name().equals(cookie.getName())) {
-                    return cookie.getValue();
-                }
-            }
-        }
-        return null;
-    }
-
     @Override
     public void destroy() {
     }
@@ -1,8 +1,11 @@
 package cc.springsecurity.authentication.sso;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
@@ -15,6 +18,9 @@ import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
 import org.springframework.stereotype.Component;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import cc.springsecurity.authentication.HostServletContext;
 import cc.springsecurity.authorization.RolesFinder;
 import cc.springsecurity.config.CcWebAuthenticationDetails;
@@ -25,6 +31,13 @@ import cc.springsecurity.config.utils.HostName;
  * Used (and required) by the {@link SsoPreAuthenticationProcessingFilter} . Create a {@link UsernamePasswordAuthenticationToken} using the
  * roles found by the {@link RolesFinder} .
  * 
+ * <p>
+ * The authorities can be cached per host context and groups, see {@link #setAuthorityCache(long, long, TimeUnit)} , so the
+ * pre-authenticated requests of a user share one immutable collection instead of finding and converting the roles each time. The cache
+ * is off by default. When on, it is bounded, entries expire after the time to live, and it is dropped when {@link RolesFinder#version()}
+ * changes or {@link #invalidateAuthorities()} is called; a finder keeping the default version is only picked up again on expiry.
+ * </p>
+ * 
  * @author Chris Carcel
  *
  */
@@ -42,6 +55,70 @@ public class SsoAuthenticationManager implements AuthenticationManager {
 
     private RolesFinder rolesFinder;
 
+    /**
+     * Null unless enabled with {@link #setAuthorityCache(long, long, TimeUnit)} .
+     */
+    private volatile Cache<AuthorityKey, CachedAuthorities> authorityCache;
+
+    /**
+     * Bumped by {@link #invalidateAuthorities()}, cached authorities from an older generation are recomputed.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Host context and groups. The groups array is only hashed and compared, it is copied when the key is cached.
+     */
+    private static final class AuthorityKey {
+
+        private final HostServletContext hostServletContext;
+        private final String[] groups;
+        private final int hash;
+
+        private AuthorityKey(HostServletContext hostServletContext, String[] groups) {
+            this.hostServletContext = hostServletContext;
+            this.groups = groups;
+            this.hash = 31 * (null == hostServletContext ? 0 : hostServletContext.hashCode()) + Arrays.hashCode(groups);
+        }
+
+        private AuthorityKey copy() {
+            return new AuthorityKey(hostServletContext, null == groups ? null : groups.clone());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof AuthorityKey)) {
+                return false;
+            }
+            AuthorityKey other = (AuthorityKey) obj;
+            return hash == other.hash && Arrays.equals(groups, other.groups)
+                    && (null == hostServletContext ? null == other.hostServletContext : hostServletContext.equals(other.hostServletContext));
+        }
+    }
+
+    /**
+     * Authorities and the roles finder version and generation they were computed with.
+     */
+    private static final class CachedAuthorities {
+
+        private final long version;
+        private final long generation;
+        private final Collection<SimpleGrantedAuthority> authorities;
+
+        private CachedAuthorities(long version, long generation, Collection<SimpleGrantedAuthority> authorities) {
+            this.version = version;
+            this.generation = generation;
+            this.authorities = authorities;
+        }
+    }
+
     @Override
     public Authentication authenticate(Authentication authentication) throws AuthenticationException {
 
@@ -68,14 +145,7 @@ public class SsoAuthenticationManager implements AuthenticationManager {
         CcPrincipal p = (CcPrincipal) objectPrincipal;
 
         HostServletContext v = HostName.getHost();
-        Set<String> roles = rolesFinder.roles(v, p.getGroups());
-
-        Collection<SimpleGrantedAuthority> authorities;
-        if (null == roles || roles.isEmpty()) {
-            authorities = Collections.emptySet();
-        } else {
-            authorities = rolesFinder.convertToAuthority(roles);
-        }
+        Collection<SimpleGrantedAuthority> authorities = authorities(v, p.getGroups());
 
         UsernamePasswordAuthenticationToken result = new UsernamePasswordAuthenticationToken(p, null, authorities);
 
@@ -83,8 +153,80 @@ public class SsoAuthenticationManager implements AuthenticationManager {
 
     }
 
+    /**
+     * The authorities for the groups, from the cache when enabled and still current.
+     * 
+     * @param hostServletContext
+     * @param groups
+     * @return an immutable, possibly shared, collection
+     */
+    Collection<SimpleGrantedAuthority> authorities(HostServletContext hostServletContext, String[] groups) {
+
+        Cache<AuthorityKey, CachedAuthorities> authorityCache = this.authorityCache;
+        if (null == authorityCache) {
+            return findAuthorities(hostServletContext, groups);
+        }
+
+        long version = rolesFinder.version();
+        long gen = generation.get();
+        AuthorityKey key = new AuthorityKey(hostServletContext, groups);
+
+        CachedAuthorities cached = authorityCache.getIfPresent(key);
+        if (null != cached && cached.version == version && cached.generation == gen) {
+            return cached.authorities;
+        }
+
+        Collection<SimpleGrantedAuthority> authorities = findAuthorities(hostServletContext, groups);
+
+        // stamped with the version and generation read before finding the roles, so a change during the lookup is not hidden
+        authorityCache.put(key.copy(), new CachedAuthorities(version, gen, authorities));
+        if (trace) {
+            LOG.trace("cached authorities " + authorities + " for " + hostServletContext);
+        }
+        return authorities;
+    }
+
+    private Collection<SimpleGrantedAuthority> findAuthorities(HostServletContext hostServletContext, String[] groups) {
+        Set<String> roles = rolesFinder.roles(hostServletContext, groups);
+        if (null == roles || roles.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(rolesFinder.convertToAuthority(roles));
+    }
+
+    /**
+     * Drop the cached authorities, call when the role mappings change in a way {@link RolesFinder#version()} does not report.
+     */
+    public void invalidateAuthorities() {
+        generation.incrementAndGet();
+        Cache<AuthorityKey, CachedAuthorities> authorityCache = this.authorityCache;
+        if (null != authorityCache) {
+            authorityCache.invalidateAll();
+        }
+    }
+
     public SsoAuthenticationManager setRolesFinder(RolesFinder rolesFinder) {
         this.rolesFinder = rolesFinder;
+        invalidateAuthorities();
+        return this;
+    }
+
+    /**
+     * Cache the authorities, off by default. The time to live bounds how long a change to the role mappings that
+     * {@link RolesFinder#version()} does not report can go unnoticed.
+     * 
+     * @param maximumSize
+     *            maximum number of cached authority collections, zero disables the cache
+     * @param ttl
+     *            time to live of a cached collection, must be positive
+     * @param unit
+     * @return this object
+     */
+    public SsoAuthenticationManager setAuthorityCache(long maximumSize, long ttl, TimeUnit unit) {
+        Validate.isTrue(maximumSize >= 0L, "maximumSize cannot be negative");
+        Validate.isTrue(ttl > 0L, "ttl must be positive");
+        Validate.notNull(unit, "unit cannot be null");
+        this.authorityCache = 0L == maximumSize ? null : CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(ttl, unit).build();
         return this;
     }
 
@@ -44,6 +44,7 @@ public class SsoAuthenticationSuccessHandler extends SavedRequestAwareAuthentica
         response.addCookie(c);
 
         ssoStorage.storeUser(unid, authentication);
+        SsoRequestResolver.forgetUser(request);
 
         // call super to redirect to the originally requested url
         super.onAuthenticationSuccess(request, response, authentication);
@@ -0,0 +1,106 @@
+package cc.springsecurity.authentication.sso;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * When a stored login expires: an absolute maximum age counted from {@link SsoStorage#storeUser(String, org.springframework.security.core.Authentication)}
+ * and an idle timeout counted from the last {@link SsoStorage#findUser(String)}. Either can be 0 to disable it.
+ *
+ * @author Chris Carcel
+ *
+ */
+public final class SsoExpiryPolicy {
+
+    /**
+     * Logins never expire, the default.
+     */
+    public static final SsoExpiryPolicy NEVER = new SsoExpiryPolicy(0L, 0L, TimeUnit.MILLISECONDS);
+
+    /**
+     * Smallest interval between two writes of the last access time, for storages where recording it costs a write.
+     */
+    private static final long MINIMUM_TOUCH_INTERVAL_MILLIS = 1000L;
+
+    private final long maxAgeMillis;
+
+    private final long idleTimeoutMillis;
+
+    /**
+     * Setup.
+     *
+     * @param maxAge
+     *            maximum time since the login was stored, 0 for no limit
+     * @param idleTimeout
+     *            maximum time since the login was last found, 0 for no limit
+     * @param unit
+     *            unit of both times
+     */
+    public SsoExpiryPolicy(long maxAge, long idleTimeout, TimeUnit unit) {
+        Validate.notNull(unit, "unit cannot be null");
+        Validate.isTrue(maxAge >= 0L, "maxAge cannot be negative");
+        Validate.isTrue(idleTimeout >= 0L, "idleTimeout cannot be negative");
+        this.maxAgeMillis = unit.toMillis(maxAge);
+        this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+    }
+
+    /**
+     * @param created
+     *            when the login was stored
+     * @param lastAccess
+     *            when the login was last found
+     * @param now
+     * @return true if the login is expired at the given time
+     */
+    public boolean isExpired(long created, long lastAccess, long now) {
+        return (maxAgeMillis > 0L && now - created >= maxAgeMillis) || (idleTimeoutMillis > 0L && now - lastAccess >= idleTimeoutMillis);
+    }
+
+    /**
+     * @return false if logins never expire
+     */
+    public boolean expires() {
+        return maxAgeMillis > 0L || idleTimeoutMillis > 0L;
+    }
+
+    /**
+     * @param now
+     * @return logins created before this are expired, {@link Long#MIN_VALUE} if there is no maximum age
+     */
+    public long createdBefore(long now) {
+        return maxAgeMillis > 0L ? now - maxAgeMillis + 1L : Long.MIN_VALUE;
+    }
+
+    /**
+     * @param now
+     * @return logins last found before this are expired, {@link Long#MIN_VALUE} if there is no idle timeout
+     */
+    public long lastAccessBefore(long now) {
+        return idleTimeoutMillis > 0L ? now - idleTimeoutMillis + 1L : Long.MIN_VALUE;
+    }
+
+    /**
+     * How stale a recorded last access time may get, for storages where recording it costs a write: a tenth of the idle timeout, at least
+     * a second.
+     *
+     * @return milliseconds, {@link Long#MAX_VALUE} if there is no idle timeout
+     */
+    public long touchIntervalMillis() {
+        return idleTimeoutMillis > 0L ? Math.max(MINIMUM_TOUCH_INTERVAL_MILLIS, idleTimeoutMillis / 10L) : Long.MAX_VALUE;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "SsoExpiryPolicy [maxAgeMillis=" + maxAgeMillis + ", idleTimeoutMillis=" + idleTimeoutMillis + "]";
+    }
+
+}
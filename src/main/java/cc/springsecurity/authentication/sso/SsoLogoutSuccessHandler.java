@@ -34,9 +34,10 @@ public class SsoLogoutSuccessHandler implements LogoutSuccessHandler {
     public void onLogoutSuccess(HttpServletRequest request, HttpServletResponse response, Authentication authentication)
             throws IOException, ServletException {
 
-        String cookieValue = extractCookieValue(request);
+        String cookieValue = SsoRequestResolver.unid(request, cookieInformation);
         if (null != cookieValue) {
             ssoStorage.removeUser(cookieValue);
+            SsoRequestResolver.forgetUser(request);
         }
 
         if (null != cookiesToRemove) {
@@ -57,24 +58,6 @@ public class SsoLogoutSuccessHandler implements LogoutSuccessHandler {
         }
     }
 
-    /**
-     * Return the sso cookie value.
-     * 
-     * @param request
-     * @return
-     */
-    private String extractCookieValue(HttpServletRequest request) {
-        Cookie[] cookies = request.getCookies();
-        if (null != cookies) {
-            for (Cookie cookie : cookies) {
-                if (cookieInformation.name().equals(cookie.getName())) {
-                    return cookie.getValue();
-                }
-            }
-        }
-        return null;
-    }
-
     public void setSsoStorage(SsoStorage ssoStorage) {
         this.ssoStorage = ssoStorage;
     }
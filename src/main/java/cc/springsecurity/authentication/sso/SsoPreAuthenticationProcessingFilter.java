@@ -1,6 +1,5 @@
 package cc.springsecurity.authentication.sso;
 
-import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.lang3.Validate;
@@ -54,7 +53,7 @@ public class SsoPreAuthenticationProcessingFilter extends AbstractPreAuthenticat
 
         Validate.isTrue(null != cookieInformation, "cookieInformation cannot be null, be sure to call setCookieInformation");
 
-        String ssoUnid = ssoUnid(request);
+        String ssoUnid = SsoRequestResolver.unid(request, cookieInformation);
 
         if (null != ssoUnid) {
 
@@ -62,7 +61,7 @@ public class SsoPreAuthenticationProcessingFilter extends AbstractPreAuthenticat
                 LOG.trace("Have ssoUnid: " + ssoUnid);
             }
 
-            UserDetails userDetails = ssoStorage.findUser(ssoUnid);
+            UserDetails userDetails = SsoRequestResolver.findUser(request, cookieInformation, ssoStorage);
 
             if (trace) {
                 LOG.trace("returning " + userDetails);
@@ -80,21 +79,6 @@ public class SsoPreAuthenticationProcessingFilter extends AbstractPreAuthenticat
         }
     }
 
-    private String ssoUnid(HttpServletRequest request) {
-        if (null != request.getCookies()) {
-
-            // does cookie exist?
-
-            for (Cookie c : request.getCookies()) {
-                if (cookieInformation.name().equals(c.getName())) {
-                    return c.getValue();
-                }
-            }
-
-        }
-        return null;
-    }
-
     /**
      * Per the javadocs, this should not return null. We do not use it, so we return an empty string.
      */
@@ -0,0 +1,118 @@
+package cc.springsecurity.authentication.sso;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * Resolves the {@link SsoCookieInformation} cookie value and its {@link SsoStorage} lookup once per request, memoizing both as request
+ * attributes. The pre-authentication filter, the authenticated filter and the logout handler all go through here, so one request scans
+ * the cookies and queries the storage at most once.
+ *
+ * @author Chris Carcel
+ *
+ */
+public final class SsoRequestResolver {
+
+    /**
+     * Request attribute holding the resolved cookie value.
+     */
+    public static final String UNID_ATTRIBUTE = "cc.springsecurity.authentication.sso.SsoRequestResolver.UNID";
+
+    /**
+     * Request attribute holding the user found in sso storage.
+     */
+    public static final String USER_ATTRIBUTE = "cc.springsecurity.authentication.sso.SsoRequestResolver.USER";
+
+    /**
+     * Stored when the cookie or user was looked for and not found.
+     */
+    private static final Object NOT_FOUND = new Object();
+
+    /**
+     * Hidden.
+     */
+    private SsoRequestResolver() {
+
+    }
+
+    /**
+     * The sso cookie value, scanning the cookies on the first call only.
+     *
+     * @param request
+     * @param cookieInformation
+     *            only used if the request has cookies
+     * @return the cookie value or null if there is no sso cookie
+     */
+    public static String unid(HttpServletRequest request, SsoCookieInformation cookieInformation) {
+
+        Object resolved = request.getAttribute(UNID_ATTRIBUTE);
+        if (null == resolved) {
+            resolved = NOT_FOUND;
+            Cookie[] cookies = request.getCookies();
+            if (null != cookies) {
+                String name = cookieInformation.name();
+                for (Cookie cookie : cookies) {
+                    if (name.equals(cookie.getName())) {
+                        resolved = cookie.getValue();
+                        break;
+                    }
+                }
+            }
+            request.setAttribute(UNID_ATTRIBUTE, resolved);
+        }
+
+        return resolved == NOT_FOUND ? null : (String) resolved;
+    }
+
+    /**
+     * The user for the sso cookie, querying the storage on the first call only.
+     *
+     * @param request
+     * @param cookieInformation
+     * @param ssoStorage
+     * @return the user or null if there is no cookie or the storage does not know it
+     */
+    public static UserDetails findUser(HttpServletRequest request, SsoCookieInformation cookieInformation, SsoStorage ssoStorage) {
+
+        Object resolved = request.getAttribute(USER_ATTRIBUTE);
+        if (null == resolved) {
+            String unid = unid(request, cookieInformation);
+            UserDetails user = null == unid ? null : ssoStorage.findUser(unid);
+            resolved = null == user ? NOT_FOUND : user;
+            request.setAttribute(USER_ATTRIBUTE, resolved);
+        }
+
+        return resolved == NOT_FOUND ? null : (UserDetails) resolved;
+    }
+
+    /**
+     * Memoize a user found elsewhere, as {@link SsoAsyncLookupFilter} does before dispatching the request.
+     *
+     * @param request
+     * @param user
+     *            null records that the storage does not know the cookie
+     */
+    public static void setUser(HttpServletRequest request, UserDetails user) {
+        request.setAttribute(USER_ATTRIBUTE, null == user ? NOT_FOUND : user);
+    }
+
+    /**
+     * @param request
+     * @return true if the user was already looked for during this request
+     */
+    public static boolean isUserResolved(HttpServletRequest request) {
+        return null != request.getAttribute(USER_ATTRIBUTE);
+    }
+
+    /**
+     * Forget the memoized user, call after changing the sso storage during the request.
+     *
+     * @param request
+     */
+    public static void forgetUser(HttpServletRequest request) {
+        request.removeAttribute(USER_ATTRIBUTE);
+    }
+
+}
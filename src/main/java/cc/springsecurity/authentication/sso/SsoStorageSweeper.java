@@ -0,0 +1,111 @@
+package cc.springsecurity.authentication.sso;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically removes expired logins from an {@link ExpiringSsoStorage}, in batches, so no single step holds up lookups for long.
+ *
+ * @author Chris Carcel
+ *
+ */
+public class SsoStorageSweeper implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SsoStorageSweeper.class);
+
+    /**
+     * Default seconds between sweeps.
+     */
+    public static final long DEFAULT_PERIOD_SECONDS = 60L;
+
+    /**
+     * Default maximum number of logins removed per batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final ExpiringSsoStorage storage;
+
+    private final int batchSize;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Sweep every {@link #DEFAULT_PERIOD_SECONDS} seconds in batches of {@link #DEFAULT_BATCH_SIZE}.
+     *
+     * @param storage
+     */
+    public SsoStorageSweeper(ExpiringSsoStorage storage) {
+        this(storage, DEFAULT_PERIOD_SECONDS, TimeUnit.SECONDS, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Setup and start sweeping.
+     *
+     * @param storage
+     *            the storage to sweep
+     * @param period
+     *            time between the end of one sweep and the start of the next
+     * @param unit
+     *            unit of the period
+     * @param batchSize
+     *            maximum number of logins removed per batch
+     */
+    public SsoStorageSweeper(ExpiringSsoStorage storage, long period, TimeUnit unit, int batchSize) {
+        Validate.notNull(storage, "storage cannot be null");
+        Validate.notNull(unit, "unit cannot be null");
+        Validate.isTrue(period > 0L, "period must be positive");
+        Validate.isTrue(batchSize > 0, "batchSize must be positive");
+        this.storage = storage;
+        this.batchSize = batchSize;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "SsoStorageSweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::sweepQuietly, period, period, unit);
+    }
+
+    /**
+     * Sweep now, batch after batch until a batch comes back short.
+     *
+     * @return the number of logins removed
+     */
+    public int sweep() {
+        int total = 0;
+        int removed;
+        do {
+            removed = storage.sweep(System.currentTimeMillis(), batchSize);
+            total += removed;
+            // let lookups waiting on the storage go first
+            Thread.yield();
+        } while (removed >= batchSize && !Thread.currentThread().isInterrupted());
+        return total;
+    }
+
+    private void sweepQuietly() {
+        try {
+            int removed = sweep();
+            if (removed > 0) {
+                LOG.debug("Removed " + removed + " expired logins");
+            }
+        } catch (RuntimeException e) {
+            // never let the exception kill the scheduled task
+            LOG.error("Error sweeping expired logins", e);
+        }
+    }
+
+    /**
+     * Stop sweeping.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+}
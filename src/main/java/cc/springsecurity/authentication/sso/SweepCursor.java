@@ -0,0 +1,50 @@
+package cc.springsecurity.authentication.sso;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers where the last {@link ExpiringSsoStorage#sweep(long, int)} of a concurrent map stopped. The iterator is weakly consistent, so
+ * walking it never blocks the map's readers or writers.
+ *
+ * @author Chris Carcel
+ *
+ */
+final class SweepCursor<K, V> {
+
+    private final ConcurrentMap<K, V> map;
+
+    private Iterator<Map.Entry<K, V>> iterator;
+
+    private boolean restarted;
+
+    SweepCursor(ConcurrentMap<K, V> map) {
+        this.map = map;
+    }
+
+    /**
+     * Start a sweep, the cursor may go around the map once.
+     */
+    void begin() {
+        restarted = false;
+    }
+
+    /**
+     * @return the next entry, or null once the whole map was visited during this sweep
+     */
+    Map.Entry<K, V> next() {
+        if (null == iterator || !iterator.hasNext()) {
+            if (restarted) {
+                return null;
+            }
+            restarted = true;
+            iterator = map.entrySet().iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+        }
+        return iterator.next();
+    }
+
+}
@@ -0,0 +1,281 @@
+package cc.springsecurity.authentication.sso.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import cc.springsecurity.config.CcPrincipal;
+import cc.springsecurity.config.CcPrincipalImpl;
+
+/**
+ * Compact, versioned binary format for {@link CcPrincipal}, decoded to a {@link CcPrincipalImpl}. Version 1 layout:
+ *
+ * <pre>
+ * byte     version (1)
+ * byte     presence flags, one bit per field below, a missing field is null
+ * int      userId
+ * string   username, lastName, middleInitial, firstName, email
+ * varint   group count, followed by that many strings, sorted
+ * </pre>
+ *
+ * A string is a varint byte count followed by UTF-8 bytes. Data starting with the Java serialization stream magic is handed to
+ * {@link JavaSerializationPrincipalCodec}, so storage written before this format can still be read.
+ *
+ * @author Chris Carcel
+ *
+ */
+public class BinaryPrincipalCodec implements PrincipalCodec {
+
+    /**
+     * The current format version.
+     */
+    public static final byte VERSION = 1;
+
+    private static final int HAS_USER_ID = 1;
+    private static final int HAS_USERNAME = 1 << 1;
+    private static final int HAS_LAST_NAME = 1 << 2;
+    private static final int HAS_MIDDLE_INITIAL = 1 << 3;
+    private static final int HAS_FIRST_NAME = 1 << 4;
+    private static final int HAS_EMAIL = 1 << 5;
+    private static final int HAS_GROUPS = 1 << 6;
+
+    private static final byte JAVA_SERIALIZATION_MAGIC_1 = (byte) 0xAC;
+    private static final byte JAVA_SERIALIZATION_MAGIC_2 = (byte) 0xED;
+
+    private final PrincipalCodec legacy = new JavaSerializationPrincipalCodec();
+
+    @Override
+    public byte[] encode(CcPrincipal principal) {
+
+        byte[] username = utf8(principal.getUsername());
+        byte[] lastName = utf8(principal.getLastName());
+        byte[] middleInitial = utf8(principal.getMiddleInitial());
+        byte[] firstName = utf8(principal.getFirstName());
+        byte[] email = utf8(principal.getEmail());
+        String[] groups = principal.getGroups();
+
+        int flags = 0;
+        int size = 2;
+        if (null != principal.getUserId()) {
+            flags |= HAS_USER_ID;
+            size += 4;
+        }
+        flags |= flag(username, HAS_USERNAME);
+        flags |= flag(lastName, HAS_LAST_NAME);
+        flags |= flag(middleInitial, HAS_MIDDLE_INITIAL);
+        flags |= flag(firstName, HAS_FIRST_NAME);
+        flags |= flag(email, HAS_EMAIL);
+        size += stringSize(username) + stringSize(lastName) + stringSize(middleInitial) + stringSize(firstName) + stringSize(email);
+
+        byte[][] groupBytes = null;
+        if (null != groups) {
+            flags |= HAS_GROUPS;
+            String[] sorted = groups;
+            if (!isSorted(groups)) {
+                sorted = groups.clone();
+                Arrays.sort(sorted);
+            }
+            groupBytes = new byte[sorted.length][];
+            size += varIntSize(sorted.length);
+            for (int i = 0; i < sorted.length; i++) {
+                groupBytes[i] = utf8(sorted[i]);
+                size += stringSize(groupBytes[i]);
+            }
+        }
+
+        Writer w = new Writer(size);
+        w.put(VERSION);
+        w.put((byte) flags);
+        if (null != principal.getUserId()) {
+            w.putInt(principal.getUserId());
+        }
+        w.putString(username);
+        w.putString(lastName);
+        w.putString(middleInitial);
+        w.putString(firstName);
+        w.putString(email);
+        if (null != groupBytes) {
+            w.putVarInt(groupBytes.length);
+            for (byte[] g : groupBytes) {
+                w.putString(g);
+            }
+        }
+        return w.bytes;
+    }
+
+    @Override
+    public CcPrincipal decode(byte[] bytes, int offset, int length) {
+
+        if (length >= 2 && bytes[offset] == JAVA_SERIALIZATION_MAGIC_1 && bytes[offset + 1] == JAVA_SERIALIZATION_MAGIC_2) {
+            return legacy.decode(bytes, offset, length);
+        }
+
+        Reader r = new Reader(bytes, offset, length);
+        byte version = r.get();
+        if (version != VERSION) {
+            throw new IllegalStateException("Unknown principal format version " + version);
+        }
+        int flags = r.get();
+
+        CcPrincipalImpl p = new CcPrincipalImpl();
+        if ((flags & HAS_USER_ID) != 0) {
+            p.setUserId(r.getInt());
+        }
+        if ((flags & HAS_USERNAME) != 0) {
+            p.setUsername(r.getString());
+        }
+        if ((flags & HAS_LAST_NAME) != 0) {
+            p.setLastName(r.getString());
+        }
+        if ((flags & HAS_MIDDLE_INITIAL) != 0) {
+            p.setMiddleInitial(r.getString());
+        }
+        if ((flags & HAS_FIRST_NAME) != 0) {
+            p.setFirstName(r.getString());
+        }
+        if ((flags & HAS_EMAIL) != 0) {
+            p.setEmail(r.getString());
+        }
+        if ((flags & HAS_GROUPS) != 0) {
+            String[] groups = new String[r.getVarInt()];
+            for (int i = 0; i < groups.length; i++) {
+                groups[i] = r.getString();
+            }
+            // written sorted, setGroups sorting an already sorted array is a single pass
+            p.setGroups(groups);
+        }
+        r.checkEnd();
+        return p;
+    }
+
+    private static byte[] utf8(String s) {
+        return null == s ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int flag(byte[] b, int flag) {
+        return null == b ? 0 : flag;
+    }
+
+    private static int stringSize(byte[] b) {
+        return null == b ? 0 : varIntSize(b.length) + b.length;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static boolean isSorted(String[] a) {
+        for (int i = 1; i < a.length; i++) {
+            if (a[i - 1].compareTo(a[i]) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes into an array sized up front.
+     */
+    private static final class Writer {
+
+        private final byte[] bytes;
+        private int position;
+
+        private Writer(int size) {
+            this.bytes = new byte[size];
+        }
+
+        private void put(byte b) {
+            bytes[position++] = b;
+        }
+
+        private void putInt(int i) {
+            bytes[position++] = (byte) (i >>> 24);
+            bytes[position++] = (byte) (i >>> 16);
+            bytes[position++] = (byte) (i >>> 8);
+            bytes[position++] = (byte) i;
+        }
+
+        private void putVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[position++] = (byte) value;
+        }
+
+        private void putString(byte[] s) {
+            if (null != s) {
+                putVarInt(s.length);
+                System.arraycopy(s, 0, bytes, position, s.length);
+                position += s.length;
+            }
+        }
+    }
+
+    /**
+     * Reads from part of an array, failing on truncated data.
+     */
+    private static final class Reader {
+
+        private final byte[] bytes;
+        private final int end;
+        private int position;
+
+        private Reader(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        private void require(int n) {
+            if (n < 0 || position + n > end) {
+                throw new IllegalStateException("Truncated principal");
+            }
+        }
+
+        private byte get() {
+            require(1);
+            return bytes[position++];
+        }
+
+        private int getInt() {
+            require(4);
+            int i = ((bytes[position] & 0xFF) << 24) | ((bytes[position + 1] & 0xFF) << 16) | ((bytes[position + 2] & 0xFF) << 8)
+                    | (bytes[position + 3] & 0xFF);
+            position += 4;
+            return i;
+        }
+
+        private int getVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Malformed varint");
+        }
+
+        private String getString() {
+            int length = getVarInt();
+            require(length);
+            String s = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return s;
+        }
+
+        private void checkEnd() {
+            if (position != end) {
+                throw new IllegalStateException((end - position) + " unexpected bytes after principal");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+package cc.springsecurity.authentication.sso.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import cc.springsecurity.config.CcPrincipal;
+
+/**
+ * Java serialization of the principal. Slow, kept to read data written before {@link BinaryPrincipalCodec} and for {@link CcPrincipal}
+ * implementations that carry more than the binary format does.
+ * 
+ * @author Chris Carcel
+ *
+ */
+public class JavaSerializationPrincipalCodec implements PrincipalCodec {
+
+    @Override
+    public byte[] encode(CcPrincipal principal) {
+        try (ByteArrayOutputStream bout = new ByteArrayOutputStream(); ObjectOutputStream oos = new ObjectOutputStream(bout)) {
+            oos.writeObject(principal);
+            oos.flush();
+            return bout.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public CcPrincipal decode(byte[] bytes, int offset, int length) {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes, offset, length))) {
+            Object object = ois.readObject();
+            if (!(object instanceof CcPrincipal)) {
+                throw new IllegalStateException("object " + object + " is not an instanceof CcPrincipal.");
+            }
+            return (CcPrincipal) object;
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+package cc.springsecurity.authentication.sso.codec;
+
+import cc.springsecurity.authentication.sso.SsoStorage;
+import cc.springsecurity.config.CcPrincipal;
+
+/**
+ * Converts a {@link CcPrincipal} to bytes and back. Used by the {@link SsoStorage} implementations which keep principals outside the heap,
+ * so it sits on the path of every pre-authenticated request. Implementations must be thread safe.
+ * 
+ * @see BinaryPrincipalCodec
+ * @see JavaSerializationPrincipalCodec
+ * @author Chris Carcel
+ *
+ */
+public interface PrincipalCodec {
+
+    /**
+     * Encode the principal.
+     * 
+     * @param principal
+     *            cannot be null
+     * @return the encoded principal
+     */
+    byte[] encode(CcPrincipal principal);
+
+    /**
+     * Decode a principal from part of an array.
+     * 
+     * @param bytes
+     *            the encoded principal
+     * @param offset
+     *            start of the encoded principal
+     * @param length
+     *            number of bytes in the encoded principal
+     * @return the principal
+     */
+    CcPrincipal decode(byte[] bytes, int offset, int length);
+
+    /**
+     * Decode a principal.
+     * 
+     * @param bytes
+     *            the result of {@link #encode(CcPrincipal)}
+     * @return the principal
+     */
+    public default CcPrincipal decode(byte[] bytes) {
+        return decode(bytes, 0, bytes.length);
+    }
+
+}
@@ -0,0 +1,143 @@
+package cc.springsecurity.authentication.sso.remote;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * The wire format shared by {@link SsoSessionServer} and {@link RemoteSsoStorage}. Every frame starts with an int holding the number of
+ * bytes that follow it, then a long request id chosen by the client and echoed by the server, so requests can be pipelined and answered in
+ * any order.
+ *
+ * <pre>
+ * request:  int length | long id | byte op     | short unid length | unid (UTF-8) | payload
+ * response: int length | long id | byte status | payload
+ * </pre>
+ *
+ * The payload of a {@link #OP_STORE} request and of a found {@link #OP_FIND} response is the encoded principal, the server never decodes
+ * it.
+ *
+ * <p>
+ * Before any request the client proves it knows the shared secret: the server sends a random nonce of {@link #NONCE_SIZE} bytes, the
+ * client answers with the HMAC-SHA256 of the nonce keyed with the secret, and the server answers {@link #STATUS_OK} or closes the
+ * connection. The secret itself never crosses the wire and an answer cannot be replayed on another connection.
+ * </p>
+ *
+ * <pre>
+ * server: nonce (32 bytes)
+ * client: HMAC-SHA256(secret, nonce) (32 bytes)
+ * server: byte status
+ * </pre>
+ *
+ * @author Chris Carcel
+ *
+ */
+final class Protocol {
+
+    static final byte OP_FIND = 1;
+
+    static final byte OP_STORE = 2;
+
+    static final byte OP_REMOVE = 3;
+
+    static final byte STATUS_OK = 0;
+
+    static final byte STATUS_NOT_FOUND = 1;
+
+    static final byte STATUS_ERROR = 2;
+
+    /**
+     * Largest frame accepted, anything bigger means a broken peer.
+     */
+    static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * id + op + unid length
+     */
+    static final int REQUEST_HEADER_SIZE = 8 + 1 + 2;
+
+    /**
+     * id + status
+     */
+    static final int RESPONSE_HEADER_SIZE = 8 + 1;
+
+    /**
+     * Bytes of the challenge the server sends first.
+     */
+    static final int NONCE_SIZE = 32;
+
+    /**
+     * Bytes of the client's answer to the challenge.
+     */
+    static final int MAC_SIZE = 32;
+
+    /**
+     * Shortest shared secret accepted.
+     */
+    static final int MIN_SECRET_SIZE = 16;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    /**
+     * Hidden.
+     */
+    private Protocol() {
+
+    }
+
+    static ByteBuffer request(long id, byte op, String unid, byte[] payload) {
+        byte[] unidBytes = unid.getBytes(StandardCharsets.UTF_8);
+        Validate.isTrue(unidBytes.length <= Short.MAX_VALUE, "unid is too long");
+        int length = REQUEST_HEADER_SIZE + unidBytes.length + (null == payload ? 0 : payload.length);
+        Validate.isTrue(length <= MAX_FRAME_SIZE, "request of %d bytes is too large", length);
+        ByteBuffer b = ByteBuffer.allocate(4 + length);
+        b.putInt(length).putLong(id).put(op).putShort((short) unidBytes.length).put(unidBytes);
+        if (null != payload) {
+            b.put(payload);
+        }
+        b.flip();
+        return b;
+    }
+
+    /**
+     * Append a response frame to the buffer, which must have room for it.
+     */
+    static void response(ByteBuffer b, long id, byte status, byte[] payload) {
+        b.putInt(RESPONSE_HEADER_SIZE + (null == payload ? 0 : payload.length)).putLong(id).put(status);
+        if (null != payload) {
+            b.put(payload);
+        }
+    }
+
+    static int responseSize(byte[] payload) {
+        return 4 + RESPONSE_HEADER_SIZE + (null == payload ? 0 : payload.length);
+    }
+
+    /**
+     * Check a shared secret and copy it.
+     */
+    static byte[] secret(byte[] secret) {
+        Validate.notNull(secret, "secret cannot be null");
+        Validate.isTrue(secret.length >= MIN_SECRET_SIZE, "secret must be at least %d bytes", MIN_SECRET_SIZE);
+        return secret.clone();
+    }
+
+    /**
+     * The answer to the challenge.
+     */
+    static byte[] mac(byte[] secret, byte[] nonce) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(secret, MAC_ALGORITHM));
+            return mac.doFinal(nonce);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
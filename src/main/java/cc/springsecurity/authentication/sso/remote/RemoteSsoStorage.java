@@ -0,0 +1,426 @@
+package cc.springsecurity.authentication.sso.remote;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import cc.springsecurity.authentication.sso.AsyncSsoStorage;
+import cc.springsecurity.authentication.sso.SsoStorage;
+import cc.springsecurity.authentication.sso.codec.BinaryPrincipalCodec;
+import cc.springsecurity.authentication.sso.codec.PrincipalCodec;
+import cc.springsecurity.config.CcPrincipal;
+
+/**
+ * {@link SsoStorage} client of a {@link SsoSessionServer}, so several servers share logins. Requests from all threads are multiplexed over a
+ * few persistent connections: each gets a request id and is written at once, without waiting for earlier answers, and a reader thread per
+ * connection completes the matching future when its response arrives. A broken connection fails its outstanding requests and is
+ * reopened by the next request. Every request, blocking or not, fails with a {@link TimeoutException} if it is not answered within the
+ * timeout, and is then forgotten. Each connection proves it knows the server's shared secret before its first request, see
+ * {@link SsoSessionServer} for the trust model.
+ *
+ * @author Chris Carcel
+ *
+ */
+public class RemoteSsoStorage implements SsoStorage, AsyncSsoStorage, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RemoteSsoStorage.class);
+
+    /**
+     * Default number of connections.
+     */
+    public static final int DEFAULT_CONNECTIONS = 2;
+
+    /**
+     * Default time, in milliseconds, the blocking methods wait for an answer.
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000L;
+
+    private final InetSocketAddress address;
+
+    private final byte[] secret;
+
+    private final long timeoutMillis;
+
+    private final Connection[] connections;
+
+    private final AtomicInteger nextConnection = new AtomicInteger();
+
+    private final AtomicLong nextId = new AtomicLong();
+
+    /**
+     * Fails requests not answered within the timeout.
+     */
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "RemoteSsoStorage-timeout");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile boolean closed;
+
+    private PrincipalCodec principalCodec = new BinaryPrincipalCodec();
+
+    /**
+     * The answer to one request.
+     */
+    private static final class Response {
+
+        private final byte status;
+        private final byte[] payload;
+
+        private Response(byte status, byte[] payload) {
+            this.status = status;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * One persistent connection, its outstanding requests and its reader thread.
+     */
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private final ConcurrentHashMap<Long, CompletableFuture<Response>> outstanding = new ConcurrentHashMap<>();
+        private final Object writeLock = new Object();
+        private volatile boolean broken;
+
+        private Connection(int index) throws IOException {
+            this.channel = SocketChannel.open();
+            try {
+                channel.socket().connect(address, timeoutAsInt());
+                channel.socket().setTcpNoDelay(true);
+                authenticate();
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            Thread reader = new Thread(this::read, "RemoteSsoStorage-reader-" + index);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Answer the server's challenge, waiting at most the timeout.
+         */
+        private void authenticate() throws IOException {
+            Socket socket = channel.socket();
+            socket.setSoTimeout(timeoutAsInt());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] nonce = new byte[Protocol.NONCE_SIZE];
+            try {
+                in.readFully(nonce);
+                socket.getOutputStream().write(Protocol.mac(secret, nonce));
+                if (in.readByte() != Protocol.STATUS_OK) {
+                    throw new IOException("Authentication to " + address + " failed");
+                }
+            } catch (EOFException e) {
+                throw new IOException("Authentication to " + address + " refused, check the secret", e);
+            }
+            socket.setSoTimeout(0);
+        }
+
+        /**
+         * @throws IOException
+         *             if the request could not be written, the connection is then broken
+         */
+        private CompletableFuture<Response> send(long id, ByteBuffer frame) throws IOException {
+            CompletableFuture<Response> future = new CompletableFuture<>();
+            outstanding.put(id, future);
+            // removed before it is failed, so callers see it gone once they see the timeout
+            ScheduledFuture<?> timeout = timer.schedule(() -> {
+                if (outstanding.remove(id, future)) {
+                    future.completeExceptionally(new TimeoutException("No answer from " + address + " within " + timeoutMillis + "ms"));
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            // however else it completes, answered, failed or cancelled, it is no longer outstanding
+            future.whenComplete((r, e) -> {
+                outstanding.remove(id, future);
+                timeout.cancel(false);
+            });
+            try {
+                synchronized (writeLock) {
+                    while (frame.hasRemaining()) {
+                        channel.write(frame);
+                    }
+                }
+            } catch (IOException e) {
+                outstanding.remove(id);
+                timeout.cancel(false);
+                fail(e);
+                throw e;
+            }
+            if (broken) {
+                // the reader may have failed the others before this one was registered
+                fail(new IOException("Connection to " + address + " is closed"));
+            }
+            return future;
+        }
+
+        private void read() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)))) {
+                while (true) {
+                    int length = in.readInt();
+                    if (length < Protocol.RESPONSE_HEADER_SIZE || length > Protocol.MAX_FRAME_SIZE) {
+                        throw new IOException("Bad frame length " + length);
+                    }
+                    long id = in.readLong();
+                    byte status = in.readByte();
+                    byte[] payload = new byte[length - Protocol.RESPONSE_HEADER_SIZE];
+                    in.readFully(payload);
+                    CompletableFuture<Response> future = outstanding.remove(id);
+                    if (null != future) {
+                        future.complete(new Response(status, payload));
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    LOG.warn("Connection to " + address + " lost", e);
+                }
+                fail(e);
+            }
+        }
+
+        private void fail(IOException e) {
+            broken = true;
+            try {
+                channel.close();
+            } catch (IOException ce) {
+                LOG.debug("Error closing " + address, ce);
+            }
+            for (Long id : outstanding.keySet()) {
+                CompletableFuture<Response> future = outstanding.remove(id);
+                if (null != future) {
+                    future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Connect with the default number of connections and timeout.
+     *
+     * @param address
+     *            the {@link SsoSessionServer}
+     * @param secret
+     *            the secret shared with the server
+     */
+    public RemoteSsoStorage(InetSocketAddress address, byte[] secret) {
+        this(address, secret, DEFAULT_CONNECTIONS, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Setup, connections are opened on first use.
+     *
+     * @param address
+     *            the {@link SsoSessionServer}
+     * @param secret
+     *            the secret shared with the server
+     * @param connections
+     *            number of persistent connections
+     * @param timeoutMillis
+     *            how long to wait to connect and for an answer
+     */
+    public RemoteSsoStorage(InetSocketAddress address, byte[] secret, int connections, long timeoutMillis) {
+        Validate.notNull(address, "address cannot be null");
+        Validate.isTrue(connections > 0, "connections must be positive");
+        Validate.isTrue(timeoutMillis > 0L, "timeoutMillis must be positive");
+        this.address = address;
+        this.secret = Protocol.secret(secret);
+        this.timeoutMillis = timeoutMillis;
+        this.connections = new Connection[connections];
+    }
+
+    /**
+     * Set the codec used to encode principals, {@link BinaryPrincipalCodec} by default. Every client of a server must use the same codec.
+     *
+     * @param principalCodec
+     * @return this object
+     */
+    public RemoteSsoStorage setPrincipalCodec(PrincipalCodec principalCodec) {
+        Validate.notNull(principalCodec, "principalCodec cannot be null");
+        this.principalCodec = principalCodec;
+        return this;
+    }
+
+    @Override
+    public UserDetails findUser(String unid) {
+        return await(findUserAsync(unid));
+    }
+
+    @Override
+    public void storeUser(String unid, Authentication auth) {
+        await(storeUserAsync(unid, auth));
+    }
+
+    @Override
+    public void removeUser(String unid) {
+        await(removeUserAsync(unid));
+    }
+
+    /**
+     * Find the user without blocking.
+     *
+     * @param unid
+     * @return completes with the user or null if not found
+     */
+    @Override
+    public CompletableFuture<UserDetails> findUserAsync(String unid) {
+        return send(Protocol.OP_FIND, unid, null).thenApply(r -> {
+            if (r.status == Protocol.STATUS_NOT_FOUND) {
+                return null;
+            }
+            check(r);
+            return principalCodec.decode(r.payload);
+        });
+    }
+
+    /**
+     * Store the user without blocking, nothing is sent if the authentication is not authenticated.
+     *
+     * @param unid
+     * @param auth
+     * @return completes once the server stored the user
+     */
+    @Override
+    public CompletableFuture<Void> storeUserAsync(String unid, Authentication auth) {
+        if (!auth.isAuthenticated()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Validate.notNull(unid, "unid cannot be null");
+
+        Object principal = auth.getPrincipal();
+        Validate.notNull(principal, "Principal cannot be null");
+        if (!(principal instanceof CcPrincipal)) {
+            throw new IllegalStateException("principal is " + principal.getClass().getName() + ":" + principal);
+        }
+
+        return send(Protocol.OP_STORE, unid, principalCodec.encode((CcPrincipal) principal)).thenAccept(RemoteSsoStorage::check);
+    }
+
+    /**
+     * Remove the user without blocking.
+     *
+     * @param unid
+     * @return completes once the server removed the user
+     */
+    @Override
+    public CompletableFuture<Void> removeUserAsync(String unid) {
+        return send(Protocol.OP_REMOVE, unid, null).thenAccept(RemoteSsoStorage::check);
+    }
+
+    /**
+     * Close the connections, outstanding requests fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (connections) {
+            for (Connection c : connections) {
+                if (null != c) {
+                    c.fail(new IOException("RemoteSsoStorage is closed"));
+                }
+            }
+        }
+        timer.shutdownNow();
+    }
+
+    /**
+     * @return number of requests waiting for an answer
+     */
+    int getOutstandingCount() {
+        int result = 0;
+        synchronized (connections) {
+            for (Connection c : connections) {
+                if (null != c) {
+                    result += c.outstanding.size();
+                }
+            }
+        }
+        return result;
+    }
+
+    private CompletableFuture<Response> send(byte op, String unid, byte[] payload) {
+        long id = nextId.incrementAndGet();
+        ByteBuffer frame = Protocol.request(id, op, unid, payload);
+        try {
+            try {
+                return connection().send(id, frame);
+            } catch (IOException e) {
+                // a connection broken while idle is only noticed on write, every op is idempotent so try once more on a new one
+                frame.rewind();
+                return connection().send(id, frame);
+            }
+        } catch (IOException e) {
+            CompletableFuture<Response> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * The next connection round robin, reopened if broken.
+     */
+    private Connection connection() throws IOException {
+        Validate.validState(!closed, "RemoteSsoStorage is closed");
+        int index = (nextConnection.getAndIncrement() & Integer.MAX_VALUE) % connections.length;
+        Connection c = connections[index];
+        if (null == c || c.broken) {
+            synchronized (connections) {
+                c = connections[index];
+                if (null == c || c.broken) {
+                    c = connections[index] = new Connection(index);
+                }
+            }
+        }
+        return c;
+    }
+
+    private int timeoutAsInt() {
+        return (int) Math.min(Integer.MAX_VALUE, timeoutMillis);
+    }
+
+    private static void check(Response r) {
+        if (r.status != Protocol.STATUS_OK) {
+            throw new IllegalStateException("Server error " + new String(r.payload, StandardCharsets.UTF_8));
+        }
+    }
+
+    private <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (TimeoutException e) {
+            // the request itself times out at the same time, this is only a safety net
+            throw new RuntimeException("No answer from " + address + " within " + timeoutMillis + "ms", e);
+        }
+    }
+
+}
@@ -0,0 +1,346 @@
+package cc.springsecurity.authentication.sso.remote;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small standalone session server for {@link RemoteSsoStorage}: an in-memory map of unid to encoded principal served over TCP with the
+ * {@link Protocol} frames. One selector thread does all the work; every complete request read from a connection is answered in order and
+ * the responses go out together, so a pipelining client gets many answers per write. A client which does not read its answers is no longer
+ * read from once a buffer of answers is waiting, and is disconnected if its answers still exceed {@link #MAX_OUTPUT_SIZE} bytes.
+ *
+ * <p>
+ * Run {@link #main(String[])} with the port, default {@link #DEFAULT_PORT}, and optionally the address to bind to, by default the loopback
+ * interface. The shared secret is read from the environment variable {@value #SECRET_ENVIRONMENT_VARIABLE} so it does not show in the
+ * process list. The logins live only as long as the process.
+ * </p>
+ *
+ * <p>
+ * Trust model: whoever can store a principal under a unid can log in as anyone with any groups, and whoever can find one can read it, so
+ * every connection must prove it knows the shared secret before any request is read, see {@link Protocol}. The frames are not encrypted:
+ * anyone who can watch the traffic reads the principals and the unids, which are the SSO cookies. Keep the server on the loopback
+ * interface or a private network trusted as much as the web servers themselves, and tunnel it over TLS (stunnel, ssh) otherwise. Every
+ * client holding the secret is fully trusted.
+ * </p>
+ *
+ * @author Chris Carcel
+ *
+ */
+public class SsoSessionServer implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SsoSessionServer.class);
+
+    /**
+     * Default port of {@link #main(String[])}.
+     */
+    public static final int DEFAULT_PORT = 7070;
+
+    /**
+     * Environment variable holding the shared secret of {@link #main(String[])}.
+     */
+    public static final String SECRET_ENVIRONMENT_VARIABLE = "SSO_SESSION_SECRET";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Most bytes of answers kept for one connection.
+     */
+    static final int MAX_OUTPUT_SIZE = 2 * Protocol.MAX_FRAME_SIZE;
+
+    private final ConcurrentHashMap<String, byte[]> sessions = new ConcurrentHashMap<>();
+
+    private final byte[] secret;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final ServerSocketChannel serverChannel;
+
+    private final Selector selector;
+
+    private final Thread thread;
+
+    private volatile boolean running;
+
+    /**
+     * Per connection buffers, only used by the selector thread.
+     */
+    private static final class Connection {
+
+        private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        private ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+
+        /**
+         * The challenge sent, null once the client answered it.
+         */
+        private byte[] nonce;
+    }
+
+    /**
+     * Bind to the address, call {@link #start()} to serve.
+     *
+     * @param address
+     *            port 0 picks a free port, see {@link #getPort()}; use the loopback address unless other hosts must connect
+     * @param secret
+     *            shared with the clients, at least 16 bytes
+     */
+    public SsoSessionServer(InetSocketAddress address, byte[] secret) {
+        Validate.notNull(address, "address cannot be null");
+        this.secret = Protocol.secret(secret);
+        try {
+            this.selector = Selector.open();
+            this.serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.thread = new Thread(this::run, "SsoSessionServer-" + getPort());
+    }
+
+    /**
+     * Start the selector thread.
+     *
+     * @return this object
+     */
+    public SsoSessionServer start() {
+        running = true;
+        thread.start();
+        return this;
+    }
+
+    /**
+     * @return the port bound to
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return the number of stored logins
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Stop serving and close every connection.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key);
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        LOG.debug("Closing connection " + key.channel(), e);
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            } catch (IOException e) {
+                LOG.error("Error in the selector loop", e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (null != channel) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection c = new Connection();
+            c.nonce = new byte[Protocol.NONCE_SIZE];
+            random.nextBytes(c.nonce);
+            c.out.put(c.nonce);
+            write(channel.register(selector, SelectionKey.OP_READ, c));
+        }
+    }
+
+    /**
+     * Check the answer to the challenge, the connection is closed if it is wrong.
+     *
+     * @return false if the whole answer has not arrived yet
+     */
+    private boolean authenticate(SelectionKey key, Connection c, ByteBuffer in) throws IOException {
+        if (in.remaining() < Protocol.MAC_SIZE) {
+            return false;
+        }
+        byte[] mac = new byte[Protocol.MAC_SIZE];
+        in.get(mac);
+        if (!MessageDigest.isEqual(Protocol.mac(secret, c.nonce), mac)) {
+            LOG.warn("Refusing " + ((SocketChannel) key.channel()).getRemoteAddress() + ", wrong secret");
+            throw new IOException("Authentication failed");
+        }
+        c.nonce = null;
+        c.out.put(Protocol.STATUS_OK);
+        return true;
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection c = (Connection) key.attachment();
+        if (channel.read(c.in) < 0) {
+            throw new IOException("Closed by the client");
+        }
+
+        ByteBuffer in = c.in;
+        in.flip();
+        if (null != c.nonce && !authenticate(key, c, in)) {
+            in.compact();
+            return;
+        }
+        while (in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (length < Protocol.REQUEST_HEADER_SIZE || length > Protocol.MAX_FRAME_SIZE) {
+                throw new IOException("Bad frame length " + length);
+            }
+            if (in.remaining() < 4 + length) {
+                if (in.capacity() < 4 + length) {
+                    // a large principal, grow to fit the frame
+                    ByteBuffer bigger = ByteBuffer.allocate(4 + length);
+                    bigger.put(in);
+                    in = c.in = bigger;
+                    in.flip();
+                }
+                break;
+            }
+            int end = in.position() + 4 + length;
+            in.getInt();
+            long id = in.getLong();
+            byte op = in.get();
+            byte[] unidBytes = new byte[in.getShort()];
+            in.get(unidBytes);
+            byte[] payload = new byte[end - in.position()];
+            in.get(payload);
+            handle(c, id, op, new String(unidBytes, StandardCharsets.UTF_8), payload);
+        }
+        in.compact();
+
+        write(key);
+    }
+
+    private void handle(Connection c, long id, byte op, String unid, byte[] payload) throws IOException {
+        switch (op) {
+        case Protocol.OP_FIND:
+            byte[] found = sessions.get(unid);
+            respond(c, id, null == found ? Protocol.STATUS_NOT_FOUND : Protocol.STATUS_OK, found);
+            break;
+        case Protocol.OP_STORE:
+            sessions.put(unid, payload);
+            respond(c, id, Protocol.STATUS_OK, null);
+            break;
+        case Protocol.OP_REMOVE:
+            sessions.remove(unid);
+            respond(c, id, Protocol.STATUS_OK, null);
+            break;
+        default:
+            respond(c, id, Protocol.STATUS_ERROR, ("Unknown op " + op).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void respond(Connection c, long id, byte status, byte[] payload) throws IOException {
+        int size = Protocol.responseSize(payload);
+        if (c.out.position() + size > MAX_OUTPUT_SIZE) {
+            throw new IOException("Client is not reading its answers, " + c.out.position() + " bytes waiting");
+        }
+        if (c.out.remaining() < size) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(c.out.capacity() * 2, c.out.position() + size));
+            c.out.flip();
+            bigger.put(c.out);
+            c.out = bigger;
+        }
+        Protocol.response(c.out, id, status, payload);
+    }
+
+    /**
+     * Write what is buffered, waiting for {@link SelectionKey#OP_WRITE} if the socket is full. While a buffer of answers waits no more
+     * requests are read.
+     */
+    private void write(SelectionKey key) throws IOException {
+        Connection c = (Connection) key.attachment();
+        c.out.flip();
+        ((SocketChannel) key.channel()).write(c.out);
+        boolean pending = c.out.hasRemaining();
+        c.out.compact();
+        if (!pending) {
+            key.interestOps(SelectionKey.OP_READ);
+        } else if (c.out.position() >= BUFFER_SIZE) {
+            key.interestOps(SelectionKey.OP_WRITE);
+        } else {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Run a server until the process is killed, the secret is read from {@value #SECRET_ENVIRONMENT_VARIABLE}.
+     *
+     * @param args
+     *            optional port, then optional address to bind to, the loopback interface by default; 0.0.0.0 for every interface
+     * @throws IOException
+     *             if the address cannot be resolved
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        InetAddress bind = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+        String secret = System.getenv(SECRET_ENVIRONMENT_VARIABLE);
+        if (null == secret || secret.isEmpty()) {
+            throw new IllegalStateException("Set the shared secret in the environment variable " + SECRET_ENVIRONMENT_VARIABLE);
+        }
+        SsoSessionServer server = new SsoSessionServer(new InetSocketAddress(bind, port), secret.getBytes(StandardCharsets.UTF_8))
+                .start();
+        LOG.info("SsoSessionServer listening on " + bind.getHostAddress() + " port " + server.getPort());
+    }
+
+}
@@ -1,20 +1,24 @@
 package cc.springsecurity.authorization;
 
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import cc.springsecurity.authentication.HostServletContext;
 
 /**
- * Abstract base class for hard coded roles and groups.
+ * Abstract base class for hard coded roles and groups. The map is read once and compiled into a {@link CompiledRoleIndex}; call
+ * {@link #invalidate()} if it changes.
  * 
  * @author Chris Carcel
  *
  */
 public abstract class AbstractHardCodedRolesFinder implements RolesFinder {
 
+    private volatile CompiledRoleIndex index;
+
+    private final AtomicLong version = new AtomicLong();
+
     /**
      * Return the hard-coded map. In the Map&lt;String, Set&lt;String&gt;&gt; the key is a role name (minus the ROLE) and the value is a set
      * of groups which have that role.
@@ -23,31 +27,37 @@ public abstract class AbstractHardCodedRolesFinder implements RolesFinder {
      */
     protected abstract Map<HostServletContext, Map<String, Set<String>>> getRoleGroupMap();
 
+    /**
+     * @return an immutable, possibly shared, set of role names
+     */
     @Override
     public Set<String> roles(HostServletContext hostServletContext, String[] groups) {
+        return index().roles(hostServletContext, groups);
+    }
 
-        if (null == groups || groups.length == 0) {
-            return Collections.emptySet();
-        }
-
-        Map<String, Set<String>> roleGroups = getRoleGroupMap().get(hostServletContext);
-
-        if (null == roleGroups) {
-            return Collections.emptySet();
-        }
+    /**
+     * Recompile {@link #getRoleGroupMap()} on the next call and change the {@link #version()}.
+     */
+    public synchronized void invalidate() {
+        index = null;
+        version.incrementAndGet();
+    }
 
-        Set<String> userRoles = new HashSet<>();
+    @Override
+    public long version() {
+        return version.get();
+    }
 
-        for (Map.Entry<String, Set<String>> entry : roleGroups.entrySet()) {
-            for (String group : groups) {
-                if (entry.getValue().contains(group)) {
-                    userRoles.add(entry.getKey());
-                    break;
+    private CompiledRoleIndex index() {
+        CompiledRoleIndex result = index;
+        if (null == result) {
+            synchronized (this) {
+                result = index;
+                if (null == result) {
+                    result = index = CompiledRoleIndex.compile(getRoleGroupMap());
                 }
             }
-
         }
-
-        return userRoles;
+        return result;
     }
 }
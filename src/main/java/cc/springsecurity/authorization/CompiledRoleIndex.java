@@ -0,0 +1,145 @@
+package cc.springsecurity.authorization;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cc.springsecurity.authentication.HostServletContext;
+import cc.springsecurity.config.SymbolTable;
+
+/**
+ * The role to groups map of a {@link RolesFinder} compiled into an inverted index. Per {@link HostServletContext} every role gets an int id
+ * and every group the {@link BitSet} of the roles it grants, so finding the roles of a user is one pass over their groups or-ing bit sets.
+ * The resulting role set is cached per distinct bit set and shared, users with the same roles get the same immutable set.
+ *
+ * <p>
+ * Immutable once compiled and safe for concurrent use; compile a new index when the mappings change.
+ * </p>
+ *
+ * @author Chris Carcel
+ *
+ */
+public final class CompiledRoleIndex {
+
+    /**
+     * Most distinct role sets cached per context, past it role sets are still found but built each time.
+     */
+    static final int MAX_CACHED_ROLE_SETS = 4096;
+
+    private static final CompiledRoleIndex EMPTY = new CompiledRoleIndex(Collections.emptyMap());
+
+    private final Map<HostServletContext, ContextIndex> contexts;
+
+    /**
+     * The index of one host context.
+     */
+    private static final class ContextIndex {
+
+        private final String[] roleNames;
+        private final Map<String, BitSet> groupRoles;
+        private final ConcurrentHashMap<BitSet, Set<String>> roleSets = new ConcurrentHashMap<>();
+
+        private ContextIndex(Map<String, Set<String>> roleGroups) {
+            // sorted so ids do not depend on the map's iteration order
+            this.roleNames = new TreeSet<>(roleGroups.keySet()).toArray(new String[0]);
+            this.groupRoles = new HashMap<>();
+            for (int id = 0; id < roleNames.length; id++) {
+                roleNames[id] = SymbolTable.ROLES.intern(roleNames[id]);
+                Set<String> groups = roleGroups.get(roleNames[id]);
+                if (null != groups) {
+                    for (String group : groups) {
+                        groupRoles.computeIfAbsent(SymbolTable.GROUPS.intern(group), g -> new BitSet(roleNames.length)).set(id);
+                    }
+                }
+            }
+        }
+
+        private Set<String> roles(String[] groups) {
+            BitSet found = null;
+            boolean owned = false;
+            for (String group : groups) {
+                BitSet granted = groupRoles.get(group);
+                if (null == granted) {
+                    continue;
+                }
+                if (null == found) {
+                    // the index's own bit set, copied before it is changed
+                    found = granted;
+                } else {
+                    if (!owned) {
+                        found = (BitSet) found.clone();
+                        owned = true;
+                    }
+                    found.or(granted);
+                }
+                if (found.cardinality() == roleNames.length) {
+                    break;
+                }
+            }
+            if (null == found) {
+                return Collections.emptySet();
+            }
+
+            Set<String> roles = roleSets.get(found);
+            if (null == roles) {
+                Set<String> built = new HashSet<>(found.cardinality() * 2);
+                for (int id = found.nextSetBit(0); id >= 0; id = found.nextSetBit(id + 1)) {
+                    built.add(roleNames[id]);
+                }
+                roles = Collections.unmodifiableSet(built);
+                if (roleSets.size() < MAX_CACHED_ROLE_SETS) {
+                    Set<String> raced = roleSets.putIfAbsent(found, roles);
+                    if (null != raced) {
+                        roles = raced;
+                    }
+                }
+            }
+            return roles;
+        }
+    }
+
+    private CompiledRoleIndex(Map<HostServletContext, ContextIndex> contexts) {
+        this.contexts = contexts;
+    }
+
+    /**
+     * Compile the mappings.
+     *
+     * @param roleGroupMap
+     *            per host context, the role name (minus the ROLE_) to the groups which have that role, may be null
+     * @return the index, it keeps no reference to the map
+     */
+    public static CompiledRoleIndex compile(Map<HostServletContext, Map<String, Set<String>>> roleGroupMap) {
+        if (null == roleGroupMap || roleGroupMap.isEmpty()) {
+            return EMPTY;
+        }
+        Map<HostServletContext, ContextIndex> contexts = new HashMap<>();
+        for (Map.Entry<HostServletContext, Map<String, Set<String>>> entry : roleGroupMap.entrySet()) {
+            if (null != entry.getValue()) {
+                contexts.put(entry.getKey(), new ContextIndex(entry.getValue()));
+            }
+        }
+        return new CompiledRoleIndex(contexts);
+    }
+
+    /**
+     * Find the roles.
+     *
+     * @param hostServletContext
+     * @param groups
+     * @return an immutable, possibly shared, set of role names
+     */
+    public Set<String> roles(HostServletContext hostServletContext, String[] groups) {
+        if (null == groups || groups.length == 0) {
+            return Collections.emptySet();
+        }
+        ContextIndex index = contexts.get(hostServletContext);
+        return null == index ? Collections.emptySet() : index.roles(groups);
+    }
+
+}
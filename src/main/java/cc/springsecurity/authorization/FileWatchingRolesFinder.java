@@ -0,0 +1,215 @@
+package cc.springsecurity.authorization;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cc.springsecurity.authentication.HostServletContext;
+
+/**
+ * {@link RolesFinder} reading the role to groups mappings from a properties file and reloading it when it changes. Each key is
+ * <code>host|context|role</code> and its value the comma separated groups having that role, an empty host standing for any host as in
+ * {@link HostServletContext}:
+ *
+ * <pre>
+ * |/app|ADMIN=Administrators,Operations
+ * |/app|USER=Staff
+ * intranet.example.com|/hr|MANAGER=HR Managers
+ * </pre>
+ *
+ * <p>
+ * The file is compiled into a {@link CompiledRoleIndex} and swapped in whole, so {@link #roles(HostServletContext, String[])} never blocks
+ * and never sees half a file. After {@link #start()} a daemon thread watches the directory with a {@link WatchService} and reloads on
+ * change; a file that cannot be read or parsed is logged and the previous mappings are kept. {@link #version()} changes on every reload.
+ * </p>
+ *
+ * @author Chris Carcel
+ *
+ */
+public class FileWatchingRolesFinder implements RolesFinder, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileWatchingRolesFinder.class);
+
+    /**
+     * Wait for the events of one save to arrive before reloading, in milliseconds.
+     */
+    private static final long SETTLE_MILLIS = 100L;
+
+    private final Path file;
+
+    private final AtomicReference<CompiledRoleIndex> index = new AtomicReference<>();
+
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Serializes reloads, so the last one started is the one swapped in last.
+     */
+    private final Object reloadLock = new Object();
+
+    private WatchService watchService;
+
+    private Thread watcher;
+
+    /**
+     * Load the file, call {@link #start()} to reload it on change.
+     *
+     * @param file
+     *            the properties file
+     * @throws IllegalStateException
+     *             if the file cannot be read or parsed
+     */
+    public FileWatchingRolesFinder(Path file) {
+        Validate.notNull(file, "file cannot be null");
+        this.file = file.toAbsolutePath();
+        try {
+            index.set(CompiledRoleIndex.compile(load(this.file)));
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("Cannot load roles from " + this.file, e);
+        }
+    }
+
+    /**
+     * Start watching the file.
+     *
+     * @return this object
+     */
+    public synchronized FileWatchingRolesFinder start() {
+        Validate.validState(null == watcher, "already started");
+        try {
+            watchService = file.getFileSystem().newWatchService();
+            // editors often save by replacing the file, so watch the directory
+            file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        watcher = new Thread(this::watch, "FileWatchingRolesFinder");
+        watcher.setDaemon(true);
+        watcher.start();
+        return this;
+    }
+
+    @Override
+    public Set<String> roles(HostServletContext hostServletContext, String[] groups) {
+        return index.get().roles(hostServletContext, groups);
+    }
+
+    @Override
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Reload the file now, keeping the current mappings if it cannot be read or parsed.
+     *
+     * @return true if reloaded
+     */
+    public boolean reload() {
+        synchronized (reloadLock) {
+            CompiledRoleIndex compiled;
+            try {
+                compiled = CompiledRoleIndex.compile(load(file));
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Cannot reload roles from " + file + ", keeping the previous ones", e);
+                return false;
+            }
+            index.set(compiled);
+            // after the swap, so a cache stamped with the new version never holds roles from the old index
+            version.incrementAndGet();
+            LOG.info("Reloaded roles from " + file);
+            return true;
+        }
+    }
+
+    /**
+     * Stop watching the file.
+     */
+    @Override
+    public synchronized void close() {
+        if (null != watchService) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            try {
+                watcher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void watch() {
+        Path name = file.getFileName();
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= name.equals(event.context());
+                    }
+                    key.reset();
+                    // one save can raise several events, take them all before reloading
+                    key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                } while (null != key);
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            LOG.debug("Stopped watching " + file);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Parse the file.
+     *
+     * @throws IllegalArgumentException
+     *             for a malformed key
+     */
+    static Map<HostServletContext, Map<String, Set<String>>> load(Path file) throws IOException {
+        Properties p = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            p.load(reader);
+        }
+
+        Map<HostServletContext, Map<String, Set<String>>> result = new HashMap<>();
+        for (String key : p.stringPropertyNames()) {
+            String[] parts = key.split("\\|", -1);
+            Validate.isTrue(parts.length == 3 && !parts[2].trim().isEmpty(), "key %s is not host|context|role", key);
+            HostServletContext hsc = new HostServletContext(StringUtils.trimToNull(parts[0]), parts[1].trim());
+            Set<String> groups = result.computeIfAbsent(hsc, k -> new HashMap<>()).computeIfAbsent(parts[2].trim(), k -> new HashSet<>());
+            for (String group : p.getProperty(key).split(",")) {
+                if (!group.trim().isEmpty()) {
+                    groups.add(group.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,193 @@
+package cc.springsecurity.authorization;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import cc.springsecurity.authentication.HostServletContext;
+
+/**
+ * {@link RolesFinder} backed by the ROLE_GROUPS table, see roles-schema.sql. Every mapping of every host context is loaded into memory up
+ * front and compiled into a {@link CompiledRoleIndex}, so {@link #roles(HostServletContext, String[])} never goes to the database.
+ *
+ * <p>
+ * {@link #refresh()}, run on a schedule when a period is given, reads only the rows whose UPDATED value is past the highest one already
+ * seen, applies them to the in-memory mappings and swaps in a newly compiled index; {@link #version()} changes when a refresh changed
+ * something. Rows are never deleted, a removed mapping has DELETED set to 1 and a new UPDATED value. Rows are re-read for
+ * {@link #setOverlapMillis(long) an overlap} before the highest UPDATED value seen, so a row committed late with an earlier value is not
+ * missed; re-reading a row is harmless.
+ * </p>
+ *
+ * @author Chris Carcel
+ *
+ */
+public class JdbcRolesFinder implements RolesFinder, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcRolesFinder.class);
+
+    /**
+     * Default milliseconds of rows re-read on each refresh.
+     */
+    public static final long DEFAULT_OVERLAP_MILLIS = 5000L;
+
+    private static final String SELECT = "select HOST, CONTEXT, ROLE_NAME, GROUP_NAME, DELETED, UPDATED from ROLE_GROUPS";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final AtomicReference<CompiledRoleIndex> index = new AtomicReference<>();
+
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * The mappings as last read, only used while holding the lock of this object.
+     */
+    private final Map<HostServletContext, Map<String, Set<String>>> mappings = new HashMap<>();
+
+    /**
+     * Highest UPDATED value seen, guarded by this.
+     */
+    private long lastUpdated = Long.MIN_VALUE;
+
+    private volatile long overlapMillis = DEFAULT_OVERLAP_MILLIS;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Load the mappings, without refreshing them.
+     *
+     * @param dataSource
+     */
+    public JdbcRolesFinder(DataSource dataSource) {
+        Validate.notNull(dataSource, "dataSource cannot be null");
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        synchronized (this) {
+            load(SELECT + " order by UPDATED", new Object[0]);
+            index.set(CompiledRoleIndex.compile(mappings));
+        }
+    }
+
+    /**
+     * Load the mappings and refresh them on a schedule.
+     *
+     * @param dataSource
+     * @param period
+     *            time between the end of one refresh and the start of the next
+     * @param unit
+     *            unit of the period
+     */
+    public JdbcRolesFinder(DataSource dataSource, long period, TimeUnit unit) {
+        this(dataSource);
+        Validate.notNull(unit, "unit cannot be null");
+        Validate.isTrue(period > 0L, "period must be positive");
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "JdbcRolesFinder");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::refreshQuietly, period, period, unit);
+    }
+
+    /**
+     * Set how far before the highest UPDATED value seen a refresh starts reading, {@link #DEFAULT_OVERLAP_MILLIS} by default. Use 0 when
+     * UPDATED comes from a sequence assigned at commit.
+     *
+     * @param overlapMillis
+     * @return this object
+     */
+    public JdbcRolesFinder setOverlapMillis(long overlapMillis) {
+        Validate.isTrue(overlapMillis >= 0L, "overlapMillis cannot be negative");
+        this.overlapMillis = overlapMillis;
+        return this;
+    }
+
+    @Override
+    public Set<String> roles(HostServletContext hostServletContext, String[] groups) {
+        return index.get().roles(hostServletContext, groups);
+    }
+
+    @Override
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Read the rows changed since the last load or refresh.
+     *
+     * @return true if the mappings changed
+     */
+    public synchronized boolean refresh() {
+        long from = Long.MIN_VALUE == lastUpdated ? Long.MIN_VALUE : lastUpdated - overlapMillis;
+        if (!load(SELECT + " where UPDATED > ? order by UPDATED", new Object[] { from })) {
+            return false;
+        }
+        index.set(CompiledRoleIndex.compile(mappings));
+        // after the swap, so a cache stamped with the new version never holds roles from the old index
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Stop refreshing.
+     */
+    @Override
+    public void close() {
+        if (null != executor) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Apply the rows of the query to {@link #mappings}, in UPDATED order so the latest change to a mapping wins.
+     *
+     * @return true if anything changed
+     */
+    private boolean load(String sql, Object[] args) {
+        boolean[] changed = new boolean[1];
+        jdbcTemplate.query(sql, args, rs -> {
+            HostServletContext hsc = new HostServletContext(StringUtils.trimToNull(rs.getString("HOST")), rs.getString("CONTEXT"));
+            String role = rs.getString("ROLE_NAME");
+            String group = rs.getString("GROUP_NAME");
+            if (rs.getInt("DELETED") == 0) {
+                changed[0] |= mappings.computeIfAbsent(hsc, k -> new HashMap<>()).computeIfAbsent(role, k -> new HashSet<>()).add(group);
+            } else {
+                Map<String, Set<String>> roleGroups = mappings.get(hsc);
+                Set<String> groups = null == roleGroups ? null : roleGroups.get(role);
+                if (null != groups && groups.remove(group)) {
+                    changed[0] = true;
+                    if (groups.isEmpty()) {
+                        roleGroups.remove(role);
+                    }
+                }
+            }
+            lastUpdated = Math.max(lastUpdated, rs.getLong("UPDATED"));
+        });
+        return changed[0];
+    }
+
+    private void refreshQuietly() {
+        try {
+            if (refresh()) {
+                LOG.info("Role mappings changed");
+            }
+        } catch (RuntimeException e) {
+            // never let the exception kill the scheduled task, the previous mappings stay
+            LOG.error("Error refreshing role mappings", e);
+        }
+    }
+
+}
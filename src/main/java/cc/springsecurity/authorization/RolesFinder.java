@@ -7,6 +7,7 @@ import java.util.Set;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 
 import cc.springsecurity.authentication.HostServletContext;
+import cc.springsecurity.config.SymbolTable;
 
 /**
  * Find roles.
@@ -25,19 +26,30 @@ public interface RolesFinder {
      */
     Set<String> roles(HostServletContext hostServletContext, String[] groups);
 
+    /**
+     * Version of the role mappings, changed whenever {@link #roles(HostServletContext, String[])} may answer differently for the same
+     * arguments. Callers caching roles or authorities, like {@link cc.springsecurity.authentication.sso.SsoAuthenticationManager}, drop
+     * what they cached when it changes. Finders whose mappings never change keep the default.
+     * 
+     * @return 0 by default
+     */
+    public default long version() {
+        return 0L;
+    }
+
     /**
      * Convert roles to authorities.
      * 
      * @param roles
      *            the set of string roles, not prefixed by ROLE_
-     * @return {@link SimpleGrantedAuthority} objects, prefixed by ROLE_
+     * @return {@link SimpleGrantedAuthority} objects, prefixed by ROLE_, the shared instances from {@link SymbolTable#ROLES}
      */
     public default Set<SimpleGrantedAuthority> convertToAuthority(Collection<String> roles) {
         Set<SimpleGrantedAuthority> result;
         if (null != roles) {
             result = new HashSet<SimpleGrantedAuthority>(roles.size());
             for (String role : roles) {
-                result.add(new SimpleGrantedAuthority("ROLE_" + role));
+                result.add(SymbolTable.ROLES.authority(role));
             }
         } else {
             result = null;
@@ -32,4 +32,8 @@ public class AntMatcherRole implements MatcherRoles {
         return roles;
     }
 
+    String pattern() {
+        return antMatcher.getPattern();
+    }
+
 }
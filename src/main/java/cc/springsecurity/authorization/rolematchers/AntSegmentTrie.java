@@ -0,0 +1,211 @@
+package cc.springsecurity.authorization.rolematchers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ant patterns stored by path segment, to find the few patterns that may match a path in one walk down the path instead of trying every
+ * pattern. Literal segments are looked up in a hash map, a segment with wildcards or uri variables matches any one segment and
+ * <code>**</code> any number of segments. As with AntPathMatcher, a path ending in <code>/</code> also reaches the patterns whose last
+ * segment is a wildcard, <code>/admin/*</code> matches <code>/admin/</code> .
+ *
+ * <p>
+ * The answer is a superset: every pattern that matches the path is found, but a pattern found may not match, for example
+ * <code>/img/*.png</code> for <code>/img/a.gif</code> or trailing slash differences. Callers confirm the candidates with the real matcher.
+ * The path is walked once, keeping the set of nodes reached so far, so however many <code>**</code> a pattern has the cost is at most
+ * the number of segments times the number of nodes. Built once, then safe for concurrent reads.
+ * </p>
+ *
+ * @author Chris Carcel
+ *
+ */
+final class AntSegmentTrie {
+
+    private static final int[] NONE = new int[0];
+
+    private int nodes;
+
+    private final Node root = new Node(nodes++, false);
+
+    private int size;
+
+    /**
+     * One path segment.
+     */
+    private static final class Node {
+
+        private final int index;
+        private final boolean anySegments;
+        private Map<String, Node> literals;
+        private Node wildcard;
+        private Node doubleWildcard;
+        private int[] ids = NONE;
+
+        /**
+         * @param index
+         *            unique in the trie
+         * @param anySegments
+         *            true for <code>**</code> , which stays on this node for each segment it takes
+         */
+        private Node(int index, boolean anySegments) {
+            this.index = index;
+            this.anySegments = anySegments;
+        }
+    }
+
+    /**
+     * Add a pattern.
+     *
+     * @param pattern
+     *            an ant pattern, as given to {@link org.springframework.security.web.util.matcher.AntPathRequestMatcher}
+     * @param id
+     *            returned by {@link #candidates(String)} when the pattern may match
+     */
+    void add(String pattern, int id) {
+        Node node = root;
+        for (String segment : segments(pattern)) {
+            if ("**".equals(segment)) {
+                if (null == node.doubleWildcard) {
+                    node.doubleWildcard = new Node(nodes++, true);
+                }
+                node = node.doubleWildcard;
+            } else if (isLiteral(segment)) {
+                if (null == node.literals) {
+                    node.literals = new HashMap<>();
+                }
+                Node child = node.literals.get(segment);
+                if (null == child) {
+                    child = new Node(nodes++, false);
+                    node.literals.put(segment, child);
+                }
+                node = child;
+            } else {
+                if (null == node.wildcard) {
+                    node.wildcard = new Node(nodes++, false);
+                }
+                node = node.wildcard;
+            }
+        }
+        node.ids = Arrays.copyOf(node.ids, node.ids.length + 1);
+        node.ids[node.ids.length - 1] = id;
+        size++;
+    }
+
+    /**
+     * @return the number of patterns added
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * The ids of the patterns that may match the path.
+     *
+     * @param path
+     *            servlet path plus path info
+     * @return sorted ids, without duplicates
+     */
+    int[] candidates(String path) {
+        // the step each node was last reached in, so a node is kept once per step
+        int[] reached = new int[nodes];
+        List<Node> current = new ArrayList<>();
+        List<Node> next = new ArrayList<>();
+        int step = 1;
+        reach(root, current, reached, step);
+
+        for (String segment : segments(path)) {
+            step++;
+            for (Node node : current) {
+                if (null != node.literals) {
+                    Node child = node.literals.get(segment);
+                    if (null != child) {
+                        reach(child, next, reached, step);
+                    }
+                }
+                if (null != node.wildcard) {
+                    reach(node.wildcard, next, reached, step);
+                }
+                if (node.anySegments) {
+                    reach(node, next, reached, step);
+                }
+            }
+            if (next.isEmpty()) {
+                return NONE;
+            }
+            List<Node> swap = current;
+            current = next;
+            next = swap;
+            next.clear();
+        }
+
+        if (path.endsWith("/")) {
+            // AntPathMatcher lets a last * take the empty segment after a trailing slash, the wildcard children are a superset of those
+            int n = current.size();
+            for (int i = 0; i < n; i++) {
+                reach(current.get(i).wildcard, current, reached, step);
+            }
+        }
+
+        // each id is on one node and each node is reached once, no duplicates
+        int count = 0;
+        for (Node node : current) {
+            count += node.ids.length;
+        }
+        if (count == 0) {
+            return NONE;
+        }
+        int[] result = new int[count];
+        count = 0;
+        for (Node node : current) {
+            System.arraycopy(node.ids, 0, result, count, node.ids.length);
+            count += node.ids.length;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Keep the node, and the <code>**</code> after it which may take no segment at all.
+     */
+    private static void reach(Node node, List<Node> into, int[] reached, int step) {
+        while (null != node && reached[node.index] != step) {
+            reached[node.index] = step;
+            into.add(node);
+            node = node.doubleWildcard;
+        }
+    }
+
+    /**
+     * The non-empty segments, as AntPathMatcher tokenizes.
+     */
+    private static List<String> segments(String path) {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        int length = path.length();
+        while (start < length) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                result.add(path.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return result;
+    }
+
+    private static boolean isLiteral(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == '*' || c == '?' || c == '{') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
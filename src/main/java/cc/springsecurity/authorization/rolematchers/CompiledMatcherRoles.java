@@ -0,0 +1,223 @@
+package cc.springsecurity.authorization.rolematchers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * The entries of a {@link MatcherRolesContainer} compiled for lookup. Gives the same answer as trying each entry's matcher in order and
+ * taking the first that matches, without trying them all:
+ * <ul>
+ * <li>ant paths go in an {@link AntSegmentTrie}, one walk down the request path finds the few that may match and only those are
+ * tried</li>
+ * <li>regex patterns are joined into one alternation, tried once; the alternation takes the first alternative matching the whole url,
+ * which is the first matching pattern</li>
+ * <li>any other {@link org.springframework.security.web.util.matcher.RequestMatcher}, and regex patterns with back references or named
+ * groups which cannot be joined, are tried one by one, but only those before the best match found so far</li>
+ * </ul>
+ *
+ * @author Chris Carcel
+ *
+ */
+public final class CompiledMatcherRoles {
+
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+
+    /**
+     * Patterns that cannot be joined in an alternation without changing their meaning.
+     */
+    private static final Pattern NOT_JOINABLE = Pattern.compile("\\\\[1-9]|\\\\k<|\\(\\?<[a-zA-Z]");
+
+    private final MatcherRoles[] entries;
+
+    private final AntSegmentTrie antTrie = new AntSegmentTrie();
+
+    /**
+     * Ids of the entries tried one by one, ascending.
+     */
+    private final int[] others;
+
+    private final Pattern regex;
+
+    /**
+     * For each alternative of {@link #regex}: its group number and its entry id.
+     */
+    private final int[] regexGroups;
+
+    private final int[] regexIds;
+
+    /**
+     * True when every entry is an ant path or regex pattern, so the match only depends on the url.
+     */
+    private final boolean urlOnly;
+
+    /**
+     * True when some entry is a regex pattern, which also sees the query string.
+     */
+    private final boolean usesQuery;
+
+    /**
+     * Compile the entries in their current order.
+     *
+     * @param container
+     */
+    public CompiledMatcherRoles(MatcherRolesContainer container) {
+        List<MatcherRoles> list = container.getRoles();
+        this.entries = list.toArray(new MatcherRoles[list.size()]);
+
+        List<Integer> otherIds = new ArrayList<>();
+        List<Integer> regexIdList = new ArrayList<>();
+        List<String> regexPatterns = new ArrayList<>();
+        boolean onlyUrl = true;
+        boolean query = false;
+        for (int id = 0; id < entries.length; id++) {
+            MatcherRoles entry = entries[id];
+            onlyUrl &= entry instanceof AntMatcherRole || entry instanceof RegexMatcherRole;
+            query |= entry instanceof RegexMatcherRole;
+            if (entry instanceof AntMatcherRole) {
+                antTrie.add(((AntMatcherRole) entry).pattern(), id);
+            } else if (entry instanceof RegexMatcherRole && !NOT_JOINABLE.matcher(((RegexMatcherRole) entry).pattern()).find()) {
+                regexIdList.add(id);
+                regexPatterns.add(((RegexMatcherRole) entry).pattern());
+            } else {
+                otherIds.add(id);
+            }
+        }
+
+        Pattern joined = null;
+        int[] groups = new int[regexPatterns.size()];
+        if (!regexPatterns.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            int group = 1;
+            try {
+                for (int i = 0; i < regexPatterns.size(); i++) {
+                    String p = regexPatterns.get(i);
+                    if (i > 0) {
+                        sb.append('|');
+                    }
+                    sb.append('(').append(p).append(')');
+                    groups[i] = group;
+                    group += 1 + Pattern.compile(p).matcher("").groupCount();
+                }
+                joined = Pattern.compile(sb.toString());
+            } catch (PatternSyntaxException e) {
+                // an odd pattern, try them one by one as before
+                joined = null;
+            }
+        }
+        if (null == joined) {
+            otherIds.addAll(regexIdList);
+            otherIds.sort(null);
+            regexIdList.clear();
+            groups = new int[0];
+        }
+
+        this.urlOnly = onlyUrl;
+        this.usesQuery = query;
+        this.regex = joined;
+        this.regexGroups = groups;
+        this.regexIds = regexIdList.stream().mapToInt(Integer::intValue).toArray();
+        this.others = otherIds.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * The first entry matching the request.
+     *
+     * @param request
+     * @return the entry or null if none matches
+     */
+    public MatcherRoles match(HttpServletRequest request) {
+        int best = NO_MATCH;
+
+        if (antTrie.size() > 0) {
+            for (int id : antTrie.candidates(path(request))) {
+                if (entries[id].matcher().matches(request)) {
+                    best = id;
+                    break;
+                }
+            }
+        }
+
+        if (null != regex && regexIds[0] < best) {
+            Matcher m = regex.matcher(url(request));
+            if (m.matches()) {
+                for (int i = 0; i < regexGroups.length; i++) {
+                    if (m.start(regexGroups[i]) >= 0) {
+                        best = Math.min(best, regexIds[i]);
+                        break;
+                    }
+                }
+            }
+        }
+
+        for (int id : others) {
+            if (id >= best) {
+                break;
+            }
+            if (entries[id].matcher().matches(request)) {
+                best = id;
+                break;
+            }
+        }
+
+        return best == NO_MATCH ? null : entries[best];
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * The part of the request {@link #match(HttpServletRequest)} depends on: the path, plus the query string when there are regex
+     * patterns.
+     *
+     * @param request
+     * @return the key, null when an entry may look at anything else in the request
+     */
+    String urlKey(HttpServletRequest request) {
+        if (!urlOnly) {
+            return null;
+        }
+        return usesQuery ? url(request) : path(request);
+    }
+
+    /**
+     * The path as {@link org.springframework.security.web.util.matcher.AntPathRequestMatcher} sees it.
+     */
+    static String path(HttpServletRequest request) {
+        String url = request.getServletPath();
+        String pathInfo = request.getPathInfo();
+        if (null != pathInfo) {
+            url = null == url || url.isEmpty() ? pathInfo : url + pathInfo;
+        }
+        return null == url ? "" : url;
+    }
+
+    /**
+     * The url as {@link org.springframework.security.web.util.matcher.RegexRequestMatcher} sees it.
+     */
+    private static String url(HttpServletRequest request) {
+        String url = request.getServletPath();
+        String pathInfo = request.getPathInfo();
+        String query = request.getQueryString();
+        if (null != pathInfo || null != query) {
+            StringBuilder sb = new StringBuilder(url);
+            if (null != pathInfo) {
+                sb.append(pathInfo);
+            }
+            if (null != query) {
+                sb.append('?').append(query);
+            }
+            url = sb.toString();
+        }
+        return url;
+    }
+
+}
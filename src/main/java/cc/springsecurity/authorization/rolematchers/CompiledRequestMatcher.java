@@ -0,0 +1,157 @@
+package cc.springsecurity.authorization.rolematchers;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.security.web.util.matcher.RequestMatcher;
+
+/**
+ * The matchers of a {@link RequestMatcherContainer} as one {@link RequestMatcher}, matching when any of them matches, without trying
+ * them all:
+ * <ul>
+ * <li>ant patterns of the form <code>/css/**</code> go in a table of prefixes; the request path is looked up once for each of its
+ * <code>/</code> boundaries, so a static asset is recognized in a few hash lookups</li>
+ * <li>ant patterns without wildcards go in a table of exact paths</li>
+ * <li>other ant patterns go in an {@link AntSegmentTrie} and only the candidates it finds are tried</li>
+ * <li>any other {@link RequestMatcher} is tried one by one</li>
+ * </ul>
+ *
+ * @author Chris Carcel
+ *
+ */
+public final class CompiledRequestMatcher implements RequestMatcher {
+
+    private static final String MATCH_ALL = "/**";
+
+    private static final String SUBPATH_SUFFIX = "/**";
+
+    private final boolean matchAll;
+
+    /**
+     * The <code>/css</code> of <code>/css/**</code>.
+     */
+    private final Set<String> prefixes = new HashSet<>();
+
+    private final Set<String> exactPaths = new HashSet<>();
+
+    /**
+     * Matchers of {@link #exactPaths}, only tried for paths with empty segments, which AntPathMatcher ignores.
+     */
+    private final RequestMatcher[] exactMatchers;
+
+    private final AntSegmentTrie antTrie = new AntSegmentTrie();
+
+    private final RequestMatcher[] antMatchers;
+
+    private final RequestMatcher[] others;
+
+    /**
+     * Compile the matchers.
+     *
+     * @param matchers
+     *            all the matchers
+     * @param antPatterns
+     *            for those matchers created from an ant pattern only, the pattern
+     */
+    CompiledRequestMatcher(List<RequestMatcher> matchers, Map<RequestMatcher, String> antPatterns) {
+        boolean all = false;
+        List<RequestMatcher> exact = new ArrayList<>();
+        List<RequestMatcher> ant = new ArrayList<>();
+        List<RequestMatcher> other = new ArrayList<>();
+        for (RequestMatcher matcher : matchers) {
+            String pattern = antPatterns.get(matcher);
+            if (null == pattern) {
+                other.add(matcher);
+            } else if (MATCH_ALL.equals(pattern) || "**".equals(pattern)) {
+                all = true;
+            } else if (isPrefix(pattern)) {
+                prefixes.add(pattern.substring(0, pattern.length() - SUBPATH_SUFFIX.length()));
+            } else if (isExact(pattern)) {
+                exactPaths.add(pattern);
+                exact.add(matcher);
+            } else {
+                antTrie.add(pattern, ant.size());
+                ant.add(matcher);
+            }
+        }
+        this.matchAll = all;
+        this.exactMatchers = exact.toArray(new RequestMatcher[exact.size()]);
+        this.antMatchers = ant.toArray(new RequestMatcher[ant.size()]);
+        this.others = other.toArray(new RequestMatcher[other.size()]);
+    }
+
+    @Override
+    public boolean matches(HttpServletRequest request) {
+        if (matchAll) {
+            return true;
+        }
+        String path = CompiledMatcherRoles.path(request);
+
+        if (!prefixes.isEmpty()) {
+            for (int i = path.indexOf('/', 1); i > 0; i = path.indexOf('/', i + 1)) {
+                if (prefixes.contains(path.substring(0, i))) {
+                    return true;
+                }
+            }
+            if (prefixes.contains(path)) {
+                return true;
+            }
+        }
+
+        if (exactPaths.contains(path)) {
+            return true;
+        }
+        if (exactMatchers.length > 0 && path.contains("//")) {
+            for (RequestMatcher matcher : exactMatchers) {
+                if (matcher.matches(request)) {
+                    return true;
+                }
+            }
+        }
+
+        if (antTrie.size() > 0) {
+            for (int id : antTrie.candidates(path)) {
+                if (antMatchers[id].matches(request)) {
+                    return true;
+                }
+            }
+        }
+
+        for (RequestMatcher matcher : others) {
+            if (matcher.matches(request)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A pattern AntPathRequestMatcher matches by prefix: ends in <code>/**</code> and has no other wildcard or uri variable.
+     */
+    private static boolean isPrefix(String pattern) {
+        if (!pattern.endsWith(SUBPATH_SUFFIX) || pattern.length() == SUBPATH_SUFFIX.length()) {
+            return false;
+        }
+        String prefix = pattern.substring(0, pattern.length() - SUBPATH_SUFFIX.length());
+        return isExact(prefix) && !prefix.endsWith("/");
+    }
+
+    /**
+     * A pattern without wildcards or empty segments, which only the same path or that path with empty segments matches.
+     */
+    private static boolean isExact(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?' || c == '{' || c == '}') {
+                return false;
+            }
+        }
+        return pattern.startsWith("/") && !pattern.contains("//");
+    }
+
+}
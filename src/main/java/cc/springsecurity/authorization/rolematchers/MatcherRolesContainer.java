@@ -16,6 +16,11 @@ public class MatcherRolesContainer {
 
     private List<MatcherRoles> list;
 
+    /**
+     * Built by {@link #compile()}, dropped when an entry is added.
+     */
+    private volatile CompiledMatcherRoles compiled;
+
     public MatcherRolesContainer() {
         this.list = new ArrayList<>();
     }
@@ -31,6 +36,7 @@ public class MatcherRolesContainer {
      */
     public MatcherRolesContainer antPath(String antPattern, String... roles) {
         list.add(new AntMatcherRole(antPattern, roles));
+        compiled = null;
         return this;
     }
 
@@ -46,6 +52,7 @@ public class MatcherRolesContainer {
      */
     public MatcherRolesContainer regexPatterns(String s, String... roles) {
         list.add(new RegexMatcherRole(s, roles));
+        compiled = null;
         return this;
     }
 
@@ -60,9 +67,24 @@ public class MatcherRolesContainer {
      */
     public MatcherRolesContainer requestMatchers(RequestMatcher rm, String... roles) {
         list.add(new RequestMatcherRole(rm, roles));
+        compiled = null;
         return this;
     }
 
+    /**
+     * The entries compiled for lookup, built on the first call after a change.
+     * 
+     * @return the compiled entries
+     * @see MatcherRolesVoter
+     */
+    public CompiledMatcherRoles compile() {
+        CompiledMatcherRoles result = compiled;
+        if (null == result) {
+            result = compiled = new CompiledMatcherRoles(this);
+        }
+        return result;
+    }
+
     public List<MatcherRoles> getRoles() {
         return Collections.unmodifiableList(list);
     }
@@ -0,0 +1,255 @@
+package cc.springsecurity.authorization.rolematchers;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.security.access.AccessDecisionVoter;
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.web.FilterInvocation;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import cc.springsecurity.config.SymbolTable;
+
+/**
+ * Decides url access from a {@link MatcherRolesContainer} in one lookup, see {@link CompiledMatcherRoles}. For the requests the container
+ * matches it gives the answer the equivalent Spring configuration gives:
+ *
+ * <pre>
+ * http.authorizeRequests().requestMatchers(m1).hasAnyRole(r1).requestMatchers(m2).hasAnyRole(r2)...
+ * </pre>
+ *
+ * that is, the first entry matching the request decides and the request needs one of its roles. It abstains on a request matching no
+ * entry and ignores the configuration attributes, so it goes next to a
+ * {@link org.springframework.security.web.access.expression.WebExpressionVoter} in a
+ * {@link org.springframework.security.access.vote.UnanimousBased} manager: the expression rules, <code>authenticated()</code> at least,
+ * decide the other requests and still apply to the matched ones.
+ *
+ * <p>
+ * With {@link #setDecisionCacheSize(long)} the decisions are cached by url, http method and role set, so a url seen before by a user
+ * with the same roles is decided without trying any matcher. Only containers of ant paths and regex patterns are cached, a generic
+ * {@link org.springframework.security.web.util.matcher.RequestMatcher} may look at anything in the request. The cache is dropped when
+ * the container changes.
+ * </p>
+ *
+ * @author Chris Carcel
+ *
+ */
+public class MatcherRolesVoter implements AccessDecisionVoter<Object> {
+
+    private static final String ROLE_PREFIX = "ROLE_";
+
+    /**
+     * Distinct role sets given an id, beyond that decisions are not cached.
+     */
+    static final int MAX_ROLE_SETS = 1024;
+
+    private final MatcherRolesContainer container;
+
+    /**
+     * The id of each role set, a set of {@link SymbolTable#ROLES} ids.
+     */
+    private final Map<BitSet, Integer> roleSetIds = new ConcurrentHashMap<>();
+
+    private volatile long decisionCacheSize;
+
+    private volatile Decisions decisions;
+
+    /**
+     * Url, http method and role set id, which together decide.
+     */
+    private static final class DecisionKey {
+
+        private final String url;
+        private final String method;
+        private final int roleSetId;
+        private final int hash;
+
+        private DecisionKey(String url, String method, int roleSetId) {
+            this.url = url;
+            this.method = method;
+            this.roleSetId = roleSetId;
+            int h = url.hashCode();
+            h = 31 * h + (null == method ? 0 : method.hashCode());
+            this.hash = 31 * h + roleSetId;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof DecisionKey)) {
+                return false;
+            }
+            DecisionKey other = (DecisionKey) obj;
+            return hash == other.hash && roleSetId == other.roleSetId && url.equals(other.url)
+                    && (null == method ? null == other.method : method.equals(other.method));
+        }
+    }
+
+    /**
+     * The cached decisions of one compiled container.
+     */
+    private static final class Decisions {
+
+        private final CompiledMatcherRoles compiled;
+        private final Cache<DecisionKey, Integer> cache;
+
+        private Decisions(CompiledMatcherRoles compiled, long maximumSize) {
+            this.compiled = compiled;
+            this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+        }
+    }
+
+    /**
+     * Setup.
+     *
+     * @param container
+     *            compiled on first use and again after it changes
+     */
+    public MatcherRolesVoter(MatcherRolesContainer container) {
+        Validate.notNull(container, "container cannot be null");
+        this.container = container;
+    }
+
+    /**
+     * Set the maximum number of cached decisions, least recently used are evicted first. Zero, the default, disables the cache.
+     *
+     * @param maximumSize
+     * @return this object
+     */
+    public MatcherRolesVoter setDecisionCacheSize(long maximumSize) {
+        Validate.isTrue(maximumSize >= 0L, "maximumSize cannot be negative");
+        this.decisionCacheSize = maximumSize;
+        this.decisions = null;
+        return this;
+    }
+
+    @Override
+    public boolean supports(ConfigAttribute attribute) {
+        return true;
+    }
+
+    @Override
+    public boolean supports(Class<?> clazz) {
+        return FilterInvocation.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public int vote(Authentication authentication, Object object, Collection<ConfigAttribute> attributes) {
+        return vote(authentication, ((FilterInvocation) object).getHttpRequest());
+    }
+
+    /**
+     * Decide, from the cache when enabled and possible.
+     *
+     * @param authentication
+     * @param request
+     * @return {@link #ACCESS_GRANTED} , {@link #ACCESS_DENIED} or {@link #ACCESS_ABSTAIN} when no entry matches
+     */
+    int vote(Authentication authentication, HttpServletRequest request) {
+        CompiledMatcherRoles compiled = container.compile();
+        DecisionKey key = decisionCacheSize > 0L && null != authentication ? key(compiled, authentication, request) : null;
+        if (null == key) {
+            return decide(authentication, compiled.match(request));
+        }
+
+        Decisions d = decisions;
+        if (null == d || d.compiled != compiled) {
+            // the container changed, what was cached was decided by other entries
+            d = decisions = new Decisions(compiled, decisionCacheSize);
+        }
+        Integer vote = d.cache.getIfPresent(key);
+        if (null == vote) {
+            vote = decide(authentication, compiled.match(request));
+            d.cache.put(key, vote);
+        }
+        return vote;
+    }
+
+    /**
+     * @return the key, null when the decision cannot be cached
+     */
+    private DecisionKey key(CompiledMatcherRoles compiled, Authentication authentication, HttpServletRequest request) {
+        String url = compiled.urlKey(request);
+        if (null == url) {
+            return null;
+        }
+        int roleSetId = roleSetId(authentication.getAuthorities());
+        if (roleSetId < 0) {
+            return null;
+        }
+        return new DecisionKey(url, request.getMethod(), roleSetId);
+    }
+
+    /**
+     * The interned id of the roles of the authorities.
+     *
+     * @return the id, -1 when there are too many role sets already
+     */
+    private int roleSetId(Collection<? extends GrantedAuthority> authorities) {
+        BitSet roles = new BitSet();
+        if (null != authorities) {
+            for (GrantedAuthority authority : authorities) {
+                String name = authority.getAuthority();
+                if (null != name && name.startsWith(ROLE_PREFIX)) {
+                    roles.set(SymbolTable.ROLES.id(name.substring(ROLE_PREFIX.length())));
+                }
+            }
+        }
+        Integer id = roleSetIds.get(roles);
+        if (null == id) {
+            if (roleSetIds.size() >= MAX_ROLE_SETS) {
+                return -1;
+            }
+            synchronized (roleSetIds) {
+                id = roleSetIds.computeIfAbsent(roles, k -> roleSetIds.size());
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @param authentication
+     * @param entry
+     *            the first matching entry, null if none matched
+     * @return {@link #ACCESS_GRANTED} , {@link #ACCESS_DENIED} or {@link #ACCESS_ABSTAIN} when no entry matched
+     */
+    int decide(Authentication authentication, MatcherRoles entry) {
+        if (null == entry) {
+            return ACCESS_ABSTAIN;
+        }
+        if (null == authentication) {
+            return ACCESS_DENIED;
+        }
+        Collection<? extends GrantedAuthority> authorities = authentication.getAuthorities();
+        if (null != authorities) {
+            for (GrantedAuthority authority : authorities) {
+                String name = authority.getAuthority();
+                if (null != name && name.startsWith(ROLE_PREFIX)) {
+                    for (String role : entry.roles()) {
+                        if (name.length() == ROLE_PREFIX.length() + role.length() && name.endsWith(role)) {
+                            return ACCESS_GRANTED;
+                        }
+                    }
+                }
+            }
+        }
+        return ACCESS_DENIED;
+    }
+
+}
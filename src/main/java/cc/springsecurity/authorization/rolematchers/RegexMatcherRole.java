@@ -15,10 +15,13 @@ public class RegexMatcherRole implements MatcherRoles {
 
     private RequestMatcher regexMatcher;
 
+    private String pattern;
+
     private String[] roles;
 
     RegexMatcherRole(String path, String... roles) {
         this.regexMatcher = new RegexRequestMatcher(path, null);
+        this.pattern = path;
         this.roles = roles;
     }
 
@@ -32,4 +35,8 @@ public class RegexMatcherRole implements MatcherRoles {
         return roles;
     }
 
+    String pattern() {
+        return pattern;
+    }
+
 }
@@ -2,7 +2,9 @@ package cc.springsecurity.authorization.rolematchers;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 import org.springframework.security.web.util.matcher.RegexRequestMatcher;
@@ -18,6 +20,16 @@ public class RequestMatcherContainer {
 
     private List<RequestMatcher> list;
 
+    /**
+     * The pattern of each matcher added by {@link #antPatterns(String...)}.
+     */
+    private final Map<RequestMatcher, String> antPatterns = new IdentityHashMap<>();
+
+    /**
+     * Built by {@link #compile()}, dropped when a matcher is added.
+     */
+    private volatile CompiledRequestMatcher compiled;
+
     public RequestMatcherContainer() {
         this.list = new ArrayList<RequestMatcher>();
     }
@@ -34,6 +46,7 @@ public class RequestMatcherContainer {
         for (RequestMatcher matcher : matchers) {
             this.list.add(matcher);
         }
+        compiled = null;
         return this;
     }
 
@@ -49,8 +62,11 @@ public class RequestMatcherContainer {
      */
     public RequestMatcherContainer antPatterns(String... patterns) {
         for (String s : patterns) {
-            list.add(new AntPathRequestMatcher(s));
+            AntPathRequestMatcher matcher = new AntPathRequestMatcher(s);
+            list.add(matcher);
+            antPatterns.put(matcher, s);
         }
+        compiled = null;
         return this;
     }
 
@@ -66,9 +82,24 @@ public class RequestMatcherContainer {
         for (String s : patterns) {
             list.add(new RegexRequestMatcher(s, null));
         }
+        compiled = null;
         return this;
     }
 
+    /**
+     * All the matchers as one, matching when any of them matches, built on the first call after a change.
+     * 
+     * @return the compiled matchers
+     * @see CompiledRequestMatcher
+     */
+    public CompiledRequestMatcher compile() {
+        CompiledRequestMatcher result = compiled;
+        if (null == result) {
+            result = compiled = new CompiledRequestMatcher(list, antPatterns);
+        }
+        return result;
+    }
+
     public List<RequestMatcher> getList() {
         return Collections.unmodifiableList(list);
     }
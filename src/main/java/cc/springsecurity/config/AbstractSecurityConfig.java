@@ -1,6 +1,8 @@
 package cc.springsecurity.config;
 
 import java.net.HttpCookie;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -10,6 +12,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.support.MessageSourceAccessor;
+import org.springframework.security.access.vote.UnanimousBased;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -20,14 +23,21 @@ import org.springframework.security.config.annotation.web.configurers.FormLoginC
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.SpringSecurityMessageSource;
+import org.springframework.security.web.access.expression.WebExpressionVoter;
 import org.springframework.security.web.authentication.preauth.AbstractPreAuthenticatedProcessingFilter;
 import org.springframework.security.web.context.request.async.WebAsyncManagerIntegrationFilter;
+import org.springframework.security.web.csrf.CsrfFilter;
+import org.springframework.security.web.header.HeaderWriterFilter;
 import org.springframework.security.web.session.SessionManagementFilter;
 import org.springframework.security.web.util.matcher.AndRequestMatcher;
+import org.springframework.security.web.util.matcher.OrRequestMatcher;
 import org.springframework.security.web.util.matcher.RegexRequestMatcher;
 import org.springframework.security.web.util.matcher.RequestMatcher;
 
 import cc.springsecurity.authentication.AbstractCcUserDetailsAuthenticationProvider;
+import cc.springsecurity.authentication.hash.PasswordHashingExecutor;
+import cc.springsecurity.authentication.sso.AsyncSsoStorage;
+import cc.springsecurity.authentication.sso.SsoAsyncLookupFilter;
 import cc.springsecurity.authentication.sso.SsoAuthenticatedFilter;
 import cc.springsecurity.authentication.sso.SsoAuthenticationSuccessHandler;
 import cc.springsecurity.authentication.sso.SsoCookieInformation;
@@ -37,6 +47,7 @@ import cc.springsecurity.authentication.sso.SsoStorage;
 import cc.springsecurity.authorization.RolesFinder;
 import cc.springsecurity.authorization.rolematchers.MatcherRoles;
 import cc.springsecurity.authorization.rolematchers.MatcherRolesContainer;
+import cc.springsecurity.authorization.rolematchers.MatcherRolesVoter;
 import cc.springsecurity.authorization.rolematchers.RequestMatcherContainer;
 import cc.springsecurity.filters.RequestInfo;
 
@@ -62,22 +73,29 @@ public abstract class AbstractSecurityConfig extends WebSecurityConfigurerAdapte
     private SsoAuthenticatedFilter ssoAuthenticatedFilter;
 
     /**
-     * Configure URLs to ignore for authentication.
+     * Configure URLs to ignore for authentication. They are compiled into a single matcher, so Spring builds one ignored filter chain and
+     * a static asset is recognized in a few lookups instead of one chain per url.
      * 
      * @see #ignoringUrls()
-     * @see RequestMatcherContainer
+     * @see RequestMatcherContainer#compile()
      */
     @Override
     public void configure(WebSecurity web) throws Exception {
+        List<RequestMatcher> matchers = new ArrayList<>(2);
         RequestMatcherContainer container = ignoringUrls();
-        if (null != container) {
-            List<RequestMatcher> list = container.getList();
-            web.ignoring().requestMatchers(list.toArray(new RequestMatcher[list.size()]));
+        if (null != container && !container.getList().isEmpty()) {
+            matchers.add(container.compile());
         }
 
         String loginPage = formLoginPage();
         if (null != loginPage) {
-            web.ignoring().requestMatchers(new RegexRequestMatcher("^" + loginPage + ".*", null));
+            matchers.add(new RegexRequestMatcher("^" + loginPage + ".*", null));
+        }
+
+        if (matchers.size() == 1) {
+            web.ignoring().requestMatchers(matchers.get(0));
+        } else if (matchers.size() > 1) {
+            web.ignoring().requestMatchers(new OrRequestMatcher(matchers));
         }
     }
 
@@ -91,6 +109,9 @@ public abstract class AbstractSecurityConfig extends WebSecurityConfigurerAdapte
         // local
         requestInformationFilter(http);
 
+        // look the sso user up without holding the container thread, if an async storage is configured
+        asyncSsoLookupFilter(http);
+
         // possibly disable csrf
         if (disableCsrf()) {
             http.csrf().disable();
@@ -132,6 +153,20 @@ public abstract class AbstractSecurityConfig extends WebSecurityConfigurerAdapte
         http.addFilterBefore(new RequestInfo(), WebAsyncManagerIntegrationFilter.class);
     }
 
+    /**
+     * Adds a {@link SsoAsyncLookupFilter} when {@link #asyncSsoStorage()} is not null, so the sso storage is queried without blocking a
+     * container thread. The filter goes after the {@link CsrfFilter} and the {@link HeaderWriterFilter} : those skip the async dispatch,
+     * so they have to run on the first pass, before the request goes async.
+     * 
+     * @param http
+     */
+    protected void asyncSsoLookupFilter(HttpSecurity http) {
+        AsyncSsoStorage asyncSsoStorage = asyncSsoStorage();
+        if (null != asyncSsoStorage) {
+            http.addFilterAfter(new SsoAsyncLookupFilter(asyncSsoStorage, cookieInformation()), CsrfFilter.class);
+        }
+    }
+
     /**
      * Sets up the filter which runs on each request to make sure we are (still) logged in.
      * 
@@ -186,6 +221,17 @@ public abstract class AbstractSecurityConfig extends WebSecurityConfigurerAdapte
      */
     public abstract SsoStorage ssoStorage();
 
+    /**
+     * The non-blocking view of the sso storage used by {@link SsoAsyncLookupFilter}. Null by default, which disables the async lookup.
+     * Override to return, for example, {@link #ssoStorage()} when it implements {@link AsyncSsoStorage} or an
+     * {@link cc.springsecurity.authentication.sso.ExecutorAsyncSsoStorage} around a blocking storage.
+     * 
+     * @return the async storage or null
+     */
+    public AsyncSsoStorage asyncSsoStorage() {
+        return null;
+    }
+
     /**
      * Return the {@link MatcherRolesContainer} . This is a collection of urls and the roles that have access to those urls. All urls
      * require a login by default, except those found in {@link #ignoringUrls()} . Sample code: <br>
@@ -204,6 +250,13 @@ public abstract class AbstractSecurityConfig extends WebSecurityConfigurerAdapte
      * <br>
      * <code>http.authorizeRequests().antMatchers("/admin/**").hasRole("admin").anyRequest().authenticated();</code>
      * 
+     * <br>
+     * <br>
+     * When {@link #compileRolesContainer()} is true, the default, the container is decided by a single {@link MatcherRolesVoter} instead
+     * of one entry per matcher, with the same first match semantics. The voter abstains on the requests the container does not match and
+     * shares a {@link UnanimousBased} manager with the {@link WebExpressionVoter} , so <code>anyRequest().authenticated()</code> and any
+     * rule a subclass adds to the registry keep applying.
+     * 
      * @param http
      * @throws Exception
      */
@@ -212,9 +265,14 @@ public abstract class AbstractSecurityConfig extends WebSecurityConfigurerAdapte
         ExpressionUrlAuthorizationConfigurer<HttpSecurity>.ExpressionInterceptUrlRegistry reg = http.authorizeRequests();
 
         MatcherRolesContainer container = rolesContainer();
-        if (null != container && null != container.getRoles()) {
-            for (MatcherRoles mr : container.getRoles()) {
-                reg = reg.requestMatchers(mr.matcher()).hasAnyRole(mr.roles());
+        if (null != container && null != container.getRoles() && !container.getRoles().isEmpty()) {
+            if (compileRolesContainer()) {
+                MatcherRolesVoter voter = new MatcherRolesVoter(container).setDecisionCacheSize(authorizationDecisionCacheSize());
+                reg.accessDecisionManager(new UnanimousBased(Arrays.asList(voter, new WebExpressionVoter())));
+            } else {
+                for (MatcherRoles mr : container.getRoles()) {
+                    reg = reg.requestMatchers(mr.matcher()).hasAnyRole(mr.roles());
+                }
             }
         }
 
@@ -222,6 +280,25 @@ public abstract class AbstractSecurityConfig extends WebSecurityConfigurerAdapte
 
     }
 
+    /**
+     * Whether {@link #authorizeRequests(HttpSecurity)} decides {@link #rolesContainer()} with a {@link MatcherRolesVoter} .
+     * 
+     * @return true by default, false registers each matcher with spring as before
+     */
+    protected boolean compileRolesContainer() {
+        return true;
+    }
+
+    /**
+     * Maximum number of url authorization decisions the {@link MatcherRolesVoter} caches, see
+     * {@link MatcherRolesVoter#setDecisionCacheSize(long)} .
+     * 
+     * @return 0 by default, no cache
+     */
+    protected long authorizationDecisionCacheSize() {
+        return 0L;
+    }
+
     /**
      * By default, returns true to disable csrf.
      * 
@@ -339,13 +416,25 @@ public abstract class AbstractSecurityConfig extends WebSecurityConfigurerAdapte
      */
     protected void authentication(HttpSecurity http) {
 
+        PasswordHashingExecutor executor = passwordHashingExecutor();
         for (AbstractCcUserDetailsAuthenticationProvider provider : authenticationProviders()) {
             provider.setRolesFinder(rolesFinder());
+            provider.setPasswordHashingExecutor(executor);
             http.authenticationProvider(provider);
         }
 
     }
 
+    /**
+     * The pool the authentication providers validate users on, see {@link PasswordHashingExecutor} . By default one thread per cpu.
+     * 
+     * @return the executor, or null to validate on the servlet thread
+     */
+    @Bean(destroyMethod = "close")
+    public PasswordHashingExecutor passwordHashingExecutor() {
+        return new PasswordHashingExecutor();
+    }
+
     /**
      * Return a non-null list of {@link AbstractCcUserDetailsAuthenticationProvider}s.
      * 
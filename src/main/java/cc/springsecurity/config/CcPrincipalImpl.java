@@ -1,10 +1,11 @@
 package cc.springsecurity.config;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.security.Principal;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Collections;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
@@ -49,12 +50,38 @@ public class CcPrincipalImpl implements Principal, CcPrincipal, UserDetails {
     private String email;
 
     /**
-     * The list of group names someone is a member of.
+     * The list of group names someone is a member of, the canonical instances from {@link SymbolTable#GROUPS}.
      */
     private String[] groups;
 
     /**
-     * Sorts the specified array and then updates the {@link #groups} field.
+     * Built on the first {@link #getAuthorities()} from the shared group authorities.
+     */
+    private transient volatile Collection<SimpleGrantedAuthority> authorities;
+
+    public CcPrincipalImpl() {
+    }
+
+    /**
+     * Copy a template. The groups are already sorted and canonical, so only the array is copied and the authorities are shared.
+     * 
+     * @param template
+     *            the principal to copy
+     */
+    public CcPrincipalImpl(CcPrincipalImpl template) {
+        this.userName = template.userName;
+        this.userId = template.userId;
+        this.lastName = template.lastName;
+        this.middleInitial = template.middleInitial;
+        this.firstName = template.firstName;
+        this.email = template.email;
+        this.groups = null == template.groups ? null : template.groups.clone();
+        this.authorities = template.authorities;
+    }
+
+    /**
+     * Sorts the specified array, replaces its elements by their canonical instances from {@link SymbolTable#GROUPS} and then updates the
+     * {@link #groups} field.
      * 
      * <p>
      * It is assumed that this array will not be (externally) modified in a way that would cause it to become unsorted.
@@ -67,10 +94,28 @@ public class CcPrincipalImpl implements Principal, CcPrincipal, UserDetails {
      */
     public CcPrincipalImpl setGroups(String[] groups) {
         Arrays.sort(groups);
+        intern(groups);
         this.groups = groups;
+        this.authorities = null;
         return this;
     }
 
+    private static void intern(String[] groups) {
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = SymbolTable.GROUPS.intern(groups[i]);
+        }
+    }
+
+    /**
+     * Share the group names of deserialized principals too.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (null != groups) {
+            intern(groups);
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -224,16 +269,23 @@ public class CcPrincipalImpl implements Principal, CcPrincipal, UserDetails {
         return tsb.toString();
     }
 
+    /**
+     * The GROUP_ authorities, shared instances in an unmodifiable collection built once.
+     */
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
-        Set<SimpleGrantedAuthority> result;
-        if (null != this.groups) {
-            result = new HashSet<SimpleGrantedAuthority>(groups.length);
-            for (String group : groups) {
-                result.add(new SimpleGrantedAuthority("GROUP_" + group));
+        Collection<SimpleGrantedAuthority> result = authorities;
+        String[] g = this.groups;
+        if (null == result && null != g) {
+            // sorted, so duplicates are adjacent
+            SimpleGrantedAuthority[] a = new SimpleGrantedAuthority[g.length];
+            int n = 0;
+            for (int i = 0; i < g.length; i++) {
+                if (i == 0 || !g[i].equals(g[i - 1])) {
+                    a[n++] = SymbolTable.GROUPS.authority(g[i]);
+                }
             }
-        } else {
-            result = null;
+            result = authorities = Collections.unmodifiableList(Arrays.asList(n == a.length ? a : Arrays.copyOf(a, n)));
         }
         return result;
     }
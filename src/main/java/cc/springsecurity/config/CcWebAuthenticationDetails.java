@@ -1,12 +1,15 @@
 package cc.springsecurity.config;
 
+import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.security.web.authentication.WebAuthenticationDetails;
 
 /**
  * Created by {@link CcWebAuthenticationDetailsSource} , this class extends {@link WebAuthenticationDetails} to provide access to the
- * entire request. Used on login, this way we can determine which host we are under.
+ * entire request. Used on login, this way we can determine which host we are under. The servlet context is read when the details are
+ * built, on the request thread, so it can be used once the container has recycled the request, for example by a
+ * {@link cc.springsecurity.authentication.hash.PasswordHashingExecutor} thread.
  * 
  * @see CcWebAuthenticationDetailsSource
  * @author Chris Carcel
@@ -17,13 +20,26 @@ public class CcWebAuthenticationDetails extends WebAuthenticationDetails {
 
     private HttpServletRequest request;
 
+    private ServletContext servletContext;
+
     public CcWebAuthenticationDetails(HttpServletRequest request) {
         super(request);
         this.request = request;
+        this.servletContext = request.getServletContext();
     }
 
+    /**
+     * @return the request, only valid on the thread handling it
+     */
     public HttpServletRequest getRequest() {
         return request;
     }
 
+    /**
+     * @return the servlet context of the request, read when the details were built
+     */
+    public ServletContext getServletContext() {
+        return servletContext;
+    }
+
 }
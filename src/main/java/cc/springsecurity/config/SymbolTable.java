@@ -0,0 +1,135 @@
+package cc.springsecurity.config;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * Gives each distinct group or role name an int id, one canonical String instance and one shared {@link SimpleGrantedAuthority}, so the
+ * thousands of principals holding the same groups share them instead of each keeping copies. Names are never removed: meant for the
+ * bounded set of directory groups and configured roles, not for arbitrary user input.
+ *
+ * @author Chris Carcel
+ *
+ */
+public final class SymbolTable {
+
+    /**
+     * Group names, authorities prefixed by GROUP_ as in {@link CcPrincipalImpl#getAuthorities()}.
+     */
+    public static final SymbolTable GROUPS = new SymbolTable("GROUP_");
+
+    /**
+     * Role names, authorities prefixed by ROLE_ as in {@link cc.springsecurity.authorization.RolesFinder#convertToAuthority}.
+     */
+    public static final SymbolTable ROLES = new SymbolTable("ROLE_");
+
+    private final String prefix;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+    /**
+     * Indexed by id, replaced by a larger copy when full. An id is published through {@link #ids} after its slot is written.
+     */
+    private volatile Symbol[] symbols = new Symbol[256];
+
+    /**
+     * Guarded by this.
+     */
+    private int size;
+
+    /**
+     * A name and its authority.
+     */
+    private static final class Symbol {
+
+        private final String name;
+        private final SimpleGrantedAuthority authority;
+
+        private Symbol(String name, SimpleGrantedAuthority authority) {
+            this.name = name;
+            this.authority = authority;
+        }
+    }
+
+    /**
+     * Setup.
+     *
+     * @param prefix
+     *            prepended to the name to make the authority
+     */
+    public SymbolTable(String prefix) {
+        Validate.notNull(prefix, "prefix cannot be null");
+        this.prefix = prefix;
+    }
+
+    /**
+     * The id of the name, assigning the next one the first time.
+     *
+     * @param name
+     * @return the id, from 0
+     */
+    public int id(String name) {
+        Validate.notNull(name, "name cannot be null");
+        Integer id = ids.get(name);
+        if (null == id) {
+            synchronized (this) {
+                id = ids.get(name);
+                if (null == id) {
+                    Symbol[] s = symbols;
+                    if (size == s.length) {
+                        s = symbols = Arrays.copyOf(s, s.length * 2);
+                    }
+                    s[size] = new Symbol(name, new SimpleGrantedAuthority(prefix + name));
+                    id = size++;
+                    ids.put(name, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @param name
+     * @return the canonical instance equal to the name
+     */
+    public String intern(String name) {
+        return name(id(name));
+    }
+
+    /**
+     * @param id
+     *            from {@link #id(String)}
+     * @return the name
+     */
+    public String name(int id) {
+        return symbols[id].name;
+    }
+
+    /**
+     * @param id
+     *            from {@link #id(String)}
+     * @return the shared authority, the prefix plus the name
+     */
+    public SimpleGrantedAuthority authority(int id) {
+        return symbols[id].authority;
+    }
+
+    /**
+     * @param name
+     * @return the shared authority, the prefix plus the name
+     */
+    public SimpleGrantedAuthority authority(String name) {
+        return authority(id(name));
+    }
+
+    /**
+     * @return the number of names
+     */
+    public int size() {
+        return ids.size();
+    }
+
+}
@@ -31,6 +31,16 @@ public final class HostName {
         HOST_CONTEXT.set(new HostServletContext(request.getServerName(), request.getContextPath()));
     }
 
+    /**
+     * Sets the host context, to carry it to another thread.
+     * 
+     * @param hostServletContext
+     *            the context from {@link #getHostIfSet()}, null removes it
+     */
+    public static void setHost(HostServletContext hostServletContext) {
+        HOST_CONTEXT.set(hostServletContext);
+    }
+
     /**
      * Remove the current thread local host name.
      */
@@ -53,4 +63,13 @@ public final class HostName {
         return result;
     }
 
+    /**
+     * Gets the host name set in {@link #setHostName(HttpServletRequest)} if any.
+     * 
+     * @return {@link HostContext} or null if it has not been set
+     */
+    public static HostServletContext getHostIfSet() {
+        return HOST_CONTEXT.get();
+    }
+
 }
@@ -0,0 +1,14 @@
+-- Table used by cc.springsecurity.authentication.sso.JdbcSsoStorage .
+-- PRINCIPAL holds the PrincipalCodec encoded principal, use bytea on PostgreSQL.
+-- CREATED and LAST_ACCESS are epoch milliseconds, used to expire logins.
+create table SSO_LOGINS (
+    UNID varchar(64) not null,
+    PRINCIPAL blob not null,
+    CREATED bigint not null,
+    LAST_ACCESS bigint not null,
+    constraint SSO_LOGINS_PK primary key (UNID)
+);
+
+create index SSO_LOGINS_CREATED on SSO_LOGINS (CREATED);
+
+create index SSO_LOGINS_LAST_ACCESS on SSO_LOGINS (LAST_ACCESS);
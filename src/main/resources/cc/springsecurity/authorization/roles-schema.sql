@@ -0,0 +1,14 @@
+-- Table used by cc.springsecurity.authorization.JdbcRolesFinder .
+-- One row per host, context, role and group; a null HOST matches any host as in HostServletContext.
+-- UPDATED must increase on every insert or change, epoch milliseconds or a sequence. Remove a mapping by setting DELETED to 1 and a
+-- new UPDATED, so refreshing servers see the removal.
+create table ROLE_GROUPS (
+    HOST varchar(255),
+    CONTEXT varchar(255) not null,
+    ROLE_NAME varchar(255) not null,
+    GROUP_NAME varchar(255) not null,
+    DELETED smallint default 0 not null,
+    UPDATED bigint not null
+);
+
+create index ROLE_GROUPS_UPDATED on ROLE_GROUPS (UPDATED);
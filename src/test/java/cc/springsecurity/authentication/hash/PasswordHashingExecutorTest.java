@@ -0,0 +1,143 @@
+package cc.springsecurity.authentication.hash;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import cc.springsecurity.authentication.HostServletContext;
+import cc.springsecurity.config.utils.HostName;
+import junit.framework.Assert;
+
+/**
+ * Tests {@link PasswordHashingExecutor} runs tasks on its threads, refuses them when saturated and carries the host name.
+ *
+ * @author Chris Carcel
+ *
+ */
+public class PasswordHashingExecutorTest {
+
+    @Test
+    public void testHostNameAndResult() {
+        try (PasswordHashingExecutor executor = new PasswordHashingExecutor(1)) {
+            HostServletContext hsc = new HostServletContext("host", "/context");
+            HostName.setHost(hsc);
+            try {
+                Assert.assertSame(hsc, executor.execute(HostName::getHost));
+                Assert.assertTrue(executor.execute(() -> Thread.currentThread().getName()).startsWith("PasswordHashing-"));
+            } finally {
+                HostName.clearHostName();
+            }
+            Assert.assertNull(executor.execute(HostName::getHostIfSet));
+
+            try {
+                executor.execute(() -> {
+                    throw new IllegalStateException("boom");
+                });
+                Assert.fail();
+            } catch (IllegalStateException e) {
+                Assert.assertEquals("boom", e.getMessage());
+            }
+            Assert.assertEquals(4L, executor.getCompletedCount());
+            Assert.assertEquals(0L, executor.getRejectedCount());
+        }
+    }
+
+    @Test
+    public void testSaturated() throws Exception {
+        ExecutorService callers = Executors.newSingleThreadExecutor();
+        try (PasswordHashingExecutor executor = new PasswordHashingExecutor(1, 0)) {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Future<Boolean> first = callers.submit(() -> executor.execute(() -> {
+                started.countDown();
+                return release.await(10, TimeUnit.SECONDS);
+            }));
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            try {
+                executor.execute(() -> true);
+                Assert.fail();
+            } catch (PasswordHashingBusyException e) {
+                // expected, fast
+            }
+            Assert.assertEquals(1L, executor.getRejectedCount());
+
+            release.countDown();
+            Assert.assertTrue(first.get(10, TimeUnit.SECONDS));
+
+            // the permit is back before the result, even if the thread has not gone back to waiting for work yet
+            Assert.assertTrue(executor.execute(() -> true));
+            Assert.assertEquals(1L, executor.getRejectedCount());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    /**
+     * A task timing out while still queued gives its permit back. The timeout is the same for every caller and never changed, the first
+     * caller may time out too but its task keeps the thread and its permit until it finishes.
+     */
+    @Test
+    public void testQueuedTimeout() throws Exception {
+        ExecutorService callers = Executors.newSingleThreadExecutor();
+        try (PasswordHashingExecutor executor = new PasswordHashingExecutor(1, 1).setTimeoutMillis(100L)) {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Future<Boolean> first = callers.submit(() -> executor.execute(() -> {
+                started.countDown();
+                // like bcrypt, carries on when its caller times out and cancels it
+                while (true) {
+                    try {
+                        return release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        // keep the thread
+                    }
+                }
+            }));
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            // twice in a row: a queued task that kept its permit would get the second one refused, not timed out
+            for (int i = 0; i < 2; i++) {
+                try {
+                    executor.execute(() -> true);
+                    Assert.fail();
+                } catch (PasswordHashingBusyException e) {
+                    Assert.assertTrue(e.getCause() instanceof TimeoutException);
+                }
+            }
+            Assert.assertEquals(0L, executor.getRejectedCount());
+            Assert.assertTrue(executor.getTimedOutCount() >= 2L);
+
+            release.countDown();
+            try {
+                first.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof PasswordHashingBusyException);
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTimeout() {
+        try (PasswordHashingExecutor executor = new PasswordHashingExecutor(1).setTimeoutMillis(50)) {
+            try {
+                executor.execute(() -> {
+                    Thread.sleep(5000);
+                    return true;
+                });
+                Assert.fail();
+            } catch (PasswordHashingBusyException e) {
+                Assert.assertEquals(1L, executor.getTimedOutCount());
+            }
+        }
+    }
+
+}
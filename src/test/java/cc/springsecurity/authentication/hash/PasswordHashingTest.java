@@ -6,6 +6,8 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntToLongFunction;
 
 import junit.framework.Assert;
 
@@ -87,4 +89,45 @@ public class PasswordHashingTest {
         boolean result = ph.verifyPassword(passwordHash, storedPassword);
         Assert.assertTrue(result);
     }
+
+    @Test
+    public void costAndSeedStrategyTest() {
+        for (PasswordHashing.SeedStrategy strategy : PasswordHashing.SeedStrategy.values()) {
+            PasswordHashing ph = new PasswordHashing(PasswordHashing.MIN_COST, strategy);
+            String hash = ph.buildPasswordHash("This is my password");
+            Assert.assertTrue(hash.startsWith("$2a$04$"));
+            Assert.assertTrue(ph.verifyPassword(hash, "This is my password"));
+            Assert.assertFalse(ph.verifyPassword(hash, "This is not my password"));
+        }
+        Assert.assertEquals(PasswordHashing.DEFAULT_COST, new PasswordHashing().getCost());
+
+        // the cost of the stored hash applies
+        String cheap = new BCryptPasswordEncoder(5).encode("pw");
+        Assert.assertTrue(new PasswordHashing(PasswordHashing.MIN_COST, PasswordHashing.SeedStrategy.DEFAULT).verifyPassword(cheap, "pw"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badCostTest() {
+        new PasswordHashing(3, PasswordHashing.SeedStrategy.DEFAULT);
+    }
+
+    @Test
+    public void calibrateTest() {
+        // a host where cost 4 takes 1ms and each cost doubles it
+        IntToLongFunction doubling = cost -> TimeUnit.MILLISECONDS.toNanos(1L << (cost - PasswordHashing.MIN_COST));
+        Assert.assertEquals(PasswordHashing.MIN_COST, PasswordHashing.calibrate(1L, doubling));
+        Assert.assertEquals(8, PasswordHashing.calibrate(20L, doubling));
+        Assert.assertEquals(8, PasswordHashing.calibrate(16L, doubling));
+        Assert.assertEquals(11, PasswordHashing.calibrate(200L, doubling));
+
+        // even the lowest cost is too slow
+        Assert.assertEquals(PasswordHashing.MIN_COST, PasswordHashing.calibrate(1L, cost -> TimeUnit.SECONDS.toNanos(1L)));
+        // never too slow
+        Assert.assertEquals(PasswordHashing.MAX_COST, PasswordHashing.calibrate(1L, cost -> 0L));
+
+        // measured on this host, only the range is certain
+        int cost = PasswordHashing.calibrate(20L);
+        Assert.assertTrue(cost >= PasswordHashing.MIN_COST);
+        Assert.assertTrue(cost <= PasswordHashing.MAX_COST);
+    }
 }
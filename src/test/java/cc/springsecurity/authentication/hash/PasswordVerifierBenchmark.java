@@ -0,0 +1,84 @@
+package cc.springsecurity.authentication.hash;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+/**
+ * The cpu cost of verifying a password at login: the legacy hash as it was verified before {@link PasswordVerifier}, a new digest per
+ * call and a base 64 round trip, against {@link PasswordVerifier}, and a bcrypt hash for comparison. Run {@link #main(String[])} from the
+ * IDE or with the test class path.
+ * 
+ * @author Chris Carcel
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PasswordVerifierBenchmark {
+
+    private static final String PASSWORD = "This is my password";
+
+    private final PasswordVerifier verifier = new PasswordVerifier(new PasswordHashing());
+
+    private HashInfo legacy;
+
+    private String bcrypt;
+
+    @Setup
+    public void setup() {
+        legacy = new PasswordUtil().buildPasswordHash(PASSWORD);
+        bcrypt = new BCryptPasswordEncoder(10).encode(PASSWORD);
+    }
+
+    @Benchmark
+    public boolean legacyBefore() throws Exception {
+        Coder c = new Coder();
+        byte[] salt = c.decode(legacy.getSalt());
+        byte[] stored = c.decode(legacy.getPassword());
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        digest.reset();
+        digest.update(salt);
+        byte[] input = digest.digest(PASSWORD.getBytes("UTF-8"));
+        for (int i = 0; i < 1000; i++) {
+            digest.reset();
+            input = digest.digest(input);
+        }
+        byte[] potential = c.decode(c.encodeToString(input));
+        return Arrays.equals(stored, potential);
+    }
+
+    @Benchmark
+    public boolean legacyVerifier() {
+        return verifier.verify(legacy.getPassword(), legacy.getSalt(), PASSWORD).isValid();
+    }
+
+    @Benchmark
+    public boolean bcryptCost10() {
+        return verifier.verify(bcrypt, null, PASSWORD).isValid();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PasswordVerifierBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
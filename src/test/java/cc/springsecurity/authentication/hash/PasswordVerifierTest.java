@@ -0,0 +1,54 @@
+package cc.springsecurity.authentication.hash;
+
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import cc.springsecurity.authentication.hash.PasswordVerifier.Verification;
+import junit.framework.Assert;
+
+/**
+ * Tests {@link PasswordVerifier} on legacy and bcrypt hashes.
+ *
+ * @author Chris Carcel
+ *
+ */
+public class PasswordVerifierTest {
+
+    @Test
+    public void testLegacy() {
+        PasswordVerifier verifier = new PasswordVerifier(null);
+        HashInfo info = new PasswordUtil().buildPasswordHash("This is my password");
+
+        Assert.assertEquals(Verification.VALID_LEGACY, verifier.verify(info.getPassword(), info.getSalt(), "This is my password"));
+        Assert.assertEquals(Verification.INVALID, verifier.verify(info.getPassword(), info.getSalt(), "This is my passwore"));
+        Assert.assertEquals(Verification.INVALID, verifier.verify(info.getPassword(), null, "This is my password"));
+        Assert.assertEquals(Verification.INVALID, verifier.verify(null, info.getSalt(), "This is my password"));
+
+        // same answer as before
+        Assert.assertTrue(new PasswordUtil().verifyPassword(info.getPassword(), info.getSalt(), "This is my password"));
+        Assert.assertFalse(new PasswordUtil().verifyPassword(info.getPassword(), info.getSalt(), "x"));
+    }
+
+    /**
+     * Hashes built by the previous implementation still verify.
+     */
+    @Test
+    public void testKnownLegacyHash() {
+        HashInfo info = new Hash().buildPasswordHash("secret", new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        Assert.assertEquals("AQIDBAUGBwg=", info.getSalt());
+        Assert.assertEquals("pINDTcssJNphWdj7d/vkfqPx1WM=", info.getPassword());
+        Assert.assertEquals(Verification.VALID_LEGACY, new PasswordVerifier(null).verify(info.getPassword(), info.getSalt(), "secret"));
+    }
+
+    @Test
+    public void testBcrypt() {
+        PasswordVerifier verifier = new PasswordVerifier(new PasswordHashing());
+        String hash = new BCryptPasswordEncoder(4).encode("This is my password");
+
+        Assert.assertTrue(PasswordVerifier.isBcrypt(hash, null));
+        Assert.assertEquals(Verification.VALID, verifier.verify(hash, null, "This is my password"));
+        Assert.assertEquals(Verification.VALID, verifier.verify(hash, "", "This is my password"));
+        Assert.assertEquals(Verification.INVALID, verifier.verify(hash, null, "wrong"));
+    }
+
+}
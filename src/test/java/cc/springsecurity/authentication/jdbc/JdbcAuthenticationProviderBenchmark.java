@@ -0,0 +1,150 @@
+package cc.springsecurity.authentication.jdbc;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.tools.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+
+import cc.springsecurity.authentication.hash.PasswordHashing;
+import cc.springsecurity.authentication.hash.PasswordVerifier;
+import cc.springsecurity.config.CcPrincipal;
+
+/**
+ * A successful login against an embedded database: the four queries run one after the other as before, against
+ * {@link JdbcAuthenticationProvider} with its joined user query and groups query, with and without a groups executor. Every login verifies
+ * a legacy hash. The queries share one connection, as they would take a pooled one. With mode tcp the database is reached through a
+ * local H2 server, so each query pays a real round trip as it would with a database server. Run {@link #main(String[])} from the IDE or with the test class path.
+ * 
+ * @author Chris Carcel
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JdbcAuthenticationProviderBenchmark {
+
+    private static final int USERS = 200;
+
+    @Param({ "embedded", "tcp" })
+    private String mode;
+
+    private EmbeddedDatabase database;
+
+    private Server server;
+
+    private SingleConnectionDataSource dataSource;
+
+    private NamedParameterJdbcTemplate t;
+
+    private PasswordVerifier verifier;
+
+    private JdbcAuthenticationProvider provider;
+
+    private JdbcAuthenticationProvider asyncProvider;
+
+    private ExecutorService executor;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        try {
+            if ("tcp".equals(mode)) {
+                server = Server.createTcpServer("-tcpPort", "0").start();
+                dataSource = new SingleConnectionDataSource("jdbc:h2:tcp://localhost:" + server.getPort() + "/mem:bench;DB_CLOSE_DELAY=-1",
+                        "sa", "", true);
+                JdbcAuthenticationProviderTest.createTables(new JdbcTemplate(dataSource), USERS);
+            } else {
+                database = JdbcAuthenticationProviderTest.createDatabase(USERS);
+                dataSource = new SingleConnectionDataSource(database.getConnection(), true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        t = new NamedParameterJdbcTemplate(dataSource);
+        verifier = new PasswordVerifier(new PasswordHashing(PasswordHashing.MIN_COST, PasswordHashing.SeedStrategy.DEFAULT));
+        provider = JdbcAuthenticationProviderTest.provider(dataSource);
+        executor = Executors.newFixedThreadPool(2);
+        asyncProvider = JdbcAuthenticationProviderTest.provider(dataSource).setGroupsExecutor(executor);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        dataSource.destroy();
+        if (null != server) {
+            server.stop();
+        }
+        if (null != database) {
+            database.shutdown();
+        }
+    }
+
+    private int nextUser() {
+        next = next % USERS + 1;
+        return next;
+    }
+
+    @Benchmark
+    public Object fourQueries() {
+        int id = nextUser();
+        Map<String, Object> row = t.queryForMap(
+                "select id, user_id, password_hash, salt from passwords where lower(login_name) = lower(:un) and active = 1",
+                Collections.singletonMap("un", "user" + id));
+        if (!verifier.verify((String) row.get("PASSWORD_HASH"), (String) row.get("SALT"), "pw" + id).isValid()) {
+            throw new IllegalStateException();
+        }
+        Map<String, Object> params = Collections.singletonMap("uuid", row.get("USER_ID"));
+        String userName = t.queryForObject("select user_name from users u where u.user_id = :uuid", params, String.class);
+        List<String> groups = t.queryForList(
+                "select G.GROUP_NAME from GROUPS_MEMBERS gm inner join groups g on (GM.GROUP_ID = g.id) where GM.USER_ID = :uuid", params,
+                String.class);
+        Map<String, Object> info = t.queryForMap(
+                "select u.user_name, u.first_name, u.middle_name, u.last_name, u.email from users u where u.user_id = :uuid ", params);
+        return new Object[] { userName, groups, info };
+    }
+
+    @Benchmark
+    public CcPrincipal twoQueries() {
+        int id = nextUser();
+        return provider.validateUser("user" + id, "pw" + id, null);
+    }
+
+    @Benchmark
+    public CcPrincipal twoQueriesGroupsExecutor() {
+        int id = nextUser();
+        return asyncProvider.validateUser("user" + id, "pw" + id, null);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(JdbcAuthenticationProviderBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,203 @@
+package cc.springsecurity.authentication.jdbc;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import cc.springsecurity.authentication.hash.HashInfo;
+import cc.springsecurity.authentication.hash.PasswordHashing;
+import cc.springsecurity.authentication.hash.PasswordUtil;
+import cc.springsecurity.authentication.hash.PasswordVerifier;
+import cc.springsecurity.config.CcPrincipal;
+import junit.framework.Assert;
+
+/**
+ * Tests {@link JdbcAuthenticationProvider} against an embedded database.
+ *
+ * @author Chris Carcel
+ *
+ */
+public class JdbcAuthenticationProviderTest {
+
+    private EmbeddedDatabase database;
+
+    private JdbcTemplate t;
+
+    private JdbcAuthenticationProvider provider;
+
+    /**
+     * The tables the provider reads, with one user per id, login name user{id} and password pw{id}, in the groups Staff and Group{id %
+     * 10}.
+     */
+    static EmbeddedDatabase createDatabase(int users) {
+        EmbeddedDatabase database = new EmbeddedDatabaseBuilder().generateUniqueName(true).setType(EmbeddedDatabaseType.H2).build();
+        createTables(new JdbcTemplate(database), users);
+        return database;
+    }
+
+    static void createTables(JdbcTemplate t, int users) {
+        t.execute("create table passwords (id int primary key, user_id int, login_name varchar(100), password_hash varchar(100), "
+                + "salt varchar(100), active smallint)");
+        t.execute("create table users (user_id int primary key, user_name varchar(100), first_name varchar(100), "
+                + "middle_name varchar(100), last_name varchar(100), email varchar(100))");
+        t.execute("create table groups (id int primary key, group_name varchar(100))");
+        t.execute("create table groups_members (group_id int, user_id int)");
+        t.execute("create index passwords_login on passwords (login_name)");
+        t.execute("create index groups_members_user on groups_members (user_id)");
+        t.update("insert into groups values (100, 'Staff')");
+        for (int g = 0; g < 10; g++) {
+            t.update("insert into groups values (?, ?)", g, "Group" + g);
+        }
+        PasswordUtil util = new PasswordUtil();
+        for (int id = 1; id <= users; id++) {
+            HashInfo info = util.buildPasswordHash("pw" + id);
+            t.update("insert into passwords values (?, ?, ?, ?, ?, 1)", 1000 + id, id, "user" + id, info.getPassword(), info.getSalt());
+            t.update("insert into users values (?, ?, ?, 'M', ?, ?)", id, "User " + id, "First" + id, "Last" + id, "user" + id + "@email.com");
+            t.update("insert into groups_members values (100, ?)", id);
+            t.update("insert into groups_members values (?, ?)", id % 10, id);
+        }
+    }
+
+    static JdbcAuthenticationProvider provider(DataSource database) {
+        PasswordHashing hashing = new PasswordHashing(PasswordHashing.MIN_COST, PasswordHashing.SeedStrategy.DEFAULT);
+        return new JdbcAuthenticationProvider().setPasswordVerifier(new PasswordVerifier(hashing)).setDataSource(database);
+    }
+
+    @Before
+    public void before() {
+        database = createDatabase(20);
+        t = new JdbcTemplate(database);
+        provider = provider(database);
+    }
+
+    @After
+    public void after() {
+        database.shutdown();
+    }
+
+    private static void assertUser7(CcPrincipal p) {
+        Assert.assertNotNull(p);
+        Assert.assertEquals(Integer.valueOf(7), p.getUserId());
+        Assert.assertEquals("7", p.getUsername());
+        Assert.assertEquals("First7", p.getFirstName());
+        Assert.assertEquals("M", p.getMiddleInitial());
+        Assert.assertEquals("Last7", p.getLastName());
+        Assert.assertEquals("user7@email.com", p.getEmail());
+        Assert.assertEquals(3, p.getGroups().length);
+        Assert.assertEquals("*", p.getGroups()[0]);
+        Assert.assertEquals("Group7", p.getGroups()[1]);
+        Assert.assertEquals("Staff", p.getGroups()[2]);
+    }
+
+    @Test
+    public void testLogin() {
+        assertUser7(provider.validateUser("USER7", "pw7", null));
+        Assert.assertNull(provider.validateUser("user7", "pw8", null));
+        Assert.assertNull(provider.validateUser("nobody", "pw7", null));
+
+        t.update("update passwords set active = 0 where user_id = 7");
+        Assert.assertNull(provider.validateUser("user7", "pw7", null));
+    }
+
+    @Test
+    public void testGroupsExecutor() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            provider.setGroupsExecutor(executor);
+            assertUser7(provider.validateUser("user7", "pw7", null));
+            Assert.assertNull(provider.validateUser("user7", "wrong", null));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testUpgrade() {
+        assertUser7(provider.validateUser("user7", "pw7", null));
+        Assert.assertNotNull(t.queryForObject("select salt from passwords where user_id = 7", String.class));
+
+        provider.setUpgradeLegacyPasswords(true);
+        assertUser7(provider.validateUser("user7", "pw7", null));
+        Assert.assertNull(t.queryForObject("select salt from passwords where user_id = 7", String.class));
+        Assert.assertTrue(t.queryForObject("select password_hash from passwords where user_id = 7", String.class).startsWith("$2a$04$"));
+
+        // now bcrypt
+        assertUser7(provider.validateUser("user7", "pw7", null));
+        Assert.assertNull(provider.validateUser("user7", "pw8", null));
+    }
+
+    @Test
+    public void testProfileCache() {
+        provider.setProfileCache(100, 1, TimeUnit.HOURS);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            provider.setGroupsExecutor(executor);
+            assertUser7(provider.validateUser("user7", "pw7", null));
+        } finally {
+            executor.shutdownNow();
+        }
+        provider.setGroupsExecutor(null);
+
+        t.update("update users set first_name = 'Changed' where user_id = 7");
+        t.update("delete from groups_members where user_id = 7 and group_id = 100");
+        CcPrincipal cached = provider.validateUser("user7", "pw7", null);
+        assertUser7(cached);
+        Assert.assertNotSame(cached, provider.validateUser("user7", "pw7", null));
+
+        // the password is still checked
+        Assert.assertNull(provider.validateUser("user7", "pw8", null));
+        t.update("update passwords set active = 0 where user_id = 7");
+        Assert.assertNull(provider.validateUser("user7", "pw7", null));
+        t.update("update passwords set active = 1 where user_id = 7");
+
+        provider.evictUser(7);
+        CcPrincipal p = provider.validateUser("user7", "pw7", null);
+        Assert.assertEquals("Changed", p.getFirstName());
+        Assert.assertEquals(2, p.getGroups().length);
+
+        // no groups and no users row
+        t.update("delete from groups_members where user_id = 8");
+        Assert.assertEquals(1, provider.validateUser("user8", "pw8", null).getGroups().length);
+        t.update("delete from users where user_id = 9");
+        Assert.assertNull(provider.validateUser("user9", "pw9", null));
+    }
+
+    @Test
+    public void testUnknownUsernameCache() {
+        provider.setUnknownUsernameCache(100, 1, TimeUnit.HOURS);
+        Assert.assertNull(provider.validateUser("User21", "pw21", null));
+
+        t.update("insert into passwords values (1021, 21, 'user21', ?, ?, 1)", t.queryForObject(
+                "select password_hash from passwords where user_id = 7", String.class),
+                t.queryForObject("select salt from passwords where user_id = 7", String.class));
+        t.update("insert into users values (21, 'User 21', 'First21', 'M', 'Last21', 'user21@email.com')");
+        Assert.assertNull(provider.validateUser("user21", "pw7", null));
+
+        provider.evictUsername("USER21");
+        Assert.assertEquals(Integer.valueOf(21), provider.validateUser("user21", "pw7", null).getUserId());
+
+        // a wrong password is not an unknown user
+        Assert.assertNull(provider.validateUser("user7", "wrong", null));
+        assertUser7(provider.validateUser("user7", "pw7", null));
+
+        t.update("delete from passwords where user_id = 21");
+        Assert.assertNull(provider.validateUser("user21", "pw7", null));
+        t.update("insert into passwords values (1021, 21, 'user21', ?, ?, 1)", t.queryForObject(
+                "select password_hash from passwords where user_id = 7", String.class),
+                t.queryForObject("select salt from passwords where user_id = 7", String.class));
+        Assert.assertNull(provider.validateUser("user21", "pw7", null));
+        provider.evictAll();
+        Assert.assertNotNull(provider.validateUser("user21", "pw7", null));
+    }
+
+}
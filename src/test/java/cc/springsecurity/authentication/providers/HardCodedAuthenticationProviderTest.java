@@ -0,0 +1,70 @@
+package cc.springsecurity.authentication.providers;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+import cc.springsecurity.authentication.hash.PasswordHashing;
+import cc.springsecurity.authentication.providers.HardCodedAuthenticationProvider.UsernamePasswordGroupsBuilder;
+import cc.springsecurity.authentication.providers.HardCodedAuthenticationProvider.UsernamePasswordGroupsList;
+import cc.springsecurity.config.CcPrincipal;
+import junit.framework.Assert;
+
+/**
+ * Tests the indexed users of {@link HardCodedAuthenticationProvider} .
+ *
+ * @author Chris Carcel
+ *
+ */
+public class HardCodedAuthenticationProviderTest {
+
+    private final PasswordHashing passwordHashing = new PasswordHashing(PasswordHashing.MIN_COST, PasswordHashing.SeedStrategy.DEFAULT);
+
+    @Test
+    public void testLookup() {
+        String hash = passwordHashing.buildPasswordHash("pw");
+        UsernamePasswordGroupsBuilder builder = UsernamePasswordGroupsBuilder.getInstance();
+        for (int i = 0; i < 20000; i++) {
+            builder.createUser(i, "First" + i, "Last" + i, "user" + i + "@email.com", hash, Sets.newHashSet("Users", "Group" + (i % 10)));
+        }
+        UsernamePasswordGroupsList list = builder.build();
+        Assert.assertEquals(20000, list.size());
+
+        HardCodedAuthenticationProvider provider = new HardCodedAuthenticationProvider(list, passwordHashing);
+        CcPrincipal p = provider.validateUser("user12345@email.com", "pw", null);
+        Assert.assertEquals(Integer.valueOf(12345), p.getUserId());
+        Assert.assertEquals("First12345 Last12345", p.getUsername());
+        Assert.assertEquals("Group5", p.getGroups()[0]);
+        Assert.assertEquals(2, p.getAuthorities().size());
+
+        Assert.assertNull(provider.validateUser("user12345@email.com", "wrong", null));
+        Assert.assertNull(provider.validateUser("nobody@email.com", "pw", null));
+        Assert.assertNull(provider.validateUser(null, "pw", null));
+
+        // each login gets its own principal
+        CcPrincipal again = provider.validateUser("user12345@email.com", "pw", null);
+        Assert.assertNotSame(p, again);
+        Assert.assertNotSame(p.getGroups(), again.getGroups());
+        Assert.assertSame(p.getAuthorities(), again.getAuthorities());
+
+        Assert.assertEquals("user7@email.com", provider.findUser(7).getEmail());
+        Assert.assertNull(provider.findUser(-1));
+
+        // built lists do not change
+        builder.createUser(20000, "First", "Last", "late@email.com", hash, null);
+        Assert.assertEquals(20000, list.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateEmail() {
+        UsernamePasswordGroupsBuilder.getInstance().createUser(1, "A", "B", "a@email.com", "x", null).createUser(2, "C", "D", "a@email.com",
+                "x", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateUserId() {
+        UsernamePasswordGroupsBuilder.getInstance().createUser(1, "A", "B", "a@email.com", "x", null).createUser(1, "C", "D", "c@email.com",
+                "x", null);
+    }
+
+}
@@ -0,0 +1,81 @@
+package cc.springsecurity.authentication.sso;
+
+import static java.util.stream.Collectors.toSet;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import cc.springsecurity.config.CcPrincipalImpl;
+import junit.framework.Assert;
+
+/**
+ * Tests {@link CachingSsoStorage}
+ *
+ * @author Chris Carcel
+ *
+ */
+public class CachingSsoStorageTest {
+
+    private CountingSsoStorage delegate;
+
+    private CachingSsoStorage cache;
+
+    @Before
+    public void before() {
+        delegate = new CountingSsoStorage();
+        cache = new CachingSsoStorage(delegate, 100L, 1L, 1L, TimeUnit.HOURS);
+    }
+
+    private static Authentication token() {
+        Set<SimpleGrantedAuthority> set = Stream.of(new SimpleGrantedAuthority("Hello")).collect(toSet());
+        return new UsernamePasswordAuthenticationToken(new CcPrincipalImpl(), new Object(), set);
+    }
+
+    @Test
+    public void testHit() {
+        cache.storeUser("unid", token());
+        Assert.assertNotNull(cache.findUser("unid"));
+        Assert.assertNotNull(cache.findUser("unid"));
+        Assert.assertEquals(1, delegate.getFinds());
+        Assert.assertEquals(1L, cache.getHitCount());
+        Assert.assertEquals(1L, cache.getMissCount());
+    }
+
+    @Test
+    public void testNegativeHit() {
+        Assert.assertNull(cache.findUser("unid"));
+        Assert.assertNull(cache.findUser("unid"));
+        Assert.assertEquals(1, delegate.getFinds());
+        Assert.assertEquals(1L, cache.getNegativeHitCount());
+
+        // storing clears the negative entry
+        cache.storeUser("unid", token());
+        Assert.assertNotNull(cache.findUser("unid"));
+    }
+
+    @Test
+    public void testRemoveInvalidates() {
+        cache.storeUser("unid", token());
+        Assert.assertNotNull(cache.findUser("unid"));
+        cache.removeUser("unid");
+        Assert.assertNull(cache.findUser("unid"));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        cache = new CachingSsoStorage(delegate, 100L, 10L, 10L, TimeUnit.MILLISECONDS);
+        cache.storeUser("unid", token());
+        cache.findUser("unid");
+        Thread.sleep(50L);
+        cache.findUser("unid");
+        Assert.assertEquals(2, delegate.getFinds());
+    }
+
+}
@@ -0,0 +1,32 @@
+package cc.springsecurity.authentication.sso;
+
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * A {@link ServletContextBasedSsoStorage} counting the lookups reaching it, for tests of the classes in front of a storage.
+ *
+ * @author Chris Carcel
+ *
+ */
+class CountingSsoStorage extends ServletContextBasedSsoStorage {
+
+    private int finds;
+
+    CountingSsoStorage() {
+        super(new MockServletContext());
+    }
+
+    @Override
+    public UserDetails findUser(String unid) {
+        finds++;
+        return super.findUser(unid);
+    }
+
+    /**
+     * @return number of {@link #findUser(String)} calls
+     */
+    int getFinds() {
+        return finds;
+    }
+}
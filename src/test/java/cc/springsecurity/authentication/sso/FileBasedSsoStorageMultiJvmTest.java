@@ -0,0 +1,193 @@
+package cc.springsecurity.authentication.sso;
+
+import static java.util.stream.Collectors.toSet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import cc.springsecurity.authentication.sso.FileBasedSsoStorage.FileLocking;
+import cc.springsecurity.config.CcPrincipal;
+import cc.springsecurity.config.CcPrincipalImpl;
+import junit.framework.Assert;
+
+/**
+ * Runs several JVMs logging users into the same {@link FileBasedSsoStorage} file at once and checks that no login is lost. Each JVM runs
+ * {@link #main(String[])}.
+ *
+ * @author Chris Carcel
+ *
+ */
+public class FileBasedSsoStorageMultiJvmTest {
+
+    private static final int JVMS = 4;
+
+    private static final int LOGINS_PER_JVM = 25;
+
+    private File file;
+
+    @Before
+    public void before() throws IOException {
+        file = File.createTempFile("testsso_", ".multijvm");
+        file.delete();
+    }
+
+    @After
+    public void after() {
+        file.delete();
+        new File(file.getParentFile(), file.getName() + ".lock").delete();
+    }
+
+    @Test
+    public void testWholeFileLocking() throws Exception {
+        runJvms(FileLocking.WHOLE_FILE);
+    }
+
+    @Test
+    public void testRegionLocking() throws Exception {
+        runJvms(FileLocking.REGION);
+    }
+
+    /**
+     * A second storage on the same file sees the logins of the first.
+     */
+    @Test
+    public void testChangeDetection() {
+        FileBasedSsoStorage a = new FileBasedSsoStorage(file, FileLocking.REGION);
+        FileBasedSsoStorage b = new FileBasedSsoStorage(file, FileLocking.REGION);
+
+        Assert.assertNull(b.findUser("unid1"));
+        a.storeUser("unid1", token(1));
+        Assert.assertEquals(Integer.valueOf(1), ((CcPrincipal) b.findUser("unid1")).getUserId());
+        a.removeUser("unid1");
+        Assert.assertNull(b.findUser("unid1"));
+    }
+
+    /**
+     * Two storages on the same file in one JVM, as two wars would have, write at once without an OverlappingFileLockException, and no
+     * temporary file is left behind.
+     */
+    @Test
+    public void testSameJvm() throws Exception {
+        FileBasedSsoStorage a = new FileBasedSsoStorage(file, FileLocking.WHOLE_FILE);
+        FileBasedSsoStorage b = new FileBasedSsoStorage(file, FileLocking.WHOLE_FILE);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                FileBasedSsoStorage s = i % 2 == 0 ? a : b;
+                String prefix = "thread" + i;
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < LOGINS_PER_JVM; j++) {
+                        s.storeUser(prefix + "-" + j, token(j));
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < LOGINS_PER_JVM; j++) {
+                Assert.assertNotNull(b.findUser("thread" + i + "-" + j));
+            }
+        }
+        String[] temps = file.getParentFile().list((d, n) -> n.startsWith(file.getName() + ".") && n.endsWith(".tmp"));
+        Assert.assertEquals(0, temps.length);
+    }
+
+    /**
+     * A failed update leaves the file as it was.
+     */
+    @Test
+    public void testFailedUpdate() throws IOException {
+        FileBasedSsoStorage a = new FileBasedSsoStorage(file, FileLocking.REGION);
+        a.storeUser("unid1", token(1));
+        byte[] before = Files.readAllBytes(file.toPath());
+        try {
+            a.storeUser("unid1", token(2));
+            Assert.fail("stored the same unid twice");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        Assert.assertTrue(Arrays.equals(before, Files.readAllBytes(file.toPath())));
+    }
+
+    private void runJvms(FileLocking locking) throws Exception {
+
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < JVMS; i++) {
+            ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    FileBasedSsoStorageMultiJvmTest.class.getName(), file.getAbsolutePath(), locking.name(), "jvm" + i,
+                    String.valueOf(LOGINS_PER_JVM));
+            pb.redirectErrorStream(true);
+            pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+            processes.add(pb.start());
+        }
+
+        for (Process p : processes) {
+            Assert.assertTrue("JVM did not finish", p.waitFor(2, TimeUnit.MINUTES));
+            Assert.assertEquals(0, p.exitValue());
+        }
+
+        Properties p = new Properties();
+        try (FileInputStream fin = new FileInputStream(file)) {
+            p.load(fin);
+        }
+        Assert.assertEquals(JVMS * LOGINS_PER_JVM, p.size());
+
+        FileBasedSsoStorage s = new FileBasedSsoStorage(file, locking);
+        for (int i = 0; i < JVMS; i++) {
+            for (int j = 0; j < LOGINS_PER_JVM; j++) {
+                Assert.assertNotNull(s.findUser("jvm" + i + "-" + j));
+            }
+        }
+
+        Assert.assertTrue(Files.deleteIfExists(file.toPath()));
+    }
+
+    private static UsernamePasswordAuthenticationToken token(int userId) {
+        Set<SimpleGrantedAuthority> set = Stream.of(new SimpleGrantedAuthority("Hello")).collect(toSet());
+        return new UsernamePasswordAuthenticationToken(new CcPrincipalImpl().setUserId(userId), new Object(), set);
+    }
+
+    /**
+     * One JVM of the test: log in the given number of users, checking each one can be found.
+     *
+     * @param args
+     *            file, {@link FileLocking}, unid prefix, number of logins
+     */
+    public static void main(String[] args) {
+        FileBasedSsoStorage s = new FileBasedSsoStorage(new File(args[0]), FileLocking.valueOf(args[1]));
+        int logins = Integer.parseInt(args[3]);
+        for (int i = 0; i < logins; i++) {
+            String unid = args[2] + "-" + i;
+            s.storeUser(unid, token(i));
+            if (null == s.findUser(unid)) {
+                throw new IllegalStateException("Lost " + unid);
+            }
+        }
+    }
+
+}
@@ -9,6 +9,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -115,4 +116,25 @@ public class FileBasedSsoStorageTest {
 
     }
 
+    /**
+     * Logins older than the maximum age are not found and are swept from the file.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testMaxAge() throws IOException {
+        File f = new File(System.getProperty("java.io.tmpdir"), START_STRING + "maxage");
+        FileBasedSsoStorage s = new FileBasedSsoStorage(f).setExpiryPolicy(new SsoExpiryPolicy(1L, 0L, TimeUnit.HOURS));
+        Set<SimpleGrantedAuthority> set = Stream.of(new SimpleGrantedAuthority("Hello")).collect(toSet());
+        s.storeUser("unid1", new UsernamePasswordAuthenticationToken(new CcPrincipalImpl(), new Object(), set));
+        s.storeUser("unid2", new UsernamePasswordAuthenticationToken(new CcPrincipalImpl(), new Object(), set));
+
+        Assert.assertNotNull(s.findUser("unid1"));
+        Assert.assertEquals(0, s.sweep(System.currentTimeMillis(), 10));
+        Assert.assertEquals(2, s.sweep(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(61L), 10));
+        Assert.assertNull(s.findUser("unid1"));
+        Assert.assertEquals(0, Files.readAllLines(f.toPath(), StandardCharsets.UTF_8).stream().filter(l -> l.startsWith("unid"))
+                .collect(Collectors.toList()).size());
+    }
+
 }
@@ -0,0 +1,204 @@
+package cc.springsecurity.authentication.sso;
+
+import static java.util.stream.Collectors.toSet;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import cc.springsecurity.config.CcPrincipalImpl;
+import junit.framework.Assert;
+
+/**
+ * Tests {@link JdbcSsoStorage} against an embedded database.
+ *
+ * @author Chris Carcel
+ *
+ */
+public class JdbcSsoStorageTest {
+
+    private EmbeddedDatabase database;
+
+    private JdbcSsoStorage storage;
+
+    @Before
+    public void before() {
+        database = new EmbeddedDatabaseBuilder().generateUniqueName(true).setType(EmbeddedDatabaseType.H2)
+                .addScript("cc/springsecurity/authentication/sso/sso-storage-schema.sql").build();
+        // a long flush interval so writes stay queued until flushed
+        storage = new JdbcSsoStorage(database, 10, 60000L);
+    }
+
+    @After
+    public void after() {
+        storage.close();
+        database.shutdown();
+    }
+
+    private static Authentication token(String username) {
+        Set<SimpleGrantedAuthority> set = Stream.of(new SimpleGrantedAuthority("Hello")).collect(toSet());
+        return new UsernamePasswordAuthenticationToken(new CcPrincipalImpl().setUsername(username), new Object(), set);
+    }
+
+    private int rows() {
+        return new JdbcTemplate(database).queryForObject("select count(*) from SSO_LOGINS", Integer.class);
+    }
+
+    @Test
+    public void testReadYourWrites() {
+        storage.storeUser("unid", token("chris"));
+        Assert.assertEquals(0, rows());
+        Assert.assertEquals("chris", storage.findUser("unid").getUsername());
+
+        storage.removeUser("unid");
+        Assert.assertNull(storage.findUser("unid"));
+    }
+
+    @Test
+    public void testFlush() {
+        for (int i = 0; i < 25; i++) {
+            storage.storeUser("unid" + i, token("user" + i));
+        }
+        storage.storeUser("unid0", token("again"));
+        storage.removeUser("unid1");
+        storage.flush();
+        Assert.assertEquals(24, rows());
+
+        JdbcSsoStorage other = new JdbcSsoStorage(database);
+        try {
+            UserDetails user = other.findUser("unid0");
+            Assert.assertEquals("again", user.getUsername());
+            Assert.assertEquals("user24", other.findUser("unid24").getUsername());
+            Assert.assertNull(other.findUser("unid1"));
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testWriteBehind() throws InterruptedException {
+        storage.close();
+        storage = new JdbcSsoStorage(database, 10, 0L);
+        storage.storeUser("unid", token("chris"));
+        for (int i = 0; i < 100 && rows() == 0; i++) {
+            Thread.sleep(20L);
+        }
+        Assert.assertEquals(1, rows());
+    }
+
+    /**
+     * Expired logins are not found and are swept, the idle timeout is extended by lookups.
+     */
+    @Test
+    public void testExpiry() {
+        storage.setExpiryPolicy(new SsoExpiryPolicy(2L, 1L, TimeUnit.HOURS));
+        for (int i = 0; i < 5; i++) {
+            storage.storeUser("unid" + i, token("user" + i));
+        }
+        storage.flush();
+
+        long now = System.currentTimeMillis();
+        Assert.assertEquals(0, storage.sweep(now, 10));
+        Assert.assertEquals(5, rows());
+
+        // an idle timeout of an hour writes the last access back at most every 6 minutes
+        new JdbcTemplate(database).update("update SSO_LOGINS set LAST_ACCESS = LAST_ACCESS - ? where UNID = 'unid0'",
+                TimeUnit.MINUTES.toMillis(10L));
+        Assert.assertNotNull(storage.findUser("unid0"));
+        storage.flush();
+        long lastAccess = new JdbcTemplate(database).queryForObject("select LAST_ACCESS from SSO_LOGINS where UNID = 'unid0'", Long.class);
+        Assert.assertTrue(lastAccess >= now);
+
+        new JdbcTemplate(database).update("update SSO_LOGINS set LAST_ACCESS = LAST_ACCESS - ? where UNID <> 'unid0'",
+                TimeUnit.MINUTES.toMillis(61L));
+        Assert.assertNull(storage.findUser("unid1"));
+        Assert.assertEquals(3, storage.sweep(now, 3));
+        Assert.assertEquals(1, storage.sweep(now, 3));
+        Assert.assertEquals(1, rows());
+        Assert.assertNotNull(storage.findUser("unid0"));
+    }
+
+    @Test
+    public void testNotAuthenticated() {
+        Authentication token = token("chris");
+        token.setAuthenticated(false);
+        storage.storeUser("unid", token);
+        Assert.assertNull(storage.findUser("unid"));
+    }
+
+    private void databaseDown() {
+        new JdbcTemplate(database).execute("alter table SSO_LOGINS rename to SSO_LOGINS_DOWN");
+    }
+
+    private void databaseUp() {
+        new JdbcTemplate(database).execute("alter table SSO_LOGINS_DOWN rename to SSO_LOGINS");
+    }
+
+    /**
+     * A batch which failed is not lost when the storage is closed while the writer waits to retry it.
+     */
+    @Test
+    public void testCloseDuringRetry() throws InterruptedException {
+        storage.close();
+        storage = new JdbcSsoStorage(database, 10, 0L);
+        databaseDown();
+        storage.storeUser("unid", token("chris"));
+        // the writer fails and waits to retry
+        Thread.sleep(200L);
+        Assert.assertEquals("chris", storage.findUser("unid").getUsername());
+
+        databaseUp();
+        storage.close();
+        Assert.assertEquals(1, rows());
+    }
+
+    /**
+     * While the database is down the queue fills, then stores fail at once, flush gives up and close returns.
+     */
+    @Test
+    public void testDatabaseDown() {
+        storage.close();
+        storage = new JdbcSsoStorage(database, 10, 60000L, 2);
+        databaseDown();
+        storage.storeUser("unid1", token("user1"));
+        storage.storeUser("unid2", token("user2"));
+        try {
+            storage.storeUser("unid3", token("user3"));
+            Assert.fail("queue is full");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        try {
+            storage.flush();
+            Assert.fail("database is down");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals("user1", storage.findUser("unid1").getUsername());
+
+        databaseUp();
+        storage.flush();
+        Assert.assertEquals(2, rows());
+        Assert.assertNull(storage.findUser("unid3"));
+        storage.storeUser("unid3", token("user3"));
+
+        databaseDown();
+        storage.close();
+        databaseUp();
+        Assert.assertEquals(2, rows());
+    }
+
+}
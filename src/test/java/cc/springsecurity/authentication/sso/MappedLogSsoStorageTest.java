@@ -0,0 +1,159 @@
+package cc.springsecurity.authentication.sso;
+
+import static java.util.stream.Collectors.toSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import cc.springsecurity.config.CcPrincipal;
+import cc.springsecurity.config.CcPrincipalImpl;
+import junit.framework.Assert;
+
+/**
+ * Tests {@link MappedLogSsoStorage}
+ *
+ * @author Chris Carcel
+ *
+ */
+public class MappedLogSsoStorageTest {
+
+    private File dir;
+
+    @Before
+    public void before() throws IOException {
+        dir = Files.createTempDirectory("testsso_log").toFile();
+    }
+
+    /**
+     * Clean up after ourselves.
+     *
+     * @throws IOException
+     */
+    @After
+    public void after() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static UsernamePasswordAuthenticationToken token(int userId) {
+        Set<SimpleGrantedAuthority> set = Stream.of(new SimpleGrantedAuthority("Hello")).collect(toSet());
+        CcPrincipalImpl p = new CcPrincipalImpl().setUserId(userId).setUsername("user" + userId).setGroups(new String[] { "B", "A" });
+        return new UsernamePasswordAuthenticationToken(p, new Object(), set);
+    }
+
+    @Test
+    public void testStoreFindRemove() {
+        try (MappedLogSsoStorage s = new MappedLogSsoStorage(dir, 4096, 0.5d, 0L, false)) {
+            s.storeUser("unid", token(1));
+
+            UserDetails found = s.findUser("unid");
+            Assert.assertTrue(found instanceof CcPrincipal);
+            Assert.assertEquals(Integer.valueOf(1), ((CcPrincipal) found).getUserId());
+
+            s.removeUser("unid");
+            Assert.assertNull(s.findUser("unid"));
+        }
+    }
+
+    @Test
+    public void testNotAuthenticated() {
+        try (MappedLogSsoStorage s = new MappedLogSsoStorage(dir, 4096, 0.5d, 0L, false)) {
+            s.storeUser("unid", new UsernamePasswordAuthenticationToken(new Object(), new Object()));
+            Assert.assertNull(s.findUser("unid"));
+        }
+    }
+
+    /**
+     * Reopening the directory rebuilds the index, tombstones included.
+     */
+    @Test
+    public void testRecovery() {
+        try (MappedLogSsoStorage s = new MappedLogSsoStorage(dir, 4096, 0.5d, 0L, false)) {
+            for (int i = 0; i < 50; i++) {
+                s.storeUser("unid" + i, token(i));
+            }
+            s.removeUser("unid7");
+        }
+
+        try (MappedLogSsoStorage s = new MappedLogSsoStorage(dir, 4096, 0.5d, 0L, false)) {
+            Assert.assertEquals(49, s.size());
+            Assert.assertNull(s.findUser("unid7"));
+            Assert.assertEquals(Integer.valueOf(42), ((CcPrincipal) s.findUser("unid42")).getUserId());
+        }
+    }
+
+    /**
+     * Compaction drops removed users, keeps the live ones and deletes the sealed segments.
+     */
+    @Test
+    public void testCompaction() {
+        try (MappedLogSsoStorage s = new MappedLogSsoStorage(dir, 4096, 0.5d, 0L, false)) {
+            for (int i = 0; i < 100; i++) {
+                s.storeUser("unid" + i, token(i));
+            }
+            for (int i = 0; i < 90; i++) {
+                s.removeUser("unid" + i);
+            }
+            int before = dir.list((d, n) -> n.endsWith(".log")).length;
+
+            Assert.assertTrue(s.compactIfNeeded());
+
+            Assert.assertTrue(dir.list((d, n) -> n.endsWith(".log")).length < before);
+            Assert.assertEquals(10, s.size());
+            Assert.assertEquals(Integer.valueOf(95), ((CcPrincipal) s.findUser("unid95")).getUserId());
+        }
+
+        try (MappedLogSsoStorage s = new MappedLogSsoStorage(dir, 4096, 0.5d, 0L, false)) {
+            Assert.assertEquals(10, s.size());
+            Assert.assertNull(s.findUser("unid5"));
+        }
+    }
+
+    /**
+     * Expired users are swept with tombstones, the stored time survives a restart.
+     */
+    @Test
+    public void testSweep() {
+        SsoExpiryPolicy policy = new SsoExpiryPolicy(1L, 0L, TimeUnit.HOURS);
+        long later = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(61L);
+        try (MappedLogSsoStorage s = new MappedLogSsoStorage(dir, 4096, 0.5d, 0L, false).setExpiryPolicy(policy)) {
+            for (int i = 0; i < 10; i++) {
+                s.storeUser("unid" + i, token(i));
+            }
+            Assert.assertEquals(0, s.sweep(System.currentTimeMillis(), 100));
+            Assert.assertEquals(3, s.sweep(later, 3));
+            Assert.assertEquals(7, s.size());
+        }
+
+        try (MappedLogSsoStorage s = new MappedLogSsoStorage(dir, 4096, 0.5d, 0L, false).setExpiryPolicy(policy)) {
+            Assert.assertEquals(7, s.size());
+            Assert.assertEquals(7, s.sweep(later, 100));
+            Assert.assertEquals(0, s.size());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDirectoryLocked() {
+        MappedLogSsoStorage s = new MappedLogSsoStorage(dir, 4096, 0.5d, 0L, false);
+        try {
+            new MappedLogSsoStorage(dir, 4096, 0.5d, 0L, false);
+        } finally {
+            s.close();
+        }
+    }
+
+}
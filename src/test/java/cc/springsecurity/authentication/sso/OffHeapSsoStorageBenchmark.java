@@ -0,0 +1,103 @@
+package cc.springsecurity.authentication.sso;
+
+import static java.util.stream.Collectors.toSet;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import cc.springsecurity.config.CcPrincipalImpl;
+
+/**
+ * Load test comparing the heap kept and the garbage collection time of {@link ServletContextBasedSsoStorage} and {@link OffHeapSsoStorage}
+ * holding 100k logins with 40 groups each. Run {@link #main(String[])} with the test class path, passing <code>heap</code> or
+ * <code>offheap</code>; run each in its own JVM with the same -Xmx for comparable numbers.
+ *
+ * @author Chris Carcel
+ *
+ */
+public class OffHeapSsoStorageBenchmark {
+
+    private static final int SESSIONS = 100_000;
+
+    private static final int GROUPS = 40;
+
+    private static final int LOOKUPS = 5_000_000;
+
+    private static Authentication token(int userId) {
+        Set<SimpleGrantedAuthority> set = Stream.of(new SimpleGrantedAuthority("Hello")).collect(toSet());
+        String[] groups = new String[GROUPS];
+        for (int i = 0; i < GROUPS; i++) {
+            // distinct strings per user, as when read from a database
+            groups[i] = new String("Group Number " + i);
+        }
+        CcPrincipalImpl p = new CcPrincipalImpl().setUserId(userId).setUsername("user" + userId).setFirstName("First")
+                .setLastName("Last").setEmail("user" + userId + "@email.com").setGroups(groups);
+        return new UsernamePasswordAuthenticationToken(p, new Object(), set);
+    }
+
+    private static long gcMillis() {
+        long millis = 0L;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0L, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static long gcCount() {
+        long count = 0L;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0L, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long retainedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime r = Runtime.getRuntime();
+        return r.totalMemory() - r.freeMemory();
+    }
+
+    public static void main(String[] args) {
+
+        boolean offHeap = args.length > 0 && "offheap".equals(args[0]);
+        SsoStorage storage = offHeap ? new OffHeapSsoStorage(new MockServletContext())
+                : new ServletContextBasedSsoStorage(new MockServletContext());
+
+        long heapBefore = retainedHeap();
+        for (int i = 0; i < SESSIONS; i++) {
+            storage.storeUser("unid" + i, token(i));
+        }
+        long heapAfter = retainedHeap();
+
+        // steady state: lookups with a re-login now and then, old logins promoted to the old generation
+        long gcMillisBefore = gcMillis();
+        long gcCountBefore = gcCount();
+        long start = System.nanoTime();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < LOOKUPS; i++) {
+            int user = random.nextInt(SESSIONS);
+            if (i % 50 == 0) {
+                storage.storeUser("unid" + user, token(user));
+            } else {
+                storage.findUser("unid" + user);
+            }
+        }
+        long elapsed = (System.nanoTime() - start) / 1_000_000L;
+
+        System.out.println(storage.getClass().getSimpleName() + ": retained heap " + (heapAfter - heapBefore) / 1024 / 1024 + "MB, "
+                + (gcCount() - gcCountBefore) + " collections taking " + (gcMillis() - gcMillisBefore) + "ms during " + LOOKUPS
+                + " requests in " + elapsed + "ms" + (offHeap ? ", off heap used "
+                        + ((OffHeapSsoStorage) storage).getOffHeapUsedBytes() / 1024 / 1024 + "MB" : ""));
+    }
+
+}
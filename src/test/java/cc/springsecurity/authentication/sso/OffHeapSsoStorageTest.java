@@ -0,0 +1,113 @@
+package cc.springsecurity.authentication.sso;
+
+import static java.util.stream.Collectors.toSet;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import cc.springsecurity.config.CcPrincipal;
+import cc.springsecurity.config.CcPrincipalImpl;
+import junit.framework.Assert;
+
+/**
+ * Tests {@link OffHeapSsoStorage}
+ *
+ * @author Chris Carcel
+ *
+ */
+public class OffHeapSsoStorageTest {
+
+    private static UsernamePasswordAuthenticationToken token(int userId, int groups) {
+        Set<SimpleGrantedAuthority> set = Stream.of(new SimpleGrantedAuthority("Hello")).collect(toSet());
+        String[] g = new String[groups];
+        for (int i = 0; i < groups; i++) {
+            g[i] = "Group " + i;
+        }
+        CcPrincipalImpl p = new CcPrincipalImpl().setUserId(userId).setUsername("user" + userId).setGroups(g);
+        return new UsernamePasswordAuthenticationToken(p, new Object(), set);
+    }
+
+    @Test
+    public void testStoreFindRemove() {
+        OffHeapSsoStorage s = new OffHeapSsoStorage(new MockServletContext());
+        s.storeUser("unid", token(1, 3));
+
+        CcPrincipal found = (CcPrincipal) s.findUser("unid");
+        Assert.assertEquals(Integer.valueOf(1), found.getUserId());
+        Assert.assertEquals(3, found.getGroups().length);
+        Assert.assertTrue(s.getOffHeapUsedBytes() > 0L);
+
+        s.removeUser("unid");
+        Assert.assertNull(s.findUser("unid"));
+        Assert.assertEquals(0L, s.getOffHeapUsedBytes());
+    }
+
+    @Test
+    public void testNotAuthenticated() {
+        OffHeapSsoStorage s = new OffHeapSsoStorage(new MockServletContext());
+        s.storeUser("unid", new UsernamePasswordAuthenticationToken(new Object(), new Object()));
+        Assert.assertNull(s.findUser("unid"));
+    }
+
+    /**
+     * Freed chunks are reused, replaced logins free their old chunk.
+     */
+    @Test
+    public void testMemoryReused() {
+        OffHeapSsoStorage s = new OffHeapSsoStorage(new MockServletContext(), 4, 4096);
+        for (int i = 0; i < 1000; i++) {
+            s.storeUser("unid" + i, token(i, i % 20));
+        }
+        long allocated = s.getOffHeapAllocatedBytes();
+        long used = s.getOffHeapUsedBytes();
+
+        for (int i = 0; i < 1000; i++) {
+            s.storeUser("unid" + i, token(i, i % 20));
+        }
+        Assert.assertEquals(used, s.getOffHeapUsedBytes());
+
+        for (int i = 0; i < 1000; i++) {
+            s.removeUser("unid" + i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            s.storeUser("unid" + i, token(i, i % 20));
+        }
+        Assert.assertEquals(1000, s.size());
+        Assert.assertEquals(allocated, s.getOffHeapAllocatedBytes());
+        Assert.assertEquals(Integer.valueOf(999), ((CcPrincipal) s.findUser("unid999")).getUserId());
+    }
+
+    @Test
+    public void testSharedByContext() {
+        MockServletContext ctx = new MockServletContext();
+        new OffHeapSsoStorage(ctx).storeUser("unid", token(1, 3));
+        Assert.assertNotNull(new OffHeapSsoStorage(ctx).findUser("unid"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooLarge() {
+        new OffHeapSsoStorage(new MockServletContext(), 1, 64).storeUser("unid", token(1, 20));
+    }
+
+    @Test
+    public void testSweep() {
+        OffHeapSsoStorage s = new OffHeapSsoStorage(new MockServletContext(), 4, 4096)
+                .setExpiryPolicy(new SsoExpiryPolicy(0L, 1L, TimeUnit.HOURS));
+        for (int i = 0; i < 10; i++) {
+            s.storeUser("unid" + i, token(i, 1));
+        }
+        long later = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(61L);
+        Assert.assertEquals(0, s.sweep(System.currentTimeMillis(), 100));
+        Assert.assertEquals(6, s.sweep(later, 6));
+        Assert.assertEquals(4, s.sweep(later, 6));
+        Assert.assertEquals(0, s.size());
+        Assert.assertEquals(0L, s.getOffHeapUsedBytes());
+    }
+
+}
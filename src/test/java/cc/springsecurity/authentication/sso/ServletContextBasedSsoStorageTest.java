@@ -3,6 +3,7 @@ package cc.springsecurity.authentication.sso;
 import static java.util.stream.Collectors.toSet;
 
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import org.junit.Test;
@@ -58,4 +59,35 @@ public class ServletContextBasedSsoStorageTest {
         Assert.assertNotNull(findUser);
     }
 
+    @Test
+    public void testExpired() throws InterruptedException {
+        ServletContextBasedSsoStorage ss = new ServletContextBasedSsoStorage(new MockServletContext())
+                .setExpiryPolicy(new SsoExpiryPolicy(1L, 0L, TimeUnit.MILLISECONDS));
+        Set<SimpleGrantedAuthority> set = Stream.of(new SimpleGrantedAuthority("Hello")).collect(toSet());
+        ss.storeUser("unid", new UsernamePasswordAuthenticationToken(new CcPrincipalImpl(), new Object(), set));
+        Thread.sleep(5L);
+        Assert.assertNull(ss.findUser("unid"));
+    }
+
+    /**
+     * The sweep removes bounded batches, an active login stays.
+     */
+    @Test
+    public void testSweep() {
+        ServletContextBasedSsoStorage ss = new ServletContextBasedSsoStorage(new MockServletContext())
+                .setExpiryPolicy(new SsoExpiryPolicy(0L, 1L, TimeUnit.HOURS));
+        Set<SimpleGrantedAuthority> set = Stream.of(new SimpleGrantedAuthority("Hello")).collect(toSet());
+        for (int i = 0; i < 10; i++) {
+            ss.storeUser("unid" + i, new UsernamePasswordAuthenticationToken(new CcPrincipalImpl(), new Object(), set));
+        }
+
+        long now = System.currentTimeMillis();
+        Assert.assertEquals(0, ss.sweep(now, 4));
+
+        long later = now + TimeUnit.MINUTES.toMillis(61L);
+        Assert.assertEquals(4, ss.sweep(later, 4));
+        Assert.assertEquals(4, ss.sweep(later, 4));
+        Assert.assertEquals(2, ss.sweep(later, 4));
+        Assert.assertEquals(0, ss.sweep(later, 4));
+    }
 }
@@ -0,0 +1,203 @@
+package cc.springsecurity.authentication.sso;
+
+import static java.util.stream.Collectors.toSet;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.web.csrf.CsrfFilter;
+import org.springframework.security.web.csrf.HttpSessionCsrfTokenRepository;
+
+import cc.springsecurity.config.CcPrincipal;
+import cc.springsecurity.config.CcPrincipalImpl;
+import junit.framework.Assert;
+
+/**
+ * Tests {@link SsoAsyncLookupFilter}, {@link ExecutorAsyncSsoStorage} and {@link BlockingSsoStorage}
+ *
+ * @author Chris Carcel
+ *
+ */
+public class SsoAsyncLookupFilterTest {
+
+    private final SsoCookieInformation cookieInformation = new HardCodedCookieInformation("cn", null);
+
+    /**
+     * Answers when the test completes the future.
+     */
+    private static class ManualAsyncSsoStorage implements AsyncSsoStorage {
+
+        private final CompletableFuture<UserDetails> answer = new CompletableFuture<>();
+
+        private final AtomicInteger finds = new AtomicInteger();
+
+        @Override
+        public CompletableFuture<UserDetails> findUserAsync(String unid) {
+            finds.incrementAndGet();
+            return answer;
+        }
+
+        @Override
+        public CompletableFuture<Void> storeUserAsync(String unid, Authentication auth) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Void> removeUserAsync(String unid) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static Authentication token(int userId) {
+        Set<SimpleGrantedAuthority> set = Stream.of(new SimpleGrantedAuthority("Hello")).collect(toSet());
+        return new UsernamePasswordAuthenticationToken(new CcPrincipalImpl().setUserId(userId), new Object(), set);
+    }
+
+    private static MockHttpServletRequest request(boolean cookie) {
+        MockHttpServletRequest req = new MockHttpServletRequest("GET", "/app/page");
+        req.setAsyncSupported(true);
+        if (cookie) {
+            req.setCookies(new Cookie("cn", "cv"));
+        }
+        return req;
+    }
+
+    @Test
+    public void testLookupThenDispatch() throws Exception {
+        ManualAsyncSsoStorage storage = new ManualAsyncSsoStorage();
+        SsoAsyncLookupFilter filter = new SsoAsyncLookupFilter(storage, cookieInformation);
+        MockHttpServletRequest req = request(true);
+        MockHttpServletResponse res = new MockHttpServletResponse();
+
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(req, res, chain);
+        Assert.assertTrue(req.isAsyncStarted());
+        Assert.assertNull(chain.getRequest());
+        Assert.assertFalse(SsoRequestResolver.isUserResolved(req));
+
+        MockAsyncContext async = (MockAsyncContext) req.getAsyncContext();
+        Assert.assertNull(async.getDispatchedPath());
+        storage.answer.complete((UserDetails) token(1).getPrincipal());
+        Assert.assertEquals("/app/page", async.getDispatchedPath());
+
+        // the async dispatch continues down the chain, the user is resolved without another lookup
+        req.setDispatcherType(DispatcherType.ASYNC);
+        chain = new MockFilterChain();
+        filter.doFilter(req, res, chain);
+        Assert.assertNotNull(chain.getRequest());
+        Assert.assertEquals(Integer.valueOf(1),
+                ((CcPrincipal) SsoRequestResolver.findUser(req, cookieInformation, new ServletContextBasedSsoStorage(new MockServletContext())))
+                        .getUserId());
+        Assert.assertEquals(1, storage.finds.get());
+    }
+
+    @Test
+    public void testNotFoundIsResolved() throws Exception {
+        ManualAsyncSsoStorage storage = new ManualAsyncSsoStorage();
+        storage.answer.complete(null);
+        MockHttpServletRequest req = request(true);
+        new SsoAsyncLookupFilter(storage, cookieInformation).doFilter(req, new MockHttpServletResponse(), new MockFilterChain());
+
+        Assert.assertTrue(SsoRequestResolver.isUserResolved(req));
+        Assert.assertNull(SsoRequestResolver.findUser(req, cookieInformation, null));
+    }
+
+    @Test
+    public void testErrorDispatchesUnresolved() throws Exception {
+        ManualAsyncSsoStorage storage = new ManualAsyncSsoStorage();
+        storage.answer.completeExceptionally(new IllegalStateException("down"));
+        MockHttpServletRequest req = request(true);
+        new SsoAsyncLookupFilter(storage, cookieInformation).doFilter(req, new MockHttpServletResponse(), new MockFilterChain());
+
+        Assert.assertEquals("/app/page", ((MockAsyncContext) req.getAsyncContext()).getDispatchedPath());
+        Assert.assertFalse(SsoRequestResolver.isUserResolved(req));
+    }
+
+    @Test
+    public void testPassThrough() throws Exception {
+        ManualAsyncSsoStorage storage = new ManualAsyncSsoStorage();
+        SsoAsyncLookupFilter filter = new SsoAsyncLookupFilter(storage, cookieInformation);
+
+        // no cookie
+        MockHttpServletRequest req = request(false);
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(req, new MockHttpServletResponse(), chain);
+        Assert.assertNotNull(chain.getRequest());
+        Assert.assertFalse(req.isAsyncStarted());
+
+        // container without async support
+        req = request(true);
+        req.setAsyncSupported(false);
+        chain = new MockFilterChain();
+        filter.doFilter(req, new MockHttpServletResponse(), chain);
+        Assert.assertNotNull(chain.getRequest());
+
+        Assert.assertEquals(0, storage.finds.get());
+    }
+
+    /**
+     * Behind the csrf filter, as the security config registers it, a post without a token is rejected before any lookup.
+     */
+    @Test
+    public void testCsrfBeforeLookup() throws Exception {
+        ManualAsyncSsoStorage storage = new ManualAsyncSsoStorage();
+        MockHttpServletRequest req = request(true);
+        req.setMethod("POST");
+        MockHttpServletResponse res = new MockHttpServletResponse();
+
+        MockFilterChain chain = new MockFilterChain(new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+        }, new CsrfFilter(new HttpSessionCsrfTokenRepository()), new SsoAsyncLookupFilter(storage, cookieInformation));
+        chain.doFilter(req, res);
+
+        Assert.assertEquals(HttpServletResponse.SC_FORBIDDEN, res.getStatus());
+        Assert.assertFalse(req.isAsyncStarted());
+        Assert.assertEquals(0, storage.finds.get());
+    }
+
+    @Test
+    public void testAdapters() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ExecutorAsyncSsoStorage async = new ExecutorAsyncSsoStorage(new ServletContextBasedSsoStorage(new MockServletContext()), executor);
+            BlockingSsoStorage blocking = new BlockingSsoStorage(async);
+
+            blocking.storeUser("unid", token(2));
+            Assert.assertEquals(Integer.valueOf(2), ((CcPrincipal) async.findUserAsync("unid").get()).getUserId());
+            Assert.assertEquals(Integer.valueOf(2), ((CcPrincipal) blocking.findUser("unid")).getUserId());
+
+            async.removeUserAsync("unid").get();
+            Assert.assertNull(blocking.findUser("unid"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void testBlockingRethrows() {
+        ServletContextBasedSsoStorage storage = new ServletContextBasedSsoStorage(new MockServletContext());
+        storage.storeUser("unid", new UsernamePasswordAuthenticationToken(new Object(), new Object(),
+                Stream.of(new SimpleGrantedAuthority("Hello")).collect(toSet())));
+        new BlockingSsoStorage(new ExecutorAsyncSsoStorage(storage, Runnable::run)).findUser("unid");
+    }
+
+}
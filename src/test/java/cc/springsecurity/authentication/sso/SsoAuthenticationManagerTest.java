@@ -0,0 +1,150 @@
+package cc.springsecurity.authentication.sso;
+
+import static java.util.stream.Collectors.toCollection;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import cc.springsecurity.authentication.HostServletContext;
+import cc.springsecurity.authorization.AbstractHardCodedRolesFinder;
+import junit.framework.Assert;
+
+/**
+ * Tests the authority cache of {@link SsoAuthenticationManager}
+ *
+ * @author Chris Carcel
+ *
+ */
+public class SsoAuthenticationManagerTest {
+
+    private static final HostServletContext CONTEXT = new HostServletContext(null, "/app");
+
+    /**
+     * Counts role lookups, the version is set by the test.
+     */
+    private static class CountingRolesFinder extends AbstractHardCodedRolesFinder {
+
+        private final Map<HostServletContext, Map<String, Set<String>>> map = new HashMap<>();
+
+        private int lookups;
+
+        private long version;
+
+        CountingRolesFinder() {
+            Map<String, Set<String>> roles = new HashMap<>();
+            roles.put("ADMIN", Stream.of("A").collect(toCollection(HashSet::new)));
+            roles.put("USER", Stream.of("A", "B").collect(toCollection(HashSet::new)));
+            map.put(CONTEXT, roles);
+        }
+
+        @Override
+        protected Map<HostServletContext, Map<String, Set<String>>> getRoleGroupMap() {
+            return map;
+        }
+
+        @Override
+        public Set<String> roles(HostServletContext hostServletContext, String[] groups) {
+            lookups++;
+            return super.roles(hostServletContext, groups);
+        }
+
+        @Override
+        public long version() {
+            return version;
+        }
+    }
+
+    private static SsoAuthenticationManager cachingManager() {
+        return new SsoAuthenticationManager().setAuthorityCache(100L, 1L, TimeUnit.MINUTES);
+    }
+
+    @Test
+    public void testOffByDefault() {
+        CountingRolesFinder finder = new CountingRolesFinder();
+        SsoAuthenticationManager manager = new SsoAuthenticationManager().setRolesFinder(finder);
+        manager.authorities(CONTEXT, new String[] { "A" });
+        Assert.assertEquals(2, manager.authorities(CONTEXT, new String[] { "A" }).size());
+        Assert.assertEquals(2, finder.lookups);
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        CountingRolesFinder finder = new CountingRolesFinder();
+        SsoAuthenticationManager manager = new SsoAuthenticationManager().setAuthorityCache(100L, 1L, TimeUnit.MILLISECONDS)
+                .setRolesFinder(finder);
+        manager.authorities(CONTEXT, new String[] { "B" });
+
+        // the finder keeps the default version, the change is picked up once the entry expires
+        finder.getRoleGroupMap().get(CONTEXT).get("ADMIN").add("B");
+        finder.invalidate();
+        Thread.sleep(5L);
+        Assert.assertEquals(2, manager.authorities(CONTEXT, new String[] { "B" }).size());
+        Assert.assertEquals(2, finder.lookups);
+    }
+
+    @Test
+    public void testShared() {
+        CountingRolesFinder finder = new CountingRolesFinder();
+        SsoAuthenticationManager manager = cachingManager().setRolesFinder(finder);
+
+        Collection<SimpleGrantedAuthority> first = manager.authorities(CONTEXT, new String[] { "A", "Z" });
+        Assert.assertEquals(2, first.size());
+        Assert.assertTrue(first.contains(new SimpleGrantedAuthority("ROLE_ADMIN")));
+
+        // equal groups from another principal share the collection
+        Assert.assertSame(first, manager.authorities(CONTEXT, new String[] { "A", "Z" }));
+        Assert.assertEquals(1, finder.lookups);
+
+        Assert.assertEquals(1, manager.authorities(CONTEXT, new String[] { "B" }).size());
+        Assert.assertTrue(manager.authorities(new HostServletContext(null, "/other"), new String[] { "A", "Z" }).isEmpty());
+        Assert.assertEquals(3, finder.lookups);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() {
+        SsoAuthenticationManager manager = cachingManager().setRolesFinder(new CountingRolesFinder());
+        manager.authorities(CONTEXT, new String[] { "A" }).clear();
+    }
+
+    @Test
+    public void testCallerArrayCopied() {
+        CountingRolesFinder finder = new CountingRolesFinder();
+        SsoAuthenticationManager manager = cachingManager().setRolesFinder(finder);
+        String[] groups = new String[] { "A" };
+        manager.authorities(CONTEXT, groups);
+        groups[0] = "B";
+
+        Assert.assertEquals(2, manager.authorities(CONTEXT, new String[] { "A" }).size());
+        Assert.assertEquals(1, finder.lookups);
+    }
+
+    @Test
+    public void testInvalidation() {
+        CountingRolesFinder finder = new CountingRolesFinder();
+        SsoAuthenticationManager manager = cachingManager().setRolesFinder(finder);
+        manager.authorities(CONTEXT, new String[] { "B" });
+
+        // the finder answers differently but reports the same version
+        finder.getRoleGroupMap().get(CONTEXT).get("ADMIN").add("B");
+        finder.invalidate();
+        Assert.assertEquals(1, manager.authorities(CONTEXT, new String[] { "B" }).size());
+
+        finder.version++;
+        Assert.assertEquals(2, manager.authorities(CONTEXT, new String[] { "B" }).size());
+
+        finder.getRoleGroupMap().get(CONTEXT).get("ADMIN").remove("B");
+        finder.invalidate();
+        manager.invalidateAuthorities();
+        Assert.assertEquals(1, manager.authorities(CONTEXT, new String[] { "B" }).size());
+        Assert.assertEquals(3, finder.lookups);
+    }
+
+}
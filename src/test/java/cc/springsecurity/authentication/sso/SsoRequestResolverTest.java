@@ -0,0 +1,78 @@
+package cc.springsecurity.authentication.sso;
+
+import static java.util.stream.Collectors.toSet;
+
+import java.util.Set;
+import java.util.stream.Stream;
+
+import javax.servlet.http.Cookie;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import cc.springsecurity.config.CcPrincipalImpl;
+import junit.framework.Assert;
+
+/**
+ * Tests {@link SsoRequestResolver}
+ *
+ * @author Chris Carcel
+ *
+ */
+public class SsoRequestResolverTest {
+
+    private final SsoCookieInformation cookieInformation = new HardCodedCookieInformation("cn", null);
+
+    @Test
+    public void testNoCookies() {
+        MockHttpServletRequest req = new MockHttpServletRequest();
+        Assert.assertNull(SsoRequestResolver.unid(req, null));
+        Assert.assertNull(SsoRequestResolver.findUser(req, null, new CountingSsoStorage()));
+    }
+
+    @Test
+    public void testLookupOncePerRequest() {
+        CountingSsoStorage storage = new CountingSsoStorage();
+        Set<SimpleGrantedAuthority> set = Stream.of(new SimpleGrantedAuthority("Hello")).collect(toSet());
+        storage.storeUser("cv", new UsernamePasswordAuthenticationToken(new CcPrincipalImpl(), new Object(), set));
+
+        MockHttpServletRequest req = new MockHttpServletRequest();
+        req.setCookies(new Cookie("other", "x"), new Cookie("cn", "cv"));
+
+        Assert.assertEquals("cv", SsoRequestResolver.unid(req, cookieInformation));
+        Assert.assertNotNull(SsoRequestResolver.findUser(req, cookieInformation, storage));
+        Assert.assertNotNull(SsoRequestResolver.findUser(req, cookieInformation, storage));
+        Assert.assertEquals(1, storage.getFinds());
+
+        storage.removeUser("cv");
+        SsoRequestResolver.forgetUser(req);
+        Assert.assertNull(SsoRequestResolver.findUser(req, cookieInformation, storage));
+        Assert.assertNull(SsoRequestResolver.findUser(req, cookieInformation, storage));
+        Assert.assertEquals(2, storage.getFinds());
+    }
+
+    /**
+     * A login during the request drops the user memoized as not found before it.
+     */
+    @Test
+    public void testForgottenOnLogin() throws Exception {
+        CountingSsoStorage storage = new CountingSsoStorage();
+        MockHttpServletRequest req = new MockHttpServletRequest();
+        req.setCookies(new Cookie("cn", "cv"));
+        Assert.assertNull(SsoRequestResolver.findUser(req, cookieInformation, storage));
+        Assert.assertTrue(SsoRequestResolver.isUserResolved(req));
+
+        SsoAuthenticationSuccessHandler handler = new SsoAuthenticationSuccessHandler();
+        handler.setCookieInformation(cookieInformation);
+        handler.setSsoStorage(storage);
+        Set<SimpleGrantedAuthority> set = Stream.of(new SimpleGrantedAuthority("Hello")).collect(toSet());
+        handler.onAuthenticationSuccess(req, new MockHttpServletResponse(),
+                new UsernamePasswordAuthenticationToken(new CcPrincipalImpl(), new Object(), set));
+
+        Assert.assertFalse(SsoRequestResolver.isUserResolved(req));
+    }
+
+}
@@ -0,0 +1,120 @@
+package cc.springsecurity.authentication.sso;
+
+import static java.util.stream.Collectors.toSet;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import cc.springsecurity.config.CcPrincipalImpl;
+import junit.framework.Assert;
+
+/**
+ * Tests {@link SsoStorageSweeper}
+ *
+ * @author Chris Carcel
+ *
+ */
+public class SsoStorageSweeperTest {
+
+    /**
+     * Records the sweeps reaching the storage and the thread running them.
+     */
+    private static class RecordingSsoStorage extends ServletContextBasedSsoStorage {
+
+        private final AtomicInteger sweeps = new AtomicInteger();
+
+        private final AtomicInteger removed = new AtomicInteger();
+
+        private volatile Thread sweeper;
+
+        RecordingSsoStorage() {
+            super(new MockServletContext());
+        }
+
+        @Override
+        public int sweep(long now, int maxBatch) {
+            sweeper = Thread.currentThread();
+            int result = super.sweep(now, maxBatch);
+            removed.addAndGet(result);
+            sweeps.incrementAndGet();
+            return result;
+        }
+    }
+
+    private static Authentication token() {
+        Set<SimpleGrantedAuthority> set = Stream.of(new SimpleGrantedAuthority("Hello")).collect(toSet());
+        return new UsernamePasswordAuthenticationToken(new CcPrincipalImpl(), new Object(), set);
+    }
+
+    private static void await(AtomicInteger counter, int value) throws InterruptedException {
+        for (int i = 0; i < 500 && counter.get() < value; i++) {
+            Thread.sleep(10L);
+        }
+    }
+
+    /**
+     * The scheduled sweep removes expired logins in batches, then close stops the thread.
+     */
+    @Test
+    public void testScheduledSweep() throws InterruptedException {
+        RecordingSsoStorage storage = new RecordingSsoStorage();
+        storage.setExpiryPolicy(new SsoExpiryPolicy(1L, 0L, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < 5; i++) {
+            storage.storeUser("unid" + i, token());
+        }
+        Thread.sleep(5L);
+
+        SsoStorageSweeper sweeper = new SsoStorageSweeper(storage, 10L, TimeUnit.MILLISECONDS, 2);
+        Thread thread;
+        try {
+            await(storage.removed, 5);
+            Assert.assertEquals(5, storage.removed.get());
+            thread = storage.sweeper;
+        } finally {
+            sweeper.close();
+        }
+        Assert.assertEquals(0, storage.sweep(System.currentTimeMillis(), 10));
+
+        Assert.assertNotNull(thread);
+        Assert.assertEquals("SsoStorageSweeper", thread.getName());
+        thread.join(5000L);
+        Assert.assertFalse(thread.isAlive());
+
+        int sweeps = storage.sweeps.get();
+        Thread.sleep(50L);
+        Assert.assertEquals(sweeps, storage.sweeps.get());
+    }
+
+    /**
+     * A sweep failing does not stop the following ones.
+     */
+    @Test
+    public void testSweepFailure() throws InterruptedException {
+        AtomicInteger sweeps = new AtomicInteger();
+        RecordingSsoStorage storage = new RecordingSsoStorage() {
+            @Override
+            public int sweep(long now, int maxBatch) {
+                if (sweeps.incrementAndGet() == 1) {
+                    throw new IllegalStateException("first sweep fails");
+                }
+                return super.sweep(now, maxBatch);
+            }
+        };
+        SsoStorageSweeper sweeper = new SsoStorageSweeper(storage, 10L, TimeUnit.MILLISECONDS, 2);
+        try {
+            await(storage.sweeps, 1);
+            Assert.assertTrue(storage.sweeps.get() >= 1);
+        } finally {
+            sweeper.close();
+        }
+    }
+
+}
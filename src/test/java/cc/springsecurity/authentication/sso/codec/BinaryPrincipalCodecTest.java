@@ -0,0 +1,67 @@
+package cc.springsecurity.authentication.sso.codec;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import cc.springsecurity.config.CcPrincipal;
+import cc.springsecurity.config.CcPrincipalImpl;
+import junit.framework.Assert;
+
+/**
+ * Tests {@link BinaryPrincipalCodec}
+ * 
+ * @author Chris Carcel
+ *
+ */
+public class BinaryPrincipalCodecTest {
+
+    private final PrincipalCodec codec = new BinaryPrincipalCodec();
+
+    @Test
+    public void testRoundTrip() {
+        CcPrincipal p = new CcPrincipalImpl().setUserId(-7).setUsername("user").setFirstName("Félix").setMiddleInitial("M")
+                .setLastName("Last").setEmail("email@email.com").setGroups(new String[] { "c", "a", "b" });
+
+        CcPrincipal decoded = codec.decode(codec.encode(p));
+
+        Assert.assertEquals(Integer.valueOf(-7), decoded.getUserId());
+        Assert.assertEquals("user", decoded.getUsername());
+        Assert.assertEquals("Félix", decoded.getFirstName());
+        Assert.assertEquals("M", decoded.getMiddleInitial());
+        Assert.assertEquals("Last", decoded.getLastName());
+        Assert.assertEquals("email@email.com", decoded.getEmail());
+        Assert.assertTrue(Arrays.equals(new String[] { "a", "b", "c" }, decoded.getGroups()));
+    }
+
+    @Test
+    public void testNulls() {
+        CcPrincipal decoded = codec.decode(codec.encode(new CcPrincipalImpl()));
+        Assert.assertNull(decoded.getUserId());
+        Assert.assertNull(decoded.getEmail());
+        Assert.assertNull(decoded.getGroups());
+    }
+
+    /**
+     * Data written with Java serialization is still readable.
+     */
+    @Test
+    public void testLegacy() {
+        byte[] bytes = new JavaSerializationPrincipalCodec().encode(new CcPrincipalImpl().setUserId(3));
+        Assert.assertEquals(Integer.valueOf(3), codec.decode(bytes).getUserId());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownVersion() {
+        byte[] bytes = codec.encode(new CcPrincipalImpl());
+        bytes[0] = 99;
+        codec.decode(bytes);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTruncated() {
+        byte[] bytes = codec.encode(new CcPrincipalImpl().setEmail("email@email.com"));
+        codec.decode(bytes, 0, bytes.length - 1);
+    }
+
+}
@@ -0,0 +1,71 @@
+package cc.springsecurity.authentication.sso.codec;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import cc.springsecurity.config.CcPrincipal;
+import cc.springsecurity.config.CcPrincipalImpl;
+
+/**
+ * Compares decoding a principal with {@link BinaryPrincipalCodec} and {@link JavaSerializationPrincipalCodec}. Run {@link #main(String[])}
+ * from the IDE or with the test class path.
+ * 
+ * @author Chris Carcel
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrincipalCodecBenchmark {
+
+    private final PrincipalCodec binary = new BinaryPrincipalCodec();
+
+    private final PrincipalCodec java = new JavaSerializationPrincipalCodec();
+
+    private byte[] binaryBytes;
+
+    private byte[] javaBytes;
+
+    @Setup
+    public void setup() {
+        String[] groups = new String[40];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = "Group Number " + i;
+        }
+        CcPrincipal p = new CcPrincipalImpl().setUserId(12345).setUsername("12345").setFirstName("First").setMiddleInitial("M")
+                .setLastName("Last").setEmail("first.last@email.com").setGroups(groups);
+        binaryBytes = binary.encode(p);
+        javaBytes = java.encode(p);
+    }
+
+    @Benchmark
+    public CcPrincipal decodeBinary() {
+        return binary.decode(binaryBytes);
+    }
+
+    @Benchmark
+    public CcPrincipal decodeJavaSerialization() {
+        return java.decode(javaBytes);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PrincipalCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
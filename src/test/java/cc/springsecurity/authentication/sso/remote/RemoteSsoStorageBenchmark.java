@@ -0,0 +1,122 @@
+package cc.springsecurity.authentication.sso.remote;
+
+import static java.util.stream.Collectors.toSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import cc.springsecurity.authentication.sso.FileBasedSsoStorage;
+import cc.springsecurity.authentication.sso.FileBasedSsoStorage.FileLocking;
+import cc.springsecurity.config.CcPrincipalImpl;
+
+/**
+ * Compares the throughput of {@link RemoteSsoStorage} against a local {@link SsoSessionServer} with {@link FileBasedSsoStorage} in its
+ * locking production mode, 8 threads looking up 1000 logins, and storing and removing one. Run {@link #main(String[])} from the IDE or with
+ * the test class path.
+ *
+ * @author Chris Carcel
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class RemoteSsoStorageBenchmark {
+
+    private static final int USERS = 1000;
+
+    private SsoSessionServer server;
+
+    private RemoteSsoStorage remote;
+
+    private File file;
+
+    private FileBasedSsoStorage fileBased;
+
+    private Authentication token;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new SsoSessionServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), RemoteSsoStorageTest.SECRET).start();
+        remote = new RemoteSsoStorage(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()), RemoteSsoStorageTest.SECRET);
+        file = File.createTempFile("benchmark_logins", "");
+        fileBased = new FileBasedSsoStorage(file, FileLocking.REGION);
+
+        Set<SimpleGrantedAuthority> set = Stream.of(new SimpleGrantedAuthority("Hello")).collect(toSet());
+        String[] groups = new String[10];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = "Group Number " + i;
+        }
+        token = new UsernamePasswordAuthenticationToken(
+                new CcPrincipalImpl().setUserId(1).setUsername("user").setEmail("user@email.com").setGroups(groups), new Object(), set);
+        for (int i = 0; i < USERS; i++) {
+            remote.storeUser("unid" + i, token);
+            fileBased.storeUser("unid" + i, token);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        remote.close();
+        server.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public UserDetails findRemote() {
+        return remote.findUser("unid" + ThreadLocalRandom.current().nextInt(USERS));
+    }
+
+    @Benchmark
+    public UserDetails findFileBased() {
+        return fileBased.findUser("unid" + ThreadLocalRandom.current().nextInt(USERS));
+    }
+
+    @Benchmark
+    public void storeRemoveRemote() {
+        String unid = "new" + Thread.currentThread().getId();
+        remote.storeUser(unid, token);
+        remote.removeUser(unid);
+    }
+
+    @Benchmark
+    public void storeRemoveFileBased() {
+        String unid = "new" + Thread.currentThread().getId();
+        fileBased.storeUser(unid, token);
+        fileBased.removeUser(unid);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RemoteSsoStorageBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,259 @@
+package cc.springsecurity.authentication.sso.remote;
+
+import static java.util.stream.Collectors.toSet;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import cc.springsecurity.config.CcPrincipal;
+import cc.springsecurity.config.CcPrincipalImpl;
+import junit.framework.Assert;
+
+/**
+ * Tests {@link RemoteSsoStorage} against a {@link SsoSessionServer} on localhost.
+ *
+ * @author Chris Carcel
+ *
+ */
+public class RemoteSsoStorageTest {
+
+    static final byte[] SECRET = "the secret shared by the tests".getBytes(StandardCharsets.UTF_8);
+
+    private SsoSessionServer server;
+
+    private RemoteSsoStorage storage;
+
+    @Before
+    public void before() {
+        server = new SsoSessionServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), SECRET).start();
+        storage = new RemoteSsoStorage(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()), SECRET);
+    }
+
+    @After
+    public void after() {
+        storage.close();
+        server.close();
+    }
+
+    private static UsernamePasswordAuthenticationToken token(int userId) {
+        Set<SimpleGrantedAuthority> set = Stream.of(new SimpleGrantedAuthority("Hello")).collect(toSet());
+        CcPrincipalImpl p = new CcPrincipalImpl().setUserId(userId).setUsername("user" + userId).setGroups(new String[] { "B", "A" });
+        return new UsernamePasswordAuthenticationToken(p, new Object(), set);
+    }
+
+    @Test
+    public void testStoreFindRemove() {
+        Assert.assertNull(storage.findUser("unid"));
+
+        storage.storeUser("unid", token(1));
+        UserDetails found = storage.findUser("unid");
+        Assert.assertEquals(Integer.valueOf(1), ((CcPrincipal) found).getUserId());
+        Assert.assertEquals(1, server.size());
+
+        storage.removeUser("unid");
+        Assert.assertNull(storage.findUser("unid"));
+    }
+
+    @Test
+    public void testNotAuthenticated() {
+        storage.storeUser("unid", new UsernamePasswordAuthenticationToken(new Object(), new Object()));
+        Assert.assertEquals(0, server.size());
+    }
+
+    /**
+     * Many requests in flight at once are each answered with their own response.
+     */
+    @Test
+    public void testPipelining() {
+        List<CompletableFuture<Void>> stores = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            stores.add(storage.storeUserAsync("unid" + i, token(i)));
+        }
+        CompletableFuture.allOf(stores.toArray(new CompletableFuture<?>[0])).join();
+
+        List<CompletableFuture<UserDetails>> finds = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            finds.add(storage.findUserAsync("unid" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(Integer.valueOf(i), ((CcPrincipal) finds.get(i).join()).getUserId());
+        }
+    }
+
+    /**
+     * A server restart breaks the connections, the next request reconnects.
+     */
+    @Test
+    public void testReconnect() {
+        storage.storeUser("unid", token(1));
+        int port = server.getPort();
+        server.close();
+
+        try {
+            storage.findUser("unid");
+            storage.findUser("unid");
+            Assert.fail("server is down");
+        } catch (RuntimeException expected) {
+            // the connections are broken
+        }
+
+        server = new SsoSessionServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), SECRET).start();
+        Assert.assertNull(storage.findUser("unid"));
+        Assert.assertNull(storage.findUser("unid"));
+    }
+
+    /**
+     * A client with the wrong secret is refused before any request.
+     */
+    @Test
+    public void testWrongSecret() {
+        storage.storeUser("unid", token(1));
+        RemoteSsoStorage other = new RemoteSsoStorage(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()),
+                "not the secret of the server".getBytes(StandardCharsets.UTF_8));
+        try {
+            other.findUser("unid");
+            Assert.fail("wrong secret");
+        } catch (RuntimeException expected) {
+            // refused
+        } finally {
+            other.close();
+        }
+        try {
+            other.storeUser("unid2", token(2));
+            Assert.fail("closed");
+        } catch (RuntimeException expected) {
+            // closed
+        }
+        Assert.assertEquals(1, server.size());
+    }
+
+    /**
+     * A request sent without answering the challenge is not served, the connection is closed.
+     */
+    @Test
+    public void testNoHandshake() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.setSoTimeout(5000);
+            ByteBuffer frame = Protocol.request(1L, Protocol.OP_STORE, "forged", new byte[Protocol.MAC_SIZE]);
+            socket.getOutputStream().write(frame.array(), 0, frame.limit());
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            in.readFully(new byte[Protocol.NONCE_SIZE]);
+            Assert.assertEquals(-1, in.read());
+        }
+        Assert.assertEquals(0, server.size());
+    }
+
+    /**
+     * A request the server never answers fails after the timeout, blocking or not, and is forgotten.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        try (ServerSocket silent = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread t = new Thread(() -> {
+                try (Socket socket = silent.accept()) {
+                    // answer the handshake, then never anything else
+                    socket.getOutputStream().write(new byte[Protocol.NONCE_SIZE]);
+                    new DataInputStream(socket.getInputStream()).readFully(new byte[Protocol.MAC_SIZE]);
+                    socket.getOutputStream().write(Protocol.STATUS_OK);
+                    while (socket.getInputStream().read() >= 0) {
+                        // read the requests
+                    }
+                } catch (IOException e) {
+                    // closed by the test
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+
+            RemoteSsoStorage slow = new RemoteSsoStorage(new InetSocketAddress(InetAddress.getLoopbackAddress(), silent.getLocalPort()),
+                    SECRET, 1, 200L);
+            try {
+                CompletableFuture<UserDetails> find = slow.findUserAsync("unid");
+                try {
+                    find.join();
+                    Assert.fail("no answer");
+                } catch (CompletionException e) {
+                    Assert.assertTrue(e.getCause() instanceof TimeoutException);
+                }
+                Assert.assertEquals(0, slow.getOutstandingCount());
+
+                try {
+                    slow.removeUser("unid");
+                    Assert.fail("no answer");
+                } catch (RuntimeException expected) {
+                    // timed out
+                }
+                for (int i = 0; i < 100 && slow.getOutstandingCount() > 0; i++) {
+                    Thread.sleep(10L);
+                }
+                Assert.assertEquals(0, slow.getOutstandingCount());
+            } finally {
+                slow.close();
+            }
+        }
+    }
+
+    /**
+     * A client which keeps asking without reading the answers is disconnected rather than buffered without limit.
+     */
+    @Test
+    public void testClientNotReading() throws IOException {
+        CcPrincipalImpl big = new CcPrincipalImpl().setUserId(1);
+        String[] groups = new String[20000];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = "a group with a rather long name number " + i;
+        }
+        big.setGroups(groups);
+        storage.storeUser("big", new UsernamePasswordAuthenticationToken(big, new Object(), token(1).getAuthorities()));
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.setSoTimeout(10000);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] nonce = new byte[Protocol.NONCE_SIZE];
+            in.readFully(nonce);
+            socket.getOutputStream().write(Protocol.mac(SECRET, nonce));
+            Assert.assertEquals(Protocol.STATUS_OK, in.readByte());
+
+            ByteBuffer finds = ByteBuffer.allocate(64 * 1024);
+            for (long id = 1; finds.remaining() > 64; id++) {
+                finds.put(Protocol.request(id, Protocol.OP_FIND, "big", null));
+            }
+            socket.getOutputStream().write(finds.array(), 0, finds.position());
+
+            // the server drops the connection, only what fitted in the socket buffers arrives
+            long read = 0;
+            byte[] buffer = new byte[64 * 1024];
+            try {
+                for (int n; (n = in.read(buffer)) >= 0;) {
+                    read += n;
+                }
+            } catch (IOException e) {
+                // reset by the server
+            }
+            Assert.assertTrue(read < SsoSessionServer.MAX_OUTPUT_SIZE);
+        }
+        Assert.assertNotNull(storage.findUser("big"));
+    }
+
+}
@@ -0,0 +1,70 @@
+package cc.springsecurity.authorization;
+
+import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toSet;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import cc.springsecurity.authentication.HostServletContext;
+import junit.framework.Assert;
+
+/**
+ * Tests {@link CompiledRoleIndex}
+ *
+ * @author Chris Carcel
+ *
+ */
+public class CompiledRoleIndexTest {
+
+    private static final HostServletContext CONTEXT = new HostServletContext(null, "/app");
+
+    private static CompiledRoleIndex index() {
+        Map<String, Set<String>> roleGroups = new HashMap<>();
+        roleGroups.put("ADMIN", Stream.of("admins").collect(toCollection(HashSet::new)));
+        roleGroups.put("USER", Stream.of("admins", "users").collect(toCollection(HashSet::new)));
+        roleGroups.put("AUDIT", Stream.of("auditors").collect(toCollection(HashSet::new)));
+        Map<HostServletContext, Map<String, Set<String>>> map = new HashMap<>();
+        map.put(CONTEXT, roleGroups);
+        return CompiledRoleIndex.compile(map);
+    }
+
+    @Test
+    public void testRoles() {
+        CompiledRoleIndex index = index();
+        Assert.assertEquals(Stream.of("ADMIN", "USER").collect(toSet()), index.roles(CONTEXT, new String[] { "x", "admins" }));
+        Assert.assertEquals(Stream.of("USER", "AUDIT").collect(toSet()), index.roles(CONTEXT, new String[] { "users", "auditors" }));
+        Assert.assertEquals(3, index.roles(CONTEXT, new String[] { "users", "admins", "auditors", "x" }).size());
+        Assert.assertTrue(index.roles(CONTEXT, new String[] { "x" }).isEmpty());
+        Assert.assertTrue(index.roles(new HostServletContext(null, "/other"), new String[] { "admins" }).isEmpty());
+    }
+
+    /**
+     * Users with the same roles share the set, which cannot be changed.
+     */
+    @Test
+    public void testShared() {
+        CompiledRoleIndex index = index();
+        Set<String> first = index.roles(CONTEXT, new String[] { "admins" });
+        Assert.assertSame(first, index.roles(CONTEXT, new String[] { "users", "admins" }));
+        try {
+            first.add("OTHER");
+            Assert.fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        // the index was not changed by combining groups
+        Assert.assertEquals(Stream.of("USER").collect(toSet()), index.roles(CONTEXT, new String[] { "users" }));
+    }
+
+    @Test
+    public void testEmpty() {
+        Assert.assertTrue(CompiledRoleIndex.compile(null).roles(CONTEXT, new String[] { "admins" }).isEmpty());
+    }
+
+}
@@ -0,0 +1,103 @@
+package cc.springsecurity.authorization;
+
+import static java.util.stream.Collectors.toSet;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cc.springsecurity.authentication.HostServletContext;
+import junit.framework.Assert;
+
+/**
+ * Tests {@link FileWatchingRolesFinder}
+ *
+ * @author Chris Carcel
+ *
+ */
+public class FileWatchingRolesFinderTest {
+
+    private static final HostServletContext APP = new HostServletContext(null, "/app");
+
+    private Path dir;
+
+    private Path file;
+
+    @Before
+    public void before() throws Exception {
+        dir = Files.createTempDirectory("roles");
+        file = dir.resolve("roles.properties");
+        write(file, "|/app|ADMIN=Admins, Ops\n|/app|USER=Staff,Admins\nintranet.example.com|/hr|MANAGER=HR\n");
+    }
+
+    @After
+    public void after() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private static void write(Path path, String content) throws Exception {
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLoad() {
+        FileWatchingRolesFinder finder = new FileWatchingRolesFinder(file);
+        Assert.assertEquals(Stream.of("ADMIN", "USER").collect(toSet()), finder.roles(APP, new String[] { "Ops", "Staff" }));
+        Assert.assertEquals(Stream.of("MANAGER").collect(toSet()),
+                finder.roles(new HostServletContext("intranet.example.com", "/hr"), new String[] { "HR" }));
+        Assert.assertTrue(finder.roles(new HostServletContext(null, "/hr"), new String[] { "HR" }).isEmpty());
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        FileWatchingRolesFinder finder = new FileWatchingRolesFinder(file);
+        long version = finder.version();
+
+        write(file, "|/app|ADMIN=Staff\n");
+        Assert.assertTrue(finder.reload());
+        Assert.assertTrue(finder.version() != version);
+        Assert.assertEquals(Stream.of("ADMIN").collect(toSet()), finder.roles(APP, new String[] { "Staff" }));
+
+        // a broken file keeps the previous mappings
+        version = finder.version();
+        write(file, "no pipes=Staff\n");
+        Assert.assertFalse(finder.reload());
+        Assert.assertEquals(version, finder.version());
+        Assert.assertEquals(Stream.of("ADMIN").collect(toSet()), finder.roles(APP, new String[] { "Staff" }));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMissing() {
+        new FileWatchingRolesFinder(dir.resolve("missing.properties"));
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        try (FileWatchingRolesFinder finder = new FileWatchingRolesFinder(file).start()) {
+            long version = finder.version();
+
+            // saved the way editors do, by replacing the file
+            Path tmp = dir.resolve("roles.tmp");
+            write(tmp, "|/app|AUDIT=Staff\n");
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            long deadline = System.currentTimeMillis() + 30000L;
+            while (finder.version() == version && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50L);
+            }
+            Assert.assertEquals(Stream.of("AUDIT").collect(toSet()), finder.roles(APP, new String[] { "Staff" }));
+        }
+    }
+
+}
@@ -79,4 +79,23 @@ public class HardCodedRolesFinderTest {
         Assert.assertNull(map);
     }
 
+    @Test
+    public void testRoles() {
+        Assert.assertEquals(Stream.of("ROLE1").collect(toSet()), roles.roles(new HostServletContext(null, "/bob"), new String[] { "B", "Z" }));
+        Assert.assertEquals(Stream.of("ROLE2", "ROLE3").collect(toSet()),
+                roles.roles(new HostServletContext("fred", "/bob"), new String[] { "A", "C" }));
+        Assert.assertTrue(roles.roles(new HostServletContext("fred", "/bob"), new String[] { "Z" }).isEmpty());
+        Assert.assertTrue(roles.roles(new HostServletContext(null, "/bober"), new String[] { "A" }).isEmpty());
+        Assert.assertTrue(roles.roles(new HostServletContext(null, "/bob"), null).isEmpty());
+    }
+
+    @Test
+    public void testInvalidate() {
+        long version = roles.version();
+        roles.roles(new HostServletContext(null, "/bob"), new String[] { "A" });
+        roles.invalidate();
+        Assert.assertTrue(roles.version() != version);
+        Assert.assertEquals(1, roles.roles(new HostServletContext(null, "/bob"), new String[] { "A" }).size());
+    }
+
 }
@@ -0,0 +1,99 @@
+package cc.springsecurity.authorization;
+
+import static java.util.stream.Collectors.toSet;
+
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import cc.springsecurity.authentication.HostServletContext;
+import junit.framework.Assert;
+
+/**
+ * Tests {@link JdbcRolesFinder} against an embedded database.
+ *
+ * @author Chris Carcel
+ *
+ */
+public class JdbcRolesFinderTest {
+
+    private static final HostServletContext APP = new HostServletContext(null, "/app");
+
+    private EmbeddedDatabase database;
+
+    private JdbcTemplate t;
+
+    @Before
+    public void before() {
+        database = new EmbeddedDatabaseBuilder().generateUniqueName(true).setType(EmbeddedDatabaseType.H2)
+                .addScript("cc/springsecurity/authorization/roles-schema.sql").build();
+        t = new JdbcTemplate(database);
+        insert(null, "/app", "ADMIN", "Admins", 100L);
+        insert(null, "/app", "USER", "Staff", 100L);
+        insert("intranet.example.com", "/hr", "MANAGER", "HR", 100L);
+    }
+
+    @After
+    public void after() {
+        database.shutdown();
+    }
+
+    private void insert(String host, String context, String role, String group, long updated) {
+        t.update("insert into ROLE_GROUPS (HOST, CONTEXT, ROLE_NAME, GROUP_NAME, UPDATED) values (?, ?, ?, ?, ?)", host, context, role,
+                group, updated);
+    }
+
+    @Test
+    public void testSnapshot() {
+        JdbcRolesFinder finder = new JdbcRolesFinder(database);
+        Assert.assertEquals(Stream.of("ADMIN", "USER").collect(toSet()), finder.roles(APP, new String[] { "Admins", "Staff" }));
+        Assert.assertEquals(Stream.of("MANAGER").collect(toSet()),
+                finder.roles(new HostServletContext("intranet.example.com", "/hr"), new String[] { "HR" }));
+
+        // served from memory
+        t.update("delete from ROLE_GROUPS");
+        Assert.assertEquals(1, finder.roles(APP, new String[] { "Admins" }).size());
+    }
+
+    @Test
+    public void testRefresh() {
+        JdbcRolesFinder finder = new JdbcRolesFinder(database).setOverlapMillis(0L);
+        long version = finder.version();
+        Assert.assertFalse(finder.refresh());
+        Assert.assertEquals(version, finder.version());
+
+        insert(null, "/app", "ADMIN", "Staff", 200L);
+        t.update("update ROLE_GROUPS set DELETED = 1, UPDATED = 201 where ROLE_NAME = 'USER'");
+        Assert.assertTrue(finder.refresh());
+        Assert.assertTrue(finder.version() != version);
+        Assert.assertEquals(Stream.of("ADMIN").collect(toSet()), finder.roles(APP, new String[] { "Staff" }));
+
+        // revived later
+        t.update("update ROLE_GROUPS set DELETED = 0, UPDATED = 300 where ROLE_NAME = 'USER'");
+        Assert.assertTrue(finder.refresh());
+        Assert.assertEquals(Stream.of("ADMIN", "USER").collect(toSet()), finder.roles(APP, new String[] { "Staff" }));
+    }
+
+    /**
+     * A row committed late with an UPDATED value below the highest seen is picked up within the overlap.
+     */
+    @Test
+    public void testOverlap() {
+        JdbcRolesFinder finder = new JdbcRolesFinder(database).setOverlapMillis(50L);
+        insert(null, "/app", "AUDIT", "Staff", 120L);
+        insert(null, "/app", "AUDIT", "Ops", 90L);
+        Assert.assertTrue(finder.refresh());
+        Assert.assertEquals(Stream.of("AUDIT", "USER").collect(toSet()), finder.roles(APP, new String[] { "Staff" }));
+        Assert.assertEquals(Stream.of("AUDIT").collect(toSet()), finder.roles(APP, new String[] { "Ops" }));
+
+        // re-reading the same rows is not a change
+        Assert.assertFalse(finder.refresh());
+    }
+
+}
@@ -0,0 +1,227 @@
+package cc.springsecurity.authorization.rolematchers;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.access.AccessDecisionManager;
+import org.springframework.security.access.AccessDecisionVoter;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.access.SecurityConfig;
+import org.springframework.security.access.vote.UnanimousBased;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.web.FilterInvocation;
+import org.springframework.security.web.access.expression.DefaultWebSecurityExpressionHandler;
+import org.springframework.security.web.access.expression.ExpressionBasedFilterInvocationSecurityMetadataSource;
+import org.springframework.security.web.access.expression.WebExpressionVoter;
+import org.springframework.security.web.access.intercept.FilterInvocationSecurityMetadataSource;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.AnyRequestMatcher;
+import org.springframework.security.web.util.matcher.IpAddressMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+
+import junit.framework.Assert;
+
+/**
+ * Tests {@link CompiledMatcherRoles} and {@link MatcherRolesVoter} give the first match, as trying each entry in order does.
+ *
+ * @author Chris Carcel
+ *
+ */
+public class CompiledMatcherRolesTest {
+
+    private static MockHttpServletRequest request(String servletPath, String pathInfo, String query) {
+        MockHttpServletRequest r = new MockHttpServletRequest("GET", servletPath + (null == pathInfo ? "" : pathInfo));
+        r.setServletPath(servletPath);
+        r.setPathInfo(pathInfo);
+        r.setQueryString(query);
+        r.setRemoteAddr("10.0.0.1");
+        return r;
+    }
+
+    /**
+     * What spring does: the first entry whose matcher matches.
+     */
+    private static MatcherRoles linear(MatcherRolesContainer container, MockHttpServletRequest request) {
+        for (MatcherRoles mr : container.getRoles()) {
+            if (mr.matcher().matches(request)) {
+                return mr;
+            }
+        }
+        return null;
+    }
+
+    private static MatcherRolesContainer container() {
+        return new MatcherRolesContainer().antPath("/admin/users/*", "USERADMIN").regexPatterns("/admin/.*\\?debug=(true|1)", "DEBUG")
+                .antPath("/admin/**", "ADMIN").antPath("/api/*/orders/**", "ORDERS").antPath("/api/**/reports", "REPORTS")
+                .requestMatchers(new IpAddressMatcher("10.0.0.0/8"), "INTERNAL").antPath("/img/*.png", "IMAGES")
+                .antPath("/exact", "EXACT").regexPatterns("/(\\w+)/\\1", "ECHO").regexPatterns("/api/v[0-9]+/.*", "API")
+                .regexPatterns("/files/.*", "FILES").antPath("/files/{name}/**", "NAMED").antPath("/top/*", "TOP").antPath("/*", "ROOT")
+                .antPath("/**", "ALL");
+    }
+
+    @Test
+    public void testSameAsLinear() {
+        MatcherRolesContainer container = container();
+        CompiledMatcherRoles compiled = container.compile();
+        String[][] requests = { { "/admin", null, null }, { "/admin/users/7", null, null }, { "/admin/users/7/x", null, null },
+                { "/admin/x", null, "debug=true" }, { "/admin/x", null, "debug=no" }, { "/api", "/v1/orders", null },
+                { "/api", "/v1/orders/9", null }, { "/api/a/b/reports", null, null }, { "/api/reports", null, null },
+                { "/img/a.png", null, null }, { "/img/a.gif", null, null }, { "/exact", null, null }, { "/exact/", null, null },
+                { "/echo/echo", null, null }, { "/api/v2/x", null, null }, { "/files/a/b", null, null }, { "", null, null },
+                { "/", null, null }, { "/other", "/deep/path", "q=1" }, { "/admin/", null, null }, { "/admin//", null, null },
+                { "/admin/users/", null, null }, { "/admin/users", null, null }, { "/admin/users//", null, null }, { "/top/", null, null },
+                { "/top", null, null }, { "/top//", null, null }, { "/top", "/", null }, { "/files/a/", null, null } };
+        for (String[] r : requests) {
+            MockHttpServletRequest request = request(r[0], r[1], r[2]);
+            Assert.assertSame(Arrays.toString(r), linear(container, request), compiled.match(request));
+
+            // and without the ip matcher deciding
+            request.setRemoteAddr("192.168.1.1");
+            Assert.assertSame(Arrays.toString(r), linear(container, request), compiled.match(request));
+        }
+    }
+
+    /**
+     * A last <code>*</code> takes the empty segment after a trailing slash, the compiled container must not fall through to a later entry.
+     */
+    @Test
+    public void testTrailingSlash() {
+        MatcherRolesContainer container = new MatcherRolesContainer().antPath("/admin/*", "ADMIN").antPath("/**", "USER");
+        Assert.assertEquals("ADMIN", container.compile().match(request("/admin/", null, null)).roles()[0]);
+        Assert.assertEquals("ADMIN", container.compile().match(request("/admin//", null, null)).roles()[0]);
+        Assert.assertEquals("USER", container.compile().match(request("/admin", null, null)).roles()[0]);
+    }
+
+    @Test
+    public void testOrder() {
+        MatcherRolesContainer container = new MatcherRolesContainer().regexPatterns("/a/.*", "FIRST").antPath("/a/**", "SECOND")
+                .regexPatterns("/a/b", "THIRD");
+        Assert.assertEquals("FIRST", container.compile().match(request("/a/b", null, null)).roles()[0]);
+
+        // adding entries recompiles
+        container = new MatcherRolesContainer().antPath("/b/**", "SECOND");
+        Assert.assertNull(container.compile().match(request("/a/b", null, null)));
+        container.regexPatterns("/a/b", "THIRD");
+        Assert.assertEquals("THIRD", container.compile().match(request("/a/b", null, null)).roles()[0]);
+    }
+
+    /**
+     * Several <code>**</code> against a long path, the path is walked once instead of trying every split.
+     */
+    @Test(timeout = 5000L)
+    public void testManyDoubleWildcards() {
+        MatcherRolesContainer container = new MatcherRolesContainer().antPath("/**/a/**/a/**/a/**/a/**/a/**/b", "DEEP").antPath("/x/**",
+                "X");
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            path.append("/a");
+        }
+        Assert.assertNull(container.compile().match(request(path.toString(), null, null)));
+
+        MockHttpServletRequest request = request(path.append("/b").toString(), null, null);
+        Assert.assertSame(linear(container, request), container.compile().match(request));
+        Assert.assertEquals("DEEP", container.compile().match(request).roles()[0]);
+    }
+
+    @Test
+    public void testVoter() {
+        MatcherRolesVoter voter = new MatcherRolesVoter(container());
+        Authentication admin = new UsernamePasswordAuthenticationToken("u", null, AuthorityUtils.createAuthorityList("ROLE_ADMIN"));
+        Authentication anonymous = new AnonymousAuthenticationToken("key", "anon", AuthorityUtils.createAuthorityList("ROLE_ANONYMOUS"));
+        Authentication nobody = new UsernamePasswordAuthenticationToken("u", null, Collections.emptyList());
+
+        MatcherRoles adminEntry = container().compile().match(request("/admin/x", null, null));
+        Assert.assertEquals(AccessDecisionVoter.ACCESS_GRANTED, voter.decide(admin, adminEntry));
+        Assert.assertEquals(AccessDecisionVoter.ACCESS_DENIED, voter.decide(nobody, adminEntry));
+        Assert.assertEquals(AccessDecisionVoter.ACCESS_DENIED, voter.decide(anonymous, adminEntry));
+        Authentication xadmin = new UsernamePasswordAuthenticationToken("u", null, AuthorityUtils.createAuthorityList("ROLE_XADMIN"));
+        Assert.assertEquals(AccessDecisionVoter.ACCESS_DENIED, voter.decide(xadmin, adminEntry));
+
+        // no match, left to the expression voter
+        Assert.assertEquals(AccessDecisionVoter.ACCESS_ABSTAIN, voter.decide(nobody, null));
+        Assert.assertEquals(AccessDecisionVoter.ACCESS_ABSTAIN, voter.decide(anonymous, null));
+    }
+
+    private static boolean granted(AccessDecisionManager manager, FilterInvocationSecurityMetadataSource source, Authentication auth,
+            String path) {
+        FilterInvocation fi = new FilterInvocation(request(path, null, null), new MockHttpServletResponse(), new MockFilterChain());
+        try {
+            manager.decide(auth, fi, source.getAttributes(fi));
+            return true;
+        } catch (AccessDeniedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Next to the expression voter, as the security config sets it up, the expression rules decide what the container does not match.
+     */
+    @Test
+    public void testWithExpressionVoter() {
+        LinkedHashMap<RequestMatcher, Collection<ConfigAttribute>> rules = new LinkedHashMap<>();
+        rules.put(new AntPathRequestMatcher("/public/**"), SecurityConfig.createList("permitAll"));
+        rules.put(AnyRequestMatcher.INSTANCE, SecurityConfig.createList("authenticated"));
+        FilterInvocationSecurityMetadataSource source = new ExpressionBasedFilterInvocationSecurityMetadataSource(rules,
+                new DefaultWebSecurityExpressionHandler());
+        MatcherRolesVoter voter = new MatcherRolesVoter(new MatcherRolesContainer().antPath("/admin/**", "ADMIN"));
+        AccessDecisionManager manager = new UnanimousBased(Arrays.asList(voter, new WebExpressionVoter()));
+
+        Authentication admin = new UsernamePasswordAuthenticationToken("u", null, AuthorityUtils.createAuthorityList("ROLE_ADMIN"));
+        Authentication user = new UsernamePasswordAuthenticationToken("v", null, AuthorityUtils.createAuthorityList("ROLE_USER"));
+        Authentication anonymous = new AnonymousAuthenticationToken("key", "anon", AuthorityUtils.createAuthorityList("ROLE_ANONYMOUS"));
+
+        Assert.assertTrue(granted(manager, source, anonymous, "/public/x"));
+        Assert.assertFalse(granted(manager, source, anonymous, "/other"));
+        Assert.assertTrue(granted(manager, source, user, "/other"));
+        Assert.assertFalse(granted(manager, source, user, "/admin/x"));
+        Assert.assertTrue(granted(manager, source, admin, "/admin/x"));
+    }
+
+    @Test
+    public void testDecisionCache() {
+        MatcherRolesContainer container = new MatcherRolesContainer().antPath("/admin/**", "ADMIN").regexPatterns("/report\\?secret=.*",
+                "SECRET");
+        MatcherRolesVoter voter = new MatcherRolesVoter(container).setDecisionCacheSize(100);
+        Authentication admin = new UsernamePasswordAuthenticationToken("u", null, AuthorityUtils.createAuthorityList("ROLE_ADMIN"));
+        Authentication other = new UsernamePasswordAuthenticationToken("v", null, AuthorityUtils.createAuthorityList("ROLE_USER"));
+        Authentication anonymous = new AnonymousAuthenticationToken("key", "anon", AuthorityUtils.createAuthorityList("ROLE_ANONYMOUS"));
+
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(AccessDecisionVoter.ACCESS_GRANTED, voter.vote(admin, request("/admin/x", null, null)));
+            Assert.assertEquals(AccessDecisionVoter.ACCESS_DENIED, voter.vote(other, request("/admin/x", null, null)));
+            Assert.assertEquals(AccessDecisionVoter.ACCESS_DENIED, voter.vote(other, request("/report", null, "secret=no-role")));
+            Assert.assertEquals(AccessDecisionVoter.ACCESS_ABSTAIN, voter.vote(other, request("/report", null, "public=1")));
+            Assert.assertEquals(AccessDecisionVoter.ACCESS_ABSTAIN, voter.vote(anonymous, request("/report", null, "public=1")));
+        }
+
+        // rebuilding the container drops the cached decisions
+        container.antPath("/**", "ADMIN");
+        Assert.assertEquals(AccessDecisionVoter.ACCESS_DENIED, voter.vote(other, request("/report", null, "public=1")));
+        Assert.assertEquals(AccessDecisionVoter.ACCESS_GRANTED, voter.vote(admin, request("/report", null, "public=1")));
+    }
+
+    @Test
+    public void testDecisionCacheNotUrlOnly() {
+        MatcherRolesContainer container = new MatcherRolesContainer().requestMatchers(new IpAddressMatcher("10.0.0.0/8"), "INTERNAL");
+        MatcherRolesVoter voter = new MatcherRolesVoter(container).setDecisionCacheSize(100);
+        Authentication user = new UsernamePasswordAuthenticationToken("u", null, AuthorityUtils.createAuthorityList("ROLE_USER"));
+
+        // same url, the ip decides, so nothing is cached
+        Assert.assertEquals(AccessDecisionVoter.ACCESS_DENIED, voter.vote(user, request("/x", null, null)));
+        MockHttpServletRequest external = request("/x", null, null);
+        external.setRemoteAddr("192.168.1.1");
+        Assert.assertEquals(AccessDecisionVoter.ACCESS_ABSTAIN, voter.vote(user, external));
+        Assert.assertNull(container.compile().urlKey(external));
+    }
+
+}
@@ -0,0 +1,69 @@
+package cc.springsecurity.authorization.rolematchers;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.web.util.matcher.IpAddressMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+
+import junit.framework.Assert;
+
+/**
+ * Tests {@link CompiledRequestMatcher} matches when any matcher of the container matches.
+ *
+ * @author Chris Carcel
+ *
+ */
+public class CompiledRequestMatcherTest {
+
+    private static MockHttpServletRequest request(String servletPath, String pathInfo) {
+        MockHttpServletRequest r = new MockHttpServletRequest("GET", servletPath + (null == pathInfo ? "" : pathInfo));
+        r.setServletPath(servletPath);
+        r.setPathInfo(pathInfo);
+        r.setRemoteAddr("192.168.1.1");
+        return r;
+    }
+
+    private static boolean any(RequestMatcherContainer container, MockHttpServletRequest request) {
+        for (RequestMatcher matcher : container.getList()) {
+            if (matcher.matches(request)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testSameAsAny() {
+        RequestMatcherContainer container = new RequestMatcherContainer().antPatterns("/css/**", "/fonts/**", "/js/lib/**", "/favicon.ico",
+                "/static/", "/img/*.png", "/api/**/public", "/a//b/**", "/assets/*").regexPatterns("/health\\?.*")
+                .requestMatcher(new IpAddressMatcher("10.0.0.0/8"));
+        CompiledRequestMatcher compiled = container.compile();
+        String[][] requests = { { "/css", null }, { "/css/", null }, { "/css/site.css", null }, { "/cssx/site.css", null },
+                { "/app", "/css/site.css" }, { "/js/lib/a/b.js", null }, { "/js/app.js", null }, { "/favicon.ico", null },
+                { "//favicon.ico", null }, { "/favicon.ico/", null }, { "/static/", null }, { "/static", null },
+                { "/img/a.png", null }, { "/img/a.gif", null }, { "/api/v1/public", null }, { "/api/public/x", null },
+                { "/a//b/c", null }, { "/a/b/c", null }, { "", null }, { "/", null }, { "/fonts", "/x.woff" }, { "/assets/", null },
+                { "/assets", null }, { "/assets//", null }, { "/assets/a", null }, { "/assets/a/", null }, { "/assets", "/" } };
+        for (String[] r : requests) {
+            MockHttpServletRequest request = request(r[0], r[1]);
+            Assert.assertEquals(r[0] + r[1], any(container, request), compiled.matches(request));
+
+            request.setRemoteAddr("10.1.1.1");
+            Assert.assertTrue(compiled.matches(request));
+        }
+    }
+
+    @Test
+    public void testRecompile() {
+        RequestMatcherContainer container = new RequestMatcherContainer().antPatterns("/css/**");
+        Assert.assertFalse(container.compile().matches(request("/js/a.js", null)));
+        Assert.assertSame(container.compile(), container.compile());
+
+        container.antPatterns("/js/**");
+        Assert.assertTrue(container.compile().matches(request("/js/a.js", null)));
+
+        container.antPatterns("/**");
+        Assert.assertTrue(container.compile().matches(request("/anything", null)));
+    }
+
+}
@@ -0,0 +1,74 @@
+package cc.springsecurity.config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collection;
+
+import org.junit.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import junit.framework.Assert;
+
+/**
+ * Tests {@link SymbolTable} and its use by {@link CcPrincipalImpl}
+ *
+ * @author Chris Carcel
+ *
+ */
+public class SymbolTableTest {
+
+    @Test
+    public void testIds() {
+        SymbolTable table = new SymbolTable("X_");
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(i, table.id("name" + i));
+        }
+        Assert.assertEquals(500, table.id(new String("name500")));
+        Assert.assertEquals("name500", table.name(500));
+        Assert.assertEquals(new SimpleGrantedAuthority("X_name500"), table.authority(500));
+        Assert.assertSame(table.authority(500), table.authority("name500"));
+        Assert.assertSame(table.name(7), table.intern(new String("name7")));
+        Assert.assertEquals(1000, table.size());
+    }
+
+    @Test
+    public void testPrincipalShares() {
+        CcPrincipalImpl a = new CcPrincipalImpl().setGroups(new String[] { new String("Sales"), new String("Admins") });
+        CcPrincipalImpl b = new CcPrincipalImpl().setGroups(new String[] { new String("Admins"), new String("Admins") });
+
+        Assert.assertEquals("Admins", a.getGroups()[0]);
+        Assert.assertSame(a.getGroups()[0], b.getGroups()[0]);
+
+        Collection<? extends GrantedAuthority> authorities = a.getAuthorities();
+        Assert.assertEquals(2, authorities.size());
+        Assert.assertTrue(authorities.contains(new SimpleGrantedAuthority("GROUP_Sales")));
+        Assert.assertSame(authorities, a.getAuthorities());
+        Assert.assertSame(authorities.iterator().next(), b.getAuthorities().iterator().next());
+        // duplicates collapse as they did in a set
+        Assert.assertEquals(1, b.getAuthorities().size());
+
+        a.setGroups(new String[] { "Other" });
+        Assert.assertEquals(new SimpleGrantedAuthority("GROUP_Other"), a.getAuthorities().iterator().next());
+
+        Assert.assertNull(new CcPrincipalImpl().getAuthorities());
+    }
+
+    @Test
+    public void testDeserializedShares() throws Exception {
+        CcPrincipalImpl p = new CcPrincipalImpl().setUsername("fred").setGroups(new String[] { "Admins" });
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(p);
+        }
+        CcPrincipalImpl read;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = (CcPrincipalImpl) in.readObject();
+        }
+        Assert.assertSame(p.getGroups()[0], read.getGroups()[0]);
+        Assert.assertEquals(1, read.getAuthorities().size());
+    }
+
+}